@@ -0,0 +1,430 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs a macro on many files, using several headless ImageJ 1.x instances.
+ * <p>
+ * The input files are processed by a number of worker threads, each of which
+ * checks out its own {@link LegacyEnvironment} from a
+ * {@link LegacyEnvironmentPool}. The workers take the next input from a shared
+ * queue whenever they are done with the previous one, so that slow files do
+ * not hold up the others. Between files, the state of the ImageJ 1.x instance
+ * is reset (see {@link LegacyEnvironmentPool#checkIn(LegacyEnvironment)}).
+ * </p>
+ * <p>
+ * The macro is passed the argument {@code input=[<file>] output=[<dir>]},
+ * which can be parsed like this:
+ * </p>
+ * 
+ * <pre>
+ * input = call("ij.Macro.getValue", getArgument(), "input", "");
+ * output = call("ij.Macro.getValue", getArgument(), "output", "");
+ * </pre>
+ * <p>
+ * Use it from the command-line like this:
+ * </p>
+ * 
+ * <pre>
+ * java -cp ... net.imagej.patcher.BatchRunner &lt;macro&gt; &lt;input&gt; &lt;output-directory&gt; [&lt;workers&gt;]
+ * </pre>
+ * <p>
+ * where {@code <input>} is either a directory (all of whose files are
+ * processed) or a text file listing the input files, one per line. Progress
+ * is reported on {@code stderr}; at the end, the throughput, the latency
+ * percentiles and the files for which the macro aborted are printed.
+ * </p>
+ */
+public class BatchRunner {
+
+	private final String macro;
+	private final List<File> inputs;
+	private final File outputDirectory;
+	private final int workers;
+	private PrintStream progress = System.err;
+
+	/**
+	 * Constructs a new batch runner.
+	 * 
+	 * @param macro the macro code
+	 * @param inputs the files to process
+	 * @param outputDirectory the directory passed to the macro as
+	 *          {@code output}
+	 * @param workers the number of ImageJ 1.x instances to use in parallel
+	 */
+	public BatchRunner(final String macro, final List<File> inputs,
+		final File outputDirectory, final int workers)
+	{
+		if (workers < 1) {
+			throw new IllegalArgumentException("Invalid number of workers: " +
+				workers);
+		}
+		this.macro = macro;
+		this.inputs = new ArrayList<File>(inputs);
+		this.outputDirectory = outputDirectory;
+		this.workers = workers;
+	}
+
+	/**
+	 * Sets where to report the progress.
+	 * 
+	 * @param progress the stream to report to, or {@code null} to be quiet
+	 */
+	public void setProgress(final PrintStream progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * Creates the pool of ImageJ 1.x instances.
+	 * <p>
+	 * Override this method to configure the environments.
+	 * </p>
+	 * 
+	 * @return the pool
+	 */
+	protected LegacyEnvironmentPool newPool() {
+		return new LegacyEnvironmentPool(workers, 0, true);
+	}
+
+	/**
+	 * Processes all input files.
+	 * 
+	 * @return the statistics
+	 * @throws InterruptedException
+	 */
+	public Result run() throws InterruptedException {
+		final LegacyEnvironmentPool pool = newPool();
+		final Queue<File> queue = new ConcurrentLinkedQueue<File>(inputs);
+		final Result result = new Result(inputs.size());
+		final long start = System.nanoTime();
+		final Thread[] threads = new Thread[Math.min(workers, inputs.size())];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread("BatchRunner-" + i) {
+
+				@Override
+				public void run() {
+					work(pool, queue, result);
+				}
+			};
+			threads[i].start();
+		}
+		try {
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+		}
+		finally {
+			pool.close();
+		}
+		result.wallNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	private void work(final LegacyEnvironmentPool pool, final Queue<File> queue,
+		final Result result)
+	{
+		LegacyEnvironment environment = null;
+		File input = null;
+		try {
+			for (;;) {
+				input = queue.poll();
+				if (input == null) return;
+				if (environment == null) environment = pool.checkOut();
+				final String arg = "input=[" + input.getAbsolutePath() +
+					"] output=[" + outputDirectory.getAbsolutePath() + "]";
+				final long start = System.nanoTime();
+				Throwable failure = null;
+				try {
+					final String value = environment.evalMacro(macro, arg);
+					if ("[aborted]".equals(value)) {
+						failure = new RuntimeException("Macro aborted");
+					}
+				}
+				catch (final Throwable t) {
+					failure = t;
+				}
+				final long nanos = System.nanoTime() - start;
+				pool.checkIn(environment);
+				environment = null;
+				result.record(input, nanos, failure, progress);
+				input = null;
+			}
+		}
+		catch (final Throwable t) {
+			// could not initialize ImageJ 1.x; leave the files to the others
+			synchronized (result) {
+				if (progress != null) {
+					progress.println("Worker " + Thread.currentThread().getName() +
+						" failed: " + t);
+				}
+				if (input != null) result.skip(input, t, progress);
+				if (++result.failedWorkers == result.workers()) {
+					// nobody left: fail the remaining files
+					for (;;) {
+						final File remaining = queue.poll();
+						if (remaining == null) break;
+						result.skip(remaining, t, progress);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The outcome of a batch run.
+	 */
+	public class Result {
+
+		private final int total;
+		private final long[] latencies;
+		private int done;
+		/** The number of files the macro actually ran on. */
+		private int ran;
+		private int failedWorkers;
+		private long wallNanos;
+		private final List<String> failures = new ArrayList<String>();
+
+		private Result(final int total) {
+			this.total = total;
+			latencies = new long[total];
+		}
+
+		private int workers() {
+			return Math.min(workers, total);
+		}
+
+		private synchronized void record(final File input, final long nanos,
+			final Throwable failure, final PrintStream progress)
+		{
+			done++;
+			latencies[ran++] = nanos;
+			if (failure == null) report(input, (nanos / 1000000) + " ms", progress);
+			else {
+				final String reason = reason(failure);
+				failures.add(input + ": " + reason);
+				report(input, "FAILED after " + (nanos / 1000000) + " ms: " + reason,
+					progress);
+			}
+		}
+
+		/**
+		 * Records a file that could not be processed because no ImageJ 1.x
+		 * instance was available. Such files do not count towards the latencies.
+		 */
+		private synchronized void skip(final File input, final Throwable failure,
+			final PrintStream progress)
+		{
+			done++;
+			final String reason = reason(failure);
+			failures.add(input + ": not processed: " + reason);
+			report(input, "NOT PROCESSED: " + reason, progress);
+		}
+
+		private void report(final File input, final String message,
+			final PrintStream progress)
+		{
+			if (progress != null) {
+				progress.println("[" + done + "/" + total + "] " + input + ": " +
+					message);
+			}
+		}
+
+		private String reason(final Throwable failure) {
+			return failure.getMessage() != null ? failure.getMessage() : failure
+				.toString();
+		}
+
+		/**
+		 * Gets the number of files handled so far, including those that could
+		 * not be processed.
+		 * 
+		 * @return the number of files
+		 */
+		public synchronized int getCount() {
+			return done;
+		}
+
+		/**
+		 * Gets the number of files the macro actually ran on, successfully or
+		 * not. Only these files count towards the latencies and the throughput.
+		 * 
+		 * @return the number of files
+		 */
+		public synchronized int getRunCount() {
+			return ran;
+		}
+
+		/**
+		 * Gets the files that could not be processed.
+		 * 
+		 * @return the list of failures, with the reasons
+		 */
+		public synchronized List<String> getFailures() {
+			return Collections.unmodifiableList(new ArrayList<String>(failures));
+		}
+
+		/**
+		 * Gets the latency below which the given percentage of the files were
+		 * processed.
+		 * <p>
+		 * Files that were not processed at all because no ImageJ 1.x instance
+		 * could be initialized are not taken into account.
+		 * </p>
+		 * 
+		 * @param percentile the percentile, between 0 and 100
+		 * @return the latency in milliseconds
+		 */
+		public synchronized double getLatency(final double percentile) {
+			if (ran == 0) return 0;
+			final long[] sorted = Arrays.copyOf(latencies, ran);
+			Arrays.sort(sorted);
+			final int rank = (int) Math.ceil(percentile / 100 * ran);
+			return sorted[Math.max(0, Math.min(ran, rank) - 1)] / 1e6;
+		}
+
+		/**
+		 * Writes a summary of the run.
+		 * 
+		 * @param out the stream to write to
+		 */
+		public synchronized void report(final PrintStream out) {
+			final double seconds = wallNanos / 1e9;
+			out.printf("Processed %d files with %d workers in %.1f s " +
+				"(%.2f files/s)%n", ran, workers(), seconds, seconds > 0 ? ran /
+				seconds : 0);
+			if (done > ran) {
+				out.printf("Not processed: %d files%n", done - ran);
+			}
+			out.printf("Latency: p50 %.0f ms, p90 %.0f ms, p99 %.0f ms, " +
+				"max %.0f ms%n", getLatency(50), getLatency(90), getLatency(99),
+				getLatency(100));
+			out.println("Failures: " + failures.size());
+			for (final String failure : failures) {
+				out.println("\t" + failure);
+			}
+		}
+	}
+
+	/**
+	 * The main method.
+	 * 
+	 * @param args the macro file, the input directory or list of files, the
+	 *          output directory and optionally the number of workers
+	 * @throws Exception
+	 */
+	public static void main(final String... args) throws Exception {
+		if (args.length < 3 || args.length > 4) {
+			System.err.println("Usage: java " + BatchRunner.class.getName() +
+				" <macro> <input-directory-or-list> <output-directory> [<workers>]");
+			System.exit(2);
+		}
+		final String macro = read(new File(args[0]));
+		final List<File> inputs = listInputs(new File(args[1]));
+		final File output = new File(args[2]);
+		if (!output.isDirectory() && !output.mkdirs()) {
+			throw new IOException("Could not make directory: " + output);
+		}
+		final int workers = args.length > 3 ? Integer.parseInt(args[3]) : Runtime
+			.getRuntime().availableProcessors();
+		final Result result =
+			new BatchRunner(macro, inputs, output, workers).run();
+		result.report(System.out);
+		System.exit(result.getFailures().isEmpty() ? 0 : 1);
+	}
+
+	/**
+	 * Lists the files in a directory, or the files listed in a text file.
+	 * 
+	 * @param input the directory, or the text file (paths are relative to its
+	 *          parent directory; empty lines and lines starting with {@code #}
+	 *          are ignored)
+	 * @return the input files
+	 * @throws IOException
+	 */
+	static List<File> listInputs(final File input) throws IOException {
+		final List<File> result = new ArrayList<File>();
+		if (input.isDirectory()) {
+			final File[] list = input.listFiles();
+			if (list != null) for (final File file : list) {
+				if (file.isFile() && !file.isHidden()) result.add(file);
+			}
+			Collections.sort(result);
+			return result;
+		}
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+			new FileInputStream(input), "UTF-8"));
+		try {
+			for (;;) {
+				final String line = reader.readLine();
+				if (line == null) break;
+				final String path = line.trim();
+				if (path.length() == 0 || path.startsWith("#")) continue;
+				final File file = new File(path);
+				result.add(file.isAbsolute() ? file : new File(input
+					.getAbsoluteFile().getParentFile(), path));
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return result;
+	}
+
+	private static String read(final File file) throws IOException {
+		final InputStream in = new FileInputStream(file);
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[16384];
+			for (;;) {
+				final int count = in.read(buffer);
+				if (count < 0) break;
+				out.write(buffer, 0, count);
+			}
+			return out.toString("UTF-8");
+		}
+		finally {
+			in.close();
+		}
+	}
+}
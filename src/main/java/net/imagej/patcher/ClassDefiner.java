@@ -0,0 +1,257 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javassist.CannotCompileException;
+import javassist.util.proxy.DefineClassHelper;
+
+/**
+ * Defines patched bytecode in a given class loader.
+ * <p>
+ * Depending on the class loader (and on the Java version), there are different
+ * ways to inject classes into a class loader. This class encapsulates them.
+ * Since it needs nothing but the bytecode, it is used both by the
+ * {@link CodeHacker} and to define patched classes retrieved from the
+ * {@link PatchedClassCache}, in which case no Javassist {@code ClassPool} is
+ * needed at all.
+ * </p>
+ */
+class ClassDefiner {
+
+	/**
+	 * Maps each patchable IJ package to a simple, unpatched seed class in that
+	 * package. Used by {@link #define} to obtain a {@code MethodHandles.Lookup}
+	 * for the package via {@code DefineClassHelper.toClass(neighbor, bytes)},
+	 * which calls {@code MethodHandles.privateLookupIn(seed, ...)} and then
+	 * {@code Lookup.defineClass()} — no reflection into {@code ClassLoader}
+	 * internals, so this works on Java 17+ without {@code --add-opens}.
+	 *
+	 * <p>Requirements for a valid seed: (1) not itself patched; (2) no static
+	 * initializer that references a patched class; (3) supertype chain contains
+	 * no patched classes (supertypes are loaded eagerly at link time).
+	 * Interfaces with only primitive/{@code String} members are ideal.
+	 */
+	private static final Map<String, String> PACKAGE_SEEDS;
+	static {
+		final Map<String, String> m = new LinkedHashMap<>();
+		m.put("ij",               "ij.IJEventListener");
+		m.put("ij.gui",           "ij.gui.RoiListener");
+		m.put("ij.io",            "ij.io.BitBuffer");
+		m.put("ij.macro",         "ij.macro.MacroConstants");
+		m.put("ij.plugin",        "ij.plugin.PlugIn");
+		m.put("ij.plugin.filter", "ij.plugin.filter.SaltAndPepper");
+		m.put("ij.plugin.frame",  "ij.plugin.frame.PlugInFrame");
+		m.put("ij.text",          "ij.text.TextWindow");
+		// CodeHacker is never patched itself, and loading it (without
+		// initializing it) does not pull in any patched class, so it is a safe,
+		// always-available seed for this package.
+		m.put("net.imagej.patcher", "net.imagej.patcher.CodeHacker");
+		PACKAGE_SEEDS = m;
+	}
+
+	/**
+	 * True when running on Java 9+, where {@code MethodHandles.privateLookupIn()}
+	 * and {@code Lookup.defineClass()} are available. On Java 8 the seed path is
+	 * skipped and the legacy {@code toClass(ClassLoader, ProtectionDomain)} path
+	 * is used instead (module encapsulation did not exist on Java 8, so reflection
+	 * into {@code ClassLoader.defineClass()} works without any flags there).
+	 */
+	private static final boolean LOOKUP_DEFINE_AVAILABLE;
+	static {
+		boolean available = false;
+		try {
+			java.lang.invoke.MethodHandles.class.getMethod(
+				"privateLookupIn", Class.class, java.lang.invoke.MethodHandles.Lookup.class);
+			available = true;
+		}
+		catch (final NoSuchMethodException ignored) {}
+		LOOKUP_DEFINE_AVAILABLE = available;
+	}
+
+	/** Cache of already-loaded seed classes, keyed by package name. */
+	private final Map<String, Class<?>> packageSeedCache = new LinkedHashMap<>();
+
+	private final ClassLoader classLoader;
+
+	ClassDefiner(final ClassLoader classLoader) {
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * Returns a seed class for the package of {@code className}, loading it
+	 * from {@link #classLoader} on first use (without initialization, so no
+	 * static initializers run). Returns {@code null} if no seed is configured
+	 * for that package or if the seed class cannot be found.
+	 */
+	private Class<?> getPackageSeed(final String className) {
+		final int dot = className.lastIndexOf('.');
+		if (dot < 0) return null;
+		final String pkg = className.substring(0, dot);
+		if (!LOOKUP_DEFINE_AVAILABLE) return null;
+		if (packageSeedCache.containsKey(pkg)) return packageSeedCache.get(pkg);
+		final String seedName = PACKAGE_SEEDS.get(pkg);
+		Class<?> seed = null;
+		if (seedName != null) {
+			try {
+				seed = Class.forName(seedName, false, classLoader);
+			}
+			catch (final ClassNotFoundException e) {
+				System.err.println("Warning: seed class " + seedName +
+					" not found; falling back to legacy toClass() for package " + pkg);
+			}
+		}
+		packageSeedCache.put(pkg, seed);
+		return seed;
+	}
+
+	/**
+	 * Defines the given bytecode in the class loader.
+	 * 
+	 * @param className the name of the class
+	 * @param bytecode the (patched) bytecode
+	 * @return the defined class, or {@code null} if the class will only be
+	 *         defined when it is first loaded (or could not be defined)
+	 */
+	Class<?> define(final String className, final byte[] bytecode) {
+		try {
+			// For LegacyClassLoader, pre-register the bytes so that findClass() picks
+			// them up and calls defineClass() from within the classloader itself — no
+			// reflection required, works on all Java versions.
+			if (classLoader instanceof LegacyClassLoader) {
+				((LegacyClassLoader) classLoader).storePatchedClass(className, bytecode);
+				return classLoader.loadClass(className);
+			}
+			// Primary path for other classloaders: toClass(seed, ...) uses
+			// MethodHandles.privateLookupIn(seed, ...) followed by Lookup.defineClass().
+			// No reflection into ClassLoader internals — works on Java 17+ without
+			// --add-opens. The seed is a simple, unpatched class pre-loaded from the
+			// same package (see PACKAGE_SEEDS).
+			final Class<?> seed = getPackageSeed(className);
+			if (seed != null) {
+				return DefineClassHelper.toClass(seed, bytecode);
+			}
+			// Fallback: Java agent — hand bytes to a ClassFileTransformer so the JVM
+			// defines the class itself when it is first loaded.
+			if (JavaAgent.getInstrumentation() != null) {
+				JavaAgent.storePatchedClass(className, bytecode);
+				return null; // defined lazily on first class load
+			}
+			// Last resort: toClass(name, null, classLoader, ...) requires --add-opens
+			// on Java 17+.
+			return DefineClassHelper.toClass(className, null, classLoader, null,
+				bytecode);
+		}
+		catch (final CannotCompileException e) {
+			// Cannot use LogService; it will not be initialized by the time the
+			// LegacyService class is loaded, which is when the CodeHacker is run
+			if (e.getCause() != null && e.getCause() instanceof LinkageError) {
+				throw CodeHacker.javaAgentHint("Cannot load class: " + className +
+					" (loader: " + classLoader + ")", e.getCause());
+			}
+			System.err.println("Warning: Cannot load class: " + className +
+				" into " + classLoader);
+			e.printStackTrace();
+			return null;
+		}
+		catch (final LinkageError e) {
+			// On Java 17+, bytecode verification is eager: when defining a patched
+			// class, the JVM verifier may load classes it references from the JAR
+			// (unpatched) before we get a chance to define our patched versions.
+			// When we then try to define the patched version, we get a
+			// "duplicate class definition" LinkageError. Log a warning and continue
+			// so that the remaining patches (especially the critical ij.IJ._hooks
+			// field) can still be applied.
+			if (e.getMessage() != null && e.getMessage().contains("duplicate class definition")) {
+				System.err.println("Warning: Cannot define patched class " +
+					className + " (already loaded by JVM verifier): " +
+					e.getMessage());
+				return null;
+			}
+			throw e;
+		}
+		catch (final Exception e) {
+			System.err.println("Warning: Cannot load class: " + className +
+				" into " + classLoader);
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Registers a recipe to define the given class when it is first loaded.
+	 * <p>
+	 * This is only possible with a {@link LegacyClassLoader} or when running
+	 * with the {@link JavaAgent}.
+	 * </p>
+	 * 
+	 * @param className the name of the class
+	 * @param bytecode the recipe producing the (patched) bytecode
+	 * @return whether the recipe was registered; if not, the caller needs to
+	 *         {@link #define} the class eagerly
+	 */
+	boolean defineLazily(final String className,
+		final Supplier<byte[]> bytecode)
+	{
+		if (classLoader instanceof LegacyClassLoader) {
+			((LegacyClassLoader) classLoader).storePatchedClass(className, bytecode);
+			return true;
+		}
+		if (JavaAgent.getInstrumentation() != null) {
+			JavaAgent.storePatchedClass(className, bytecode);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Defines the given classes, in order.
+	 * <p>
+	 * Just like {@link CodeHacker#loadClasses()}, this stops the Java agent's
+	 * transformer that reports premature loading of ImageJ 1.x classes.
+	 * </p>
+	 * 
+	 * @param classes the bytecode, keyed by class name, in definition order
+	 */
+	void defineAll(final Map<String, byte[]> classes) {
+		try {
+			JavaAgent.stop();
+		}
+		catch (final Throwable t) {
+			// ignore
+		}
+		for (final Map.Entry<String, byte[]> entry : classes.entrySet()) {
+			define(entry.getKey(), entry.getValue());
+		}
+	}
+}
@@ -0,0 +1,387 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Remembers which directories contain {@code .class} files.
+ * <p>
+ * ImageJ 1.x allows bare {@code .class} files in subdirectories of
+ * {@code plugins/}, and developers like to put their {@code target/classes/}
+ * directories on the class path, too. To find the subdirectories that need to
+ * be added to the class path, the patched {@code ij.IJ} used to list every
+ * single directory below them whenever it initialized its class loader. This
+ * index records the subdirectories of every directory and whether it contains
+ * {@code .class} files, keyed on its path and modification time, so that only
+ * directories which changed need to be listed again. Directories that are not
+ * yet known are listed in parallel.
+ * </p>
+ * <p>
+ * The index is kept in memory for the lifetime of the JVM and, if the system
+ * property {@code ij1.patcher.cache} points to a directory, on disk.
+ * </p>
+ * <p>
+ * Do not use: for internal use only.
+ * </p>
+ */
+public final class ClassDirectoryIndex {
+
+	/**
+	 * Increment this whenever the format changes.
+	 */
+	private final static int FORMAT_VERSION = 1;
+
+	private final static String FILE_NAME = "class-directories.idx";
+
+	/**
+	 * Directories are listed in parallel down to this depth, and sequentially
+	 * below, to avoid drowning the pool in tiny tasks.
+	 */
+	private final static int PARALLEL_DEPTH = 3;
+
+	/**
+	 * Modification times this close to the time of listing are not trusted,
+	 * as the file system might not be able to tell a later change apart.
+	 */
+	private final static long MODIFICATION_TIME_RESOLUTION = 2000;
+
+	private static ClassDirectoryIndex defaultIndex;
+
+	private final File file;
+	private final Map<String, Entry> entries =
+		new ConcurrentHashMap<String, Entry>();
+	private final Map<ClassLoader, Loader> loaders =
+		new WeakHashMap<ClassLoader, Loader>();
+	private boolean loaded;
+	private volatile boolean dirty;
+
+	private static class Entry {
+
+		private final long lastModified;
+		private final boolean containsClassFiles;
+		private final String[] subdirectories;
+
+		private Entry(final long lastModified, final boolean containsClassFiles,
+			final String[] subdirectories)
+		{
+			this.lastModified = lastModified;
+			this.containsClassFiles = containsClassFiles;
+			this.subdirectories = subdirectories;
+		}
+	}
+
+	private static class Loader {
+
+		private final List<File> directories;
+		private final WeakReference<URLClassLoader> loader;
+
+		private Loader(final List<File> directories, final URLClassLoader loader) {
+			this.directories = directories;
+			this.loader = new WeakReference<URLClassLoader>(loader);
+		}
+	}
+
+	/**
+	 * Creates an index.
+	 * 
+	 * @param directory the directory in which to store the index, or
+	 *          {@code null} to keep it in memory only
+	 */
+	ClassDirectoryIndex(final File directory) {
+		file = directory == null ? null : new File(directory, FILE_NAME);
+	}
+
+	/**
+	 * Gets the index shared by all ImageJ 1.x instances in this JVM.
+	 * 
+	 * @return the index
+	 */
+	public static synchronized ClassDirectoryIndex getDefault() {
+		if (defaultIndex == null) {
+			final String path =
+				System.getProperty(PatchedClassCache.CACHE_DIRECTORY_PROPERTY);
+			defaultIndex = new ClassDirectoryIndex(path == null ||
+				path.trim().length() == 0 ? null : new File(path));
+		}
+		return defaultIndex;
+	}
+
+	/**
+	 * Finds the subdirectories containing {@code .class} files, directly or
+	 * further down.
+	 * <p>
+	 * Subdirectories are added to {@code missing} after their own
+	 * subdirectories.
+	 * </p>
+	 * 
+	 * @param directories the directories to inspect; their subdirectories are
+	 *          skipped if they are contained in this set
+	 * @param missing the set to add the subdirectories to; subdirectories
+	 *          contained in this set are skipped
+	 */
+	public synchronized void findMissing(final Set<File> directories,
+		final Set<File> missing)
+	{
+		load();
+		final List<Refresh> tasks = new ArrayList<Refresh>();
+		for (final File dir : directories) {
+			tasks.add(new Refresh(dir, 0));
+		}
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		for (final File dir : directories) {
+			findMissing(dir, directories, missing);
+		}
+		save();
+	}
+
+	/**
+	 * Obtains a class loader for the given directories.
+	 * <p>
+	 * If the same directories were requested for the same parent before, the
+	 * same class loader is returned.
+	 * </p>
+	 * 
+	 * @param parent the parent class loader
+	 * @param directories the class path of the new class loader
+	 * @return the class loader
+	 * @throws MalformedURLException
+	 */
+	public synchronized ClassLoader getClassLoader(final ClassLoader parent,
+		final Collection<File> directories) throws MalformedURLException
+	{
+		final List<File> list = new ArrayList<File>(directories);
+		final Loader previous = loaders.get(parent);
+		if (previous != null && previous.directories.equals(list)) {
+			final URLClassLoader loader = previous.loader.get();
+			if (loader != null) return loader;
+		}
+		final URL[] urls = new URL[list.size()];
+		int i = 0;
+		for (final File dir : list) {
+			urls[i++] = dir.toURI().toURL();
+		}
+		final URLClassLoader loader = new URLClassLoader(urls, parent);
+		loaders.put(parent, new Loader(list, loader));
+		return loader;
+	}
+
+	private boolean findMissing(final File dir, final Set<File> already,
+		final Set<File> missing)
+	{
+		final Entry entry = entries.get(dir.getAbsolutePath());
+		if (entry == null) return false;
+		boolean containsClassFiles = entry.containsClassFiles;
+		for (final String name : entry.subdirectories) {
+			final File sub = new File(dir, name);
+			if (already.contains(sub) || missing.contains(sub)) continue;
+			if (findMissing(sub, already, missing)) {
+				containsClassFiles = true;
+				missing.add(sub);
+			}
+		}
+		return containsClassFiles;
+	}
+
+	/**
+	 * Lists a directory, unless its modification time is unchanged, and then
+	 * does the same for its subdirectories.
+	 */
+	private class Refresh extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File dir;
+		private final int depth;
+
+		private Refresh(final File dir, final int depth) {
+			this.dir = dir;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+			final Entry entry = refresh(dir);
+			if (entry == null) return;
+			final List<Refresh> tasks = new ArrayList<Refresh>();
+			for (final String name : entry.subdirectories) {
+				final Refresh task = new Refresh(new File(dir, name), depth + 1);
+				if (depth < PARALLEL_DEPTH) tasks.add(task);
+				else task.compute();
+			}
+			invokeAll(tasks);
+		}
+	}
+
+	private Entry refresh(final File dir) {
+		final String key = dir.getAbsolutePath();
+		final long lastModified = dir.lastModified();
+		final Entry entry = entries.get(key);
+		if (entry != null && entry.lastModified == lastModified &&
+			lastModified != 0)
+		{
+			return entry;
+		}
+		final File[] list = dir.listFiles();
+		if (list == null) {
+			if (entry != null) {
+				entries.remove(key);
+				dirty = true;
+			}
+			return null;
+		}
+		boolean containsClassFiles = false;
+		final List<String> subdirectories = new ArrayList<String>();
+		for (final File sub : list) {
+			if (sub.isDirectory()) subdirectories.add(sub.getName());
+			else if (sub.getName().endsWith(".class")) containsClassFiles = true;
+		}
+		final boolean recent =
+			System.currentTimeMillis() - lastModified < MODIFICATION_TIME_RESOLUTION;
+		final Entry result = new Entry(recent ? 0 : lastModified,
+			containsClassFiles, subdirectories.toArray(new String[subdirectories
+				.size()]));
+		entries.put(key, result);
+		dirty = true;
+		return result;
+	}
+
+	private void save() {
+		if (!dirty || file == null) return;
+		dirty = false;
+		File tmp = null;
+		try {
+			final File directory = file.getParentFile();
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Could not make directory: " + directory);
+			}
+			tmp = File.createTempFile(FILE_NAME, ".tmp", directory);
+			final DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+				new FileOutputStream(tmp)));
+			try {
+				// forget about directories that went away
+				for (final Iterator<String> iter = entries.keySet().iterator(); iter
+					.hasNext();)
+				{
+					if (!new File(iter.next()).isDirectory()) iter.remove();
+				}
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(entries.size());
+				for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+					final Entry value = entry.getValue();
+					out.writeUTF(entry.getKey());
+					out.writeLong(value.lastModified);
+					out.writeBoolean(value.containsClassFiles);
+					out.writeInt(value.subdirectories.length);
+					for (final String name : value.subdirectories) {
+						out.writeUTF(name);
+					}
+				}
+			}
+			finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				// Windows cannot rename onto an existing file
+				if (!file.delete() || !tmp.renameTo(file)) {
+					throw new IOException("Could not rename " + tmp + " to " + file);
+				}
+			}
+		}
+		catch (final IOException e) {
+			System.err.println("Warning: could not write class directory index " +
+				file + ": " + e.getMessage());
+		}
+		finally {
+			if (tmp != null && tmp.exists()) tmp.delete();
+		}
+	}
+
+	private void load() {
+		if (loaded) return;
+		loaded = true;
+		if (file == null || !file.isFile()) return;
+		try {
+			final DataInputStream in = new DataInputStream(new GZIPInputStream(
+				new FileInputStream(file)));
+			try {
+				if (in.readInt() != FORMAT_VERSION) return;
+				final int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					final String path = in.readUTF();
+					final long lastModified = in.readLong();
+					final boolean containsClassFiles = in.readBoolean();
+					final String[] subdirectories = new String[in.readInt()];
+					for (int j = 0; j < subdirectories.length; j++) {
+						subdirectories[j] = in.readUTF();
+					}
+					entries.put(path, new Entry(lastModified, containsClassFiles,
+						subdirectories));
+				}
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (final IOException e) {
+			System.err.println("Warning: ignoring corrupt class directory index " +
+				file + ": " + e.getMessage());
+			entries.clear();
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+import io.github.classgraph.ClassGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.jar.Attributes.Name;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Determines the class path elements of a chain of {@link ClassLoader}s.
+ * <p>
+ * The class path is read directly from {@link URLClassLoader}s and, for the
+ * system class loader, from the {@code java.class.path} property. The
+ * {@code Class-Path} attributes of the manifests of {@code .jar} files are
+ * followed (Maven's Surefire, for example, passes the class path that way).
+ * Nothing is scanned for classes, and the results are cached per class loader.
+ * </p>
+ * <p>
+ * Class loaders of other types are skipped with a warning (their ancestors
+ * are still taken into account), unless a deep scan was requested by setting
+ * the {@code ij1.patcher.classpath.deepScan} system property to {@code true},
+ * in which case ClassGraph is asked to figure out their class path.
+ * </p>
+ */
+final class ClasspathResolver {
+
+	final static String DEEP_SCAN_PROPERTY = "ij1.patcher.classpath.deepScan";
+
+	private ClasspathResolver() {
+		// prevent instantiation of utility class
+	}
+
+	private static class Elements {
+
+		private final Object key;
+		private final List<File> files = new ArrayList<File>();
+		private final StringBuilder errors = new StringBuilder();
+
+		private Elements(final Object key) {
+			this.key = key;
+		}
+	}
+
+	private final static Map<ClassLoader, Elements> cache =
+		new WeakHashMap<ClassLoader, Elements>();
+
+	/**
+	 * Collects the class path elements of a class loader and its ancestors.
+	 * 
+	 * @param fromClassLoader the class loader whose class path to determine
+	 * @param errors the buffer to which to append error messages
+	 * @param excludeClassLoaders the ancestors (and their ancestors) whose class
+	 *          path should not be included
+	 * @return the class path elements
+	 */
+	static Collection<File> getClasspathElements(
+		final ClassLoader fromClassLoader, final StringBuilder errors,
+		final ClassLoader... excludeClassLoaders)
+	{
+		final Set<ClassLoader> exclude = new HashSet<ClassLoader>();
+		if (excludeClassLoaders != null) {
+			exclude.addAll(Arrays.asList(excludeClassLoaders));
+		}
+		final ClassLoader system = ClassLoader.getSystemClassLoader();
+		final Set<File> result = new LinkedHashSet<File>();
+		for (ClassLoader loader = fromClassLoader; loader != null; loader =
+			loader.getParent())
+		{
+			if (exclude.contains(loader)) break;
+			// the platform class loader serves only modules
+			if (loader == system.getParent()) continue;
+			final Elements elements = getElements(loader, loader == system);
+			result.addAll(elements.files);
+			errors.append(elements.errors);
+		}
+		return new ArrayList<File>(result);
+	}
+
+	private static synchronized Elements getElements(final ClassLoader loader,
+		final boolean isSystem)
+	{
+		final Object key;
+		if (loader instanceof URLClassLoader) {
+			key = Arrays.asList(((URLClassLoader) loader).getURLs());
+		}
+		else if (isSystem) key = System.getProperty("java.class.path");
+		else key = Boolean.getBoolean(DEEP_SCAN_PROPERTY);
+
+		Elements elements = cache.get(loader);
+		if (elements != null && elements.key.equals(key)) return elements;
+
+		elements = new Elements(key);
+		final Set<String> seen = new HashSet<String>();
+		if (loader instanceof URLClassLoader) {
+			for (final URL url : ((URLClassLoader) loader).getURLs()) {
+				add(url, elements, seen);
+			}
+		}
+		else if (isSystem) {
+			if (key != null) {
+				for (final String path : ((String) key).split(File.pathSeparator)) {
+					if (path.length() == 0) continue;
+					add(new File(path), elements, seen);
+				}
+			}
+		}
+		else if (Boolean.TRUE.equals(key)) {
+			for (final File file : DeepScan.getClasspathFiles(loader)) {
+				add(file, elements, seen);
+			}
+		}
+		else {
+			// NB: the result is cached, so this is reported only once per loader
+			System.err.println("Warning: skipping the class path of ClassLoader " +
+				"of type " + loader.getClass().getName() + " (set " +
+				DEEP_SCAN_PROPERTY + "=true to scan it)");
+		}
+		cache.put(loader, elements);
+		return elements;
+	}
+
+	private static void add(final URL url, final Elements elements,
+		final Set<String> seen)
+	{
+		if (!"file".equals(url.getProtocol())) {
+			elements.errors.append("Not a file URL! ").append(url).append("\n");
+			return;
+		}
+		try {
+			add(new File(url.toURI()), elements, seen);
+		}
+		catch (final URISyntaxException e) {
+			add(new File(url.getPath()), elements, seen);
+		}
+		catch (final IllegalArgumentException e) {
+			elements.errors.append("Invalid file URL! ").append(url).append("\n");
+		}
+	}
+
+	private static void add(final File file, final Elements elements,
+		final Set<String> seen)
+	{
+		if (!seen.add(file.getAbsolutePath())) return;
+		elements.files.add(file);
+		if (!file.getName().toLowerCase().endsWith(".jar") || !file.isFile()) {
+			return;
+		}
+		// follow the Class-Path manifest attribute
+		final String classPath;
+		try {
+			final JarFile jar = new JarFile(file);
+			try {
+				final Manifest manifest = jar.getManifest();
+				if (manifest == null) return;
+				classPath = manifest.getMainAttributes().getValue(Name.CLASS_PATH);
+			}
+			finally {
+				jar.close();
+			}
+		}
+		catch (final IOException e) {
+			System.err.println("Warning: could not read the manifest of " + file);
+			return;
+		}
+		if (classPath == null) return;
+		for (final String element : classPath.trim().split(" +")) {
+			if (element.length() == 0) continue;
+			try {
+				add(new URL(file.toURI().toURL(), element), elements, seen);
+			}
+			catch (final MalformedURLException e) {
+				elements.errors.append("Invalid Class-Path element in ").append(file)
+					.append(": ").append(element).append("\n");
+			}
+		}
+	}
+
+	/**
+	 * Keeps ClassGraph from being loaded unless a deep scan is requested.
+	 */
+	private static class DeepScan {
+
+		private static List<File> getClasspathFiles(final ClassLoader loader) {
+			return new ClassGraph().overrideClassLoaders(loader)
+				.ignoreParentClassLoaders().getClasspathFiles();
+		}
+	}
+}
@@ -42,18 +42,23 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
 import java.util.jar.JarOutputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import javassist.ByteArrayClassPath;
 import javassist.CannotCompileException;
 import javassist.ClassClassPath;
 import javassist.ClassPool;
@@ -76,10 +81,13 @@ import javassist.bytecode.MethodInfo;
 import javassist.bytecode.Opcode;
 import javassist.expr.Cast;
 import javassist.expr.ConstructorCall;
+import javassist.expr.Expr;
 import javassist.expr.ExprEditor;
 import javassist.expr.FieldAccess;
 import javassist.expr.Handler;
+import javassist.expr.Instanceof;
 import javassist.expr.MethodCall;
+import javassist.expr.NewArray;
 import javassist.expr.NewExpr;
 
 /**
@@ -98,70 +106,62 @@ import javassist.expr.NewExpr;
  */
 class CodeHacker {
 
+	private final ClassPool pool;
+	protected final ClassLoader classLoader;
+	private final Map<String, CtClass> handledClasses = new LinkedHashMap<String, CtClass>();
+	private final boolean onlyLogExceptions;
+	private final boolean parallel;
+	private final boolean lazy;
+	private final ClassDefiner definer;
+	private Map<String, byte[]> committed;
+
 	/**
-	 * Maps each patchable IJ package to a simple, unpatched seed class in that
-	 * package. Used by {@link #loadClass} to obtain a {@code MethodHandles.Lookup}
-	 * for the package via {@code CtClass.toClass(neighbor)}, which calls
-	 * {@code MethodHandles.privateLookupIn(seed, ...)} and then
-	 * {@code Lookup.defineClass()} — no reflection into {@code ClassLoader}
-	 * internals, so this works on Java 17+ without {@code --add-opens}.
-	 *
-	 * <p>Requirements for a valid seed: (1) not itself patched; (2) no static
-	 * initializer that references a patched class; (3) supertype chain contains
-	 * no patched classes (supertypes are loaded eagerly at link time).
-	 * Interfaces with only primitive/{@code String} members are ideal.
+	 * Expression edits that still need to be applied, in order, per behavior.
+	 * <p>
+	 * NB: {@link CtMethod#equals(Object)} ignores the declaring class, therefore
+	 * the edits are keyed on {@link #getKey(CtBehavior)} instead.
+	 * </p>
+	 * 
+	 * @see EagerExprEditor#queue(CtBehavior, String)
 	 */
-	private static final Map<String, String> PACKAGE_SEEDS;
-	static {
-		final Map<String, String> m = new LinkedHashMap<>();
-		m.put("ij",               "ij.IJEventListener");
-		m.put("ij.gui",           "ij.gui.RoiListener");
-		m.put("ij.io",            "ij.io.BitBuffer");
-		m.put("ij.macro",         "ij.macro.MacroConstants");
-		m.put("ij.plugin",        "ij.plugin.PlugIn");
-		m.put("ij.plugin.filter", "ij.plugin.filter.SaltAndPepper");
-		m.put("ij.plugin.frame",  "ij.plugin.frame.PlugInFrame");
-		m.put("ij.text",          "ij.text.TextWindow");
-		// CodeHacker itself is always loaded before any patcher-package class is
-		// patched, so it is a safe, always-available seed for this package.
-		m.put("net.imagej.patcher", "net.imagej.patcher.CodeHacker");
-		PACKAGE_SEEDS = m;
-	}
+	private final Map<String, List<EagerExprEditor>> queuedEdits =
+		new LinkedHashMap<String, List<EagerExprEditor>>();
 
 	/**
-	 * True when running on Java 9+, where {@code MethodHandles.privateLookupIn()}
-	 * and {@code Lookup.defineClass()} are available. On Java 8 the seed path is
-	 * skipped and the legacy {@code toClass(ClassLoader, ProtectionDomain)} path
-	 * is used instead (module encapsulation did not exist on Java 8, so reflection
-	 * into {@code ClassLoader.defineClass()} works without any flags there).
+	 * Modifications of method bodies that were deferred, in order, per class.
+	 * <p>
+	 * In parallel mode, inserting code into existing methods is deferred until
+	 * the classes are committed, so that the classes can be patched
+	 * concurrently.
+	 * In lazy mode, it is deferred until the class is first loaded.
+	 * </p>
+	 * 
+	 * @see #modifyBody(CtBehavior, String, BodyModification)
 	 */
-	private static final boolean LOOKUP_DEFINE_AVAILABLE;
-	static {
-		boolean available = false;
-		try {
-			java.lang.invoke.MethodHandles.class.getMethod(
-				"privateLookupIn", Class.class, java.lang.invoke.MethodHandles.Lookup.class);
-			available = true;
-		}
-		catch (final NoSuchMethodException ignored) {}
-		LOOKUP_DEFINE_AVAILABLE = available;
-	}
+	private final Map<String, List<DeferredModification>> deferredModifications =
+		new LinkedHashMap<String, List<DeferredModification>>();
 
-	/** Cache of already-loaded seed classes, keyed by package name. */
-	private final Map<String, Class<?>> packageSeedCache = new LinkedHashMap<>();
+	/**
+	 * Classes whose bytecode will be generated only when they are first loaded.
+	 * 
+	 * @see #release()
+	 */
+	private final Set<String> pendingLazily = new HashSet<String>();
 
-	private final ClassPool pool;
-	protected final ClassLoader classLoader;
-	private final Map<String, CtClass> handledClasses = new LinkedHashMap<String, CtClass>();
-	private final boolean onlyLogExceptions;
+	/** The sizes of the class files generated so far, per class. */
+	private final Map<String, Integer> classFileSizes =
+		new HashMap<String, Integer>();
 
 	public CodeHacker(final ClassLoader classLoader, final ClassPool classPool) {
 		this.classLoader = classLoader;
+		definer = new ClassDefiner(classLoader);
 		pool = classPool != null ? classPool : ClassPool.getDefault();
 		pool.appendClassPath(new ClassClassPath(getClass()));
 		pool.appendClassPath(new LoaderClassPath(classLoader));
 
 		onlyLogExceptions = !Utils.stackTraceContains("junit.");
+		parallel = Boolean.getBoolean("ij1.patcher.parallel");
+		lazy = Boolean.getBoolean("ij1.patcher.lazy");
 	}
 
 	public CodeHacker(final ClassLoader classLoader) {
@@ -186,12 +186,21 @@ class CodeHacker {
 	public void insertAtBottomOfMethod(final String fullClass,
 		final String methodSig, final String newCode)
 	{
+		final String message = "Cannot modify method: " + methodSig;
 		try {
-			getBehavior(fullClass, methodSig).insertAfter(newCode);
+			final CtBehavior behavior = getBehavior(fullClass, methodSig);
+			modifyBody(behavior, message, new BodyModification() {
+
+				@Override
+				public void modify(final CtBehavior target)
+					throws CannotCompileException
+				{
+					target.insertAfter(newCode);
+				}
+			});
 		}
 		catch (final Throwable e) {
-			maybeThrow(new IllegalArgumentException("Cannot modify method: " +
-				methodSig, e));
+			maybeThrow(new IllegalArgumentException(message, e));
 		}
 	}
 
@@ -208,18 +217,26 @@ class CodeHacker {
 	public void insertAtTopOfMethod(final String fullClass,
 		final String methodSig, final String newCode)
 	{
+		final String message = "Cannot modify method: " + methodSig;
 		try {
 			final CtBehavior behavior = getBehavior(fullClass, methodSig);
-			if (behavior instanceof CtConstructor) {
-				((CtConstructor) behavior).insertBeforeBody(newCode);
-			}
-			else {
-				behavior.insertBefore(newCode);
-			}
+			modifyBody(behavior, message, new BodyModification() {
+
+				@Override
+				public void modify(final CtBehavior target)
+					throws CannotCompileException
+				{
+					if (target instanceof CtConstructor) {
+						((CtConstructor) target).insertBeforeBody(newCode);
+					}
+					else {
+						target.insertBefore(newCode);
+					}
+				}
+			});
 		}
 		catch (final Throwable e) {
-			maybeThrow(new IllegalArgumentException("Cannot modify method: " +
-				methodSig, e));
+			maybeThrow(new IllegalArgumentException(message, e));
 		}
 	}
 
@@ -247,6 +264,33 @@ class CodeHacker {
 		}
 	}
 
+	/**
+	 * Adds a new public class with a public no-argument constructor.
+	 * <p>
+	 * Methods can then be added using {@link #insertNewMethod}.
+	 * </p>
+	 * 
+	 * @param fullClass Fully qualified name of the class to add.
+	 * @param interfaces Fully qualified names of the interfaces the new class
+	 *          implements.
+	 */
+	public void insertNewClass(final String fullClass,
+		final String... interfaces)
+	{
+		try {
+			final CtClass classRef = pool.makeClass(fullClass);
+			for (final String iface : interfaces) {
+				classRef.addInterface(pool.get(iface));
+			}
+			classRef.addConstructor(CtNewConstructor.defaultConstructor(classRef));
+			getClass(fullClass);
+		}
+		catch (final Throwable e) {
+			maybeThrow(new IllegalArgumentException("Cannot add class " +
+				fullClass, e));
+		}
+	}
+
 	/**
 	 * Works around a bug where the horizontal scroll wheel of the mighty mouse is
 	 * mistaken for a popup trigger.
@@ -267,6 +311,7 @@ class CodeHacker {
 			try {
 				final CtMethod method =
 					classRef.getMethod(methodName, "(Ljava/awt/event/MouseEvent;)V");
+				applyQueuedEdits(method.getDeclaringClass());
 				method.instrument(editor);
 			}
 			catch (final NotFoundException e) {
@@ -278,6 +323,22 @@ class CodeHacker {
 			}
 	}
 
+	public void insertPrivateField(final String fullClass,
+		final Class<?> clazz, final String name)
+	{
+		final CtClass classRef = getClass(fullClass);
+		try {
+			final CtField field =
+				new CtField(pool.get(clazz.getName()), name, classRef);
+			field.setModifiers(Modifier.PRIVATE);
+			classRef.addField(field);
+		}
+		catch (final Throwable e) {
+			maybeThrow(new IllegalArgumentException("Cannot add field " + name +
+				" to " + fullClass, e));
+		}
+	}
+
 	public void insertPrivateStaticField(final String fullClass,
 		final Class<?> clazz, final String name)
 	{
@@ -311,10 +372,20 @@ class CodeHacker {
 
 	public void addToClassInitializer(final String fullClass, final String code) {
 		final CtClass classRef = getClass(fullClass);
+		final String message =
+			"Cannot add " + code + " to class initializer of " + fullClass;
 		try {
 			CtConstructor method = classRef.getClassInitializer();
 			if (method != null) {
-				method.insertAfter(code);
+				modifyBody(method, message, new BodyModification() {
+
+					@Override
+					public void modify(final CtBehavior target)
+						throws CannotCompileException
+					{
+						target.insertAfter(code);
+					}
+				});
 			}
 			else {
 				method =
@@ -325,31 +396,42 @@ class CodeHacker {
 			}
 		}
 		catch (final Throwable e) {
-			maybeThrow(new IllegalArgumentException("Cannot add " + code +
-				" to class initializer of " + fullClass, e));
+			maybeThrow(new IllegalArgumentException(message, e));
 		}
 	}
 
 	public void addCatch(final String fullClass, final String methodSig,
 		final String exceptionClassName, final String src)
 	{
+		final String message = "Cannot add catch for exception of type'" +
+			exceptionClassName + " in " + fullClass + "'s " + methodSig;
 		try {
 			final CtBehavior method = getBehavior(fullClass, methodSig);
-			method.addCatch(src, getClass(exceptionClassName), "$e");
+			getClass(exceptionClassName);
+			modifyBody(method, message, new BodyModification() {
+
+				@Override
+				public void modify(final CtBehavior target) throws Exception {
+					// NB: the target might live in a class pool of its own
+					final CtClass exceptionClass = target.getDeclaringClass()
+						.getClassPool().get(exceptionClassName);
+					target.addCatch(src, exceptionClass, "$e");
+				}
+			});
 		}
 		catch (final Throwable e) {
-			maybeThrow(new IllegalArgumentException(
-				"Cannot add catch for exception of type'" + exceptionClassName +
-					" in " + fullClass + "'s " + methodSig, e));
+			maybeThrow(new IllegalArgumentException(message, e));
 		}
 	}
 
 	public void insertAtTopOfExceptionHandlers(final String fullClass,
 		final String methodSig, final String exceptionClassName, final String src)
 	{
+		final String message = "Cannot edit exception handler for type'" +
+			exceptionClassName + " in " + fullClass + "'s " + methodSig;
 		try {
 			final CtBehavior method = getBehavior(fullClass, methodSig);
-			new EagerExprEditor() {
+			new EagerExprEditor(exceptionClassName, src) {
 
 				@Override
 				public void edit(final Handler handler) throws CannotCompileException {
@@ -363,12 +445,10 @@ class CodeHacker {
 						e.printStackTrace();
 					}
 				}
-			}.instrument(method);
+			}.queue(method, message);
 		}
 		catch (final Throwable e) {
-			maybeThrow(new IllegalArgumentException(
-				"Cannot edit exception handler for type'" + exceptionClassName +
-					" in " + fullClass + "'s " + methodSig, e));
+			maybeThrow(new IllegalArgumentException(message, e));
 		}
 	}
 
@@ -393,17 +473,19 @@ class CodeHacker {
 		final String methodSig, final String newClassName,
 		final int parameterIndex, final String replacement)
 	{
+		final String message =
+			"Cannot handle app name in " + fullClass + "'s " + methodSig;
 		try {
 			final CtBehavior method = getBehavior(fullClass, methodSig);
-			new EagerExprEditor() {
+			new EagerExprEditor(newClassName, replacement) {
 
 				@Override
 				public void edit(final NewExpr expr) throws CannotCompileException {
 					if (expr.getClassName().equals(newClassName)) try {
 						final CtClass[] parameterTypes =
 							expr.getConstructor().getParameterTypes();
-						if (parameterTypes[parameterIndex - 1] != CodeHacker.this
-							.getClass("java.lang.String"))
+						if (!parameterTypes[parameterIndex - 1].getName().equals(
+							"java.lang.String"))
 						{
 							maybeThrow(new IllegalArgumentException("Parameter " +
 								parameterIndex + " of " + expr.getConstructor() +
@@ -421,11 +503,10 @@ class CodeHacker {
 								newClassName, e));
 					}
 				}
-			}.instrument(method);
+			}.queue(method, message);
 		}
 		catch (final Throwable e) {
-			maybeThrow(new IllegalArgumentException("Cannot handle app name in " +
-				fullClass + "'s " + methodSig, e));
+			maybeThrow(new IllegalArgumentException(message, e));
 		}
 	}
 
@@ -450,9 +531,11 @@ class CodeHacker {
 		final String methodSig, final String calledMethodName,
 		final int parameterIndex, final String replacement)
 	{
+		final String message =
+			"Cannot handle app name in " + fullClass + "'s " + methodSig;
 		try {
 			final CtBehavior method = getBehavior(fullClass, methodSig);
-			new EagerExprEditor() {
+			new EagerExprEditor(calledMethodName, replacement) {
 
 				@Override
 				public void edit(final MethodCall call) throws CannotCompileException {
@@ -467,8 +550,8 @@ class CodeHacker {
 								"'s parameter list!"));
 							return;
 						}
-						if (parameterTypes[parameterIndex - 1] != CodeHacker.this
-							.getClass("java.lang.String"))
+						if (!parameterTypes[parameterIndex - 1].getName().equals(
+							"java.lang.String"))
 						{
 							maybeThrow(new IllegalArgumentException("Parameter " +
 								parameterIndex + " of " + call.getMethod() +
@@ -493,11 +576,10 @@ class CodeHacker {
 				{
 					edit((MethodCall) call);
 				}
-			}.instrument(method);
+			}.queue(method, message);
 		}
 		catch (final Throwable e) {
-			maybeThrow(new IllegalArgumentException("Cannot handle app name in " +
-				fullClass + "'s " + methodSig, e));
+			maybeThrow(new IllegalArgumentException(message, e));
 		}
 	}
 
@@ -530,6 +612,7 @@ class CodeHacker {
 	 */
 	public void dontReturnOnNull(final String fullClass, final String methodSig) {
 		final CtBehavior behavior = getBehavior(fullClass, methodSig);
+		applyQueuedEdits(behavior.getDeclaringClass());
 		final MethodInfo info = behavior.getMethodInfo();
 		final CodeIterator iterator = info.getCodeAttribute().iterator();
 		while (iterator.hasNext())
@@ -563,6 +646,7 @@ class CodeHacker {
 		final String... methodNames)
 	{
 		final CtClass clazz = getClass(fullClass);
+		applyQueuedEdits(clazz);
 		final Set<String> override =
 			new HashSet<String>(Arrays.asList(methodNames));
 		for (final CtMethod method : clazz.getMethods())
@@ -588,7 +672,10 @@ class CodeHacker {
 		final CtClass clazz = getClass(fullClass);
 		try {
 			final CtClass originalSuperclass = clazz.getSuperclass();
-			clazz.setSuperclass(getClass(fullNewSuperclass));
+			final CtClass newSuperclass = getClass(fullNewSuperclass);
+			applyQueuedEdits(clazz);
+			applyQueuedEdits(newSuperclass);
+			clazz.setSuperclass(newSuperclass);
 			for (final CtConstructor ctor : clazz.getConstructors())
 				ctor.instrument(new ExprEditor() {
 
@@ -665,9 +752,11 @@ class CodeHacker {
 	public void overrideFieldWrite(final String fullClass,
 		final String methodSig, final String fieldName, final String newCode)
 	{
+		final String message = "Cannot override field access to " + fieldName +
+			" in " + fullClass + "'s " + methodSig;
 		try {
 			final CtBehavior method = getBehavior(fullClass, methodSig);
-			new EagerExprEditor() {
+			new EagerExprEditor(fieldName, newCode) {
 
 				@Override
 				public void edit(final FieldAccess access)
@@ -678,12 +767,10 @@ class CodeHacker {
 						markEdited();
 					}
 				}
-			}.instrument(method);
+			}.queue(method, message);
 		}
 		catch (final Throwable e) {
-			maybeThrow(new IllegalArgumentException(
-				"Cannot override field access to " + fieldName + " in " + fullClass +
-					"'s " + methodSig, e));
+			maybeThrow(new IllegalArgumentException(message, e));
 		}
 	}
 
@@ -718,9 +805,14 @@ class CodeHacker {
 		final String methodSig, final String calledClass,
 		final String calledMethodName, final String newCode, final int onlyNth)
 	{
+		final String message = "Cannot handle replace call to " +
+			calledMethodName + " in " + fullClass + "'s " + methodSig;
 		try {
 			final CtBehavior method = getBehavior(fullClass, methodSig);
-			new EagerExprEditor() {
+			// NB: constructor calls via new are matched by class name
+			new EagerExprEditor("<init>".equals(calledMethodName) ? calledClass
+				: calledMethodName, newCode)
+			{
 
 				private int counter = 0;
 				private final boolean debug = false;
@@ -772,11 +864,10 @@ class CodeHacker {
 						markEdited();
 					}
 				}
-			}.instrument(method);
+			}.queue(method, message);
 		}
 		catch (final Throwable e) {
-			maybeThrow(new IllegalArgumentException("Cannot handle replace call to " +
-				calledMethodName + " in " + fullClass + "'s " + methodSig, e));
+			maybeThrow(new IllegalArgumentException(message, e));
 		}
 	}
 
@@ -796,17 +887,23 @@ class CodeHacker {
 	public void guardCast(final String fullClass,
 		final String methodSig, final String targetClass) {
 		final CtBehavior method = getBehavior(fullClass, methodSig);
+		final String replacement =
+			"if ($1 != null && $1 instanceof " + targetClass + ") {" + //
+			"  $_ = (" + targetClass + ") $1;" + //
+			"} else {" + //
+			"  $_ = null;" + //
+			"}";
+		final String message = "Cannot handle cast to " + targetClass + " in " +
+			fullClass + "'s " + methodSig;
 		try {
-			method.instrument(new ExprEditor() {
+			// NB: it is okay if there is no such cast (any longer)
+			new EagerExprEditor(targetClass, replacement, false) {
 				@Override
 				public void edit(final Cast cast) {
 					try {
 						if (cast.getType().getName().equals(targetClass)) {
-							cast.replace("if ($1 != null && $1 instanceof " + targetClass + ") {" + //
-								"  $_ = (" + targetClass + ") $1;" + //
-								"} else {" + //
-								"  $_ = null;" + //
-								"}");
+							cast.replace(replacement);
+							markEdited();
 						}
 					}
 					catch (Exception e) {
@@ -814,11 +911,10 @@ class CodeHacker {
 							"Cannot handle cast to " + targetClass, e));
 					}
 				}
-			});
+			}.queue(method, message);
 		}
 		catch (final Throwable e) {
-			maybeThrow(new IllegalArgumentException("Cannot handle cast to " +
-				targetClass + " in " + fullClass + "'s " + methodSig, e));
+			maybeThrow(new IllegalArgumentException(message, e));
 		}
 	}
 
@@ -849,88 +945,26 @@ class CodeHacker {
 	 * @param classRef class to load.
 	 * @return the loaded class
 	 */
-	/**
-	 * Returns a seed class for the package of {@code className}, loading it
-	 * from {@link #classLoader} on first use (without initialization, so no
-	 * static initializers run). Returns {@code null} if no seed is configured
-	 * for that package or if the seed class cannot be found.
-	 */
-	private Class<?> getPackageSeed(final String className) {
-		final int dot = className.lastIndexOf('.');
-		if (dot < 0) return null;
-		final String pkg = className.substring(0, dot);
-		if (!LOOKUP_DEFINE_AVAILABLE) return null;
-		if (packageSeedCache.containsKey(pkg)) return packageSeedCache.get(pkg);
-		final String seedName = PACKAGE_SEEDS.get(pkg);
-		Class<?> seed = null;
-		if (seedName != null) {
-			try {
-				seed = Class.forName(seedName, false, classLoader);
-			}
-			catch (final ClassNotFoundException e) {
-				System.err.println("Warning: seed class " + seedName +
-					" not found; falling back to legacy toClass() for package " + pkg);
-			}
-		}
-		packageSeedCache.put(pkg, seed);
-		return seed;
+	public Class<?> loadClass(final CtClass classRef) {
+		final byte[] bytecode = toBytecode(classRef);
+		if (bytecode == null) return null;
+		if (committed != null) committed.put(classRef.getName(), bytecode);
+		return definer.define(classRef.getName(), bytecode);
 	}
 
-	public Class<?> loadClass(final CtClass classRef) {
+	/**
+	 * Applies all pending modifications to the given class and obtains its
+	 * bytecode.
+	 * 
+	 * @param classRef the class
+	 * @return the bytecode, or {@code null} if it could not be generated
+	 */
+	private synchronized byte[] toBytecode(final CtClass classRef) {
 		try {
-			// For LegacyClassLoader, pre-register the bytes so that findClass() picks
-			// them up and calls defineClass() from within the classloader itself — no
-			// reflection required, works on all Java versions.
-			if (classLoader instanceof LegacyClassLoader) {
-				((LegacyClassLoader) classLoader).storePatchedClass(
-					classRef.getName(), classRef.toBytecode());
-				return classLoader.loadClass(classRef.getName());
-			}
-			// Primary path for other classloaders: toClass(seed) uses
-			// MethodHandles.privateLookupIn(seed, ...) followed by Lookup.defineClass().
-			// No reflection into ClassLoader internals — works on Java 17+ without
-			// --add-opens. The seed is a simple, unpatched class pre-loaded from the
-			// same package (see PACKAGE_SEEDS).
-			final Class<?> seed = getPackageSeed(classRef.getName());
-			if (seed != null) {
-				return classRef.toClass(seed);
-			}
-			// Fallback: Java agent — hand bytes to a ClassFileTransformer so the JVM
-			// defines the class itself when it is first loaded.
-			if (JavaAgent.getInstrumentation() != null) {
-				JavaAgent.storePatchedClass(classRef.getName(), classRef.toBytecode());
-				return null; // defined lazily on first class load
-			}
-			// Last resort: toClass(classLoader, null) requires --add-opens on Java 17+.
-			return classRef.toClass(classLoader, null);
-		}
-		catch (final CannotCompileException e) {
-			// Cannot use LogService; it will not be initialized by the time the
-			// LegacyService class is loaded, which is when the CodeHacker is run
-			if (e.getCause() != null && e.getCause() instanceof LinkageError) {
-				throw javaAgentHint("Cannot load class: " + classRef.getName() +
-					" (loader: " + classLoader + ")", e.getCause());
-			}
-			System.err.println("Warning: Cannot load class: " + classRef.getName() +
-				" into " + classLoader);
-			e.printStackTrace();
-			return null;
-		}
-		catch (final LinkageError e) {
-			// On Java 17+, bytecode verification is eager: when defining a patched
-			// class, the JVM verifier may load classes it references from the JAR
-			// (unpatched) before we get a chance to define our patched versions.
-			// When we then try to define the patched version, we get a
-			// "duplicate class definition" LinkageError. Log a warning and continue
-			// so that the remaining patches (especially the critical ij.IJ._hooks
-			// field) can still be applied.
-			if (e.getMessage() != null && e.getMessage().contains("duplicate class definition")) {
-				System.err.println("Warning: Cannot define patched class " +
-					classRef.getName() + " (already loaded by JVM verifier): " +
-					e.getMessage());
-				return null;
-			}
-			throw e;
+			applyQueuedEdits(classRef);
+			final byte[] bytecode = classRef.toBytecode();
+			classFileSizes.put(classRef.getName(), bytecode.length);
+			return bytecode;
 		}
 		catch (final Exception e) {
 			System.err.println("Warning: Cannot load class: " + classRef.getName() +
@@ -943,6 +977,35 @@ class CodeHacker {
 		}
 	}
 
+	/**
+	 * Determines whether there are pending modifications to the given class.
+	 */
+	private boolean hasQueuedEdits(final CtClass clazz) {
+		synchronized (deferredModifications) {
+			if (deferredModifications.containsKey(clazz.getName())) return true;
+		}
+		synchronized (queuedEdits) {
+			for (final List<EagerExprEditor> list : queuedEdits.values()) {
+				if (list.get(0).behavior.getDeclaringClass() == clazz) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Records the bytecode of all classes committed from now on.
+	 * <p>
+	 * The {@link LegacyInjector} uses this to populate the
+	 * {@link PatchedClassCache}.
+	 * </p>
+	 * 
+	 * @param recorder the map to which the bytecode is added, in the order in
+	 *          which the classes are committed, or {@code null} to stop recording
+	 */
+	void recordCommittedClasses(final Map<String, byte[]> recorder) {
+		committed = recorder;
+	}
+
 	static RuntimeException javaAgentHint(final String message, final Throwable cause)
 	{
 		final URL url = Utils.getLocation(JavaAgent.class);
@@ -998,6 +1061,11 @@ class CodeHacker {
 			// ignore
 		}
 
+		// In lazy mode, the classes are only patched when they are first loaded
+		// (unless all the bytecode is needed right away, e.g. for caching).
+		final boolean loadLazily = lazy && committed == null;
+		if (!loadLazily) applyQueuedEdits();
+
 		// Collect modified classes, then sort them so that patcher-package
 		// (net.imagej.patcher.*) classes are defined before ij.* classes.
 		// This prevents the JVM's bytecode verifier from loading unpatched
@@ -1007,7 +1075,9 @@ class CodeHacker {
 		final Iterator<CtClass> iter = handledClasses.values().iterator();
 		while (iter.hasNext()) {
 			final CtClass classRef = iter.next();
-			if (!classRef.isFrozen() && classRef.isModified()) {
+			if (!classRef.isFrozen() &&
+				(classRef.isModified() || loadLazily && hasQueuedEdits(classRef)))
+			{
 				toLoad.add(classRef);
 			}
 			iter.remove();
@@ -1023,12 +1093,73 @@ class CodeHacker {
 			}
 		});
 		for (final CtClass classRef : toLoad) {
+			if (loadLazily && definer.defineLazily(classRef.getName(),
+				new Supplier<byte[]>() {
+
+					@Override
+					public byte[] get() {
+						synchronized (CodeHacker.this) {
+							pendingLazily.remove(classRef.getName());
+							return toBytecode(classRef);
+						}
+					}
+				}))
+			{
+				synchronized (this) {
+					pendingLazily.add(classRef.getName());
+				}
+				continue;
+			}
 			loadClass(classRef);
 		}
 	}
 
+	/**
+	 * Releases the Javassist representations of all classes.
+	 * <p>
+	 * After the patched classes have been committed, the {@link CtClass} graphs
+	 * (including every class that was looked up merely to resolve a method
+	 * signature) are no longer needed, but they stay alive as long as anything
+	 * references this hacker. This method prunes and detaches them, and clears
+	 * the cache of the {@link ClassPool} if it is a {@link ReleasableClassPool}.
+	 * </p>
+	 * <p>
+	 * Classes that will only be patched when they are first loaded (see
+	 * {@code ij1.patcher.lazy}) are retained. The hacker must not be used to
+	 * patch any other class after calling this method.
+	 * </p>
+	 * 
+	 * @return an estimate of the number of bytes reclaimed, based on the sizes
+	 *         of the released class files
+	 */
+	synchronized long release() {
+		final Collection<CtClass> classes;
+		if (pool instanceof ReleasableClassPool) {
+			classes = ((ReleasableClassPool) pool).getCachedClasses();
+		}
+		else synchronized (handledClasses) {
+			classes = new ArrayList<CtClass>(handledClasses.values());
+		}
+		long reclaimed = 0;
+		for (final CtClass clazz : classes) {
+			final String name = clazz.getName();
+			if (clazz.isPrimitive() || pendingLazily.contains(name)) continue;
+			final Integer size = classFileSizes.remove(name);
+			if (size != null) reclaimed += size;
+			// NB: pruning an untouched class would parse its class file first
+			if (clazz.isFrozen() || clazz.isModified()) clazz.prune();
+			clazz.detach();
+		}
+		synchronized (handledClasses) {
+			handledClasses.keySet().retainAll(pendingLazily);
+		}
+		committed = null;
+		return reclaimed;
+	}
+
 	/** Gets the list of patched classes. */
 	Collection<CtClass> getPatchedClasses() {
+		applyQueuedEdits();
 		final Set<CtClass> result = new HashSet<CtClass>();
 		for (final CtClass clazz : handledClasses.values()) {
 			if (!clazz.isFrozen() && clazz.isModified()) {
@@ -1042,7 +1173,9 @@ class CodeHacker {
 	CtClass getClass(final String fullClass) {
 		try {
 			final CtClass classRef = pool.get(fullClass);
-			if (classRef.getClassPool() == pool) handledClasses.put(classRef.getName(), classRef);
+			if (classRef.getClassPool() == pool) synchronized (handledClasses) {
+				handledClasses.put(classRef.getName(), classRef);
+			}
 			return classRef;
 		}
 		catch (final NotFoundException e) {
@@ -1296,6 +1429,7 @@ class CodeHacker {
 	private void skipAWTInstantiations(final CtClass clazz)
 		throws CannotCompileException
 	{
+		applyQueuedEdits(clazz);
 		clazz.instrument(new ExprEditor() {
 
 			@Override
@@ -1376,9 +1510,13 @@ class CodeHacker {
 	 * @param methodSig the signature of the method to instrument
 	 */
 	public void handleHTTPS(final String fullClass, final String methodSig) {
+		final String message =
+			"Could not handle HTTPS in " + methodSig + " in " + fullClass;
+		final String replacement =
+			"$_ = $0.startsWith($1) || $0.startsWith(\"https://\");";
 		try {
 			final CtBehavior method = getBehavior(fullClass, methodSig);
-			new EagerExprEditor() {
+			new EagerExprEditor("startsWith", replacement) {
 
 				@Override
 				public void edit(final MethodCall call) throws CannotCompileException {
@@ -1386,8 +1524,7 @@ class CodeHacker {
 						if (call.getMethodName().equals("startsWith") &&
 							"http://".equals(getLastConstantArgument(call, 0)))
 						{
-							call
-								.replace("$_ = $0.startsWith($1) || $0.startsWith(\"https://\");");
+							call.replace(replacement);
 							markEdited();
 						}
 					}
@@ -1395,11 +1532,10 @@ class CodeHacker {
 						e.printStackTrace();
 					}
 				}
-			}.instrument(method);
+			}.queue(method, message);
 		}
 		catch (final Throwable e) {
-			maybeThrow(new IllegalArgumentException("Could not handle HTTPS in " +
-				methodSig + " in " + fullClass));
+			maybeThrow(new IllegalArgumentException(message));
 		}
 	}
 
@@ -1437,12 +1573,40 @@ class CodeHacker {
 
 	/**
 	 * An {@link ExprEditor} that complains when it did not edit anything.
+	 * <p>
+	 * Such editors are not run right away. Instead, they are queued per behavior
+	 * and applied together when the class is committed, so that a method that is
+	 * patched multiple times needs to be scanned and rewritten only once (or at
+	 * least, only as many times as necessary, see {@link #conflictsWith}).
+	 * </p>
 	 * 
 	 * @author Johannes Schindelin
 	 */
-	private abstract static class EagerExprEditor extends ExprEditor {
+	private abstract class EagerExprEditor extends ExprEditor {
 
+		private final String key, source;
+		private final boolean eager;
 		private int count = 0;
+		private CtBehavior behavior;
+		private String message;
+		private Throwable failure;
+
+		/**
+		 * @param key the name matched by this editor (e.g. the name of the called
+		 *          method or of the accessed field), or {@code null} if unknown
+		 * @param source the code inserted by this editor
+		 */
+		public EagerExprEditor(final String key, final String source) {
+			this(key, source, true);
+		}
+
+		public EagerExprEditor(final String key, final String source,
+			final boolean eager)
+		{
+			this.key = key;
+			this.source = source == null ? "" : source;
+			this.eager = eager;
+		}
 
 		protected void markEdited() {
 			count++;
@@ -1452,17 +1616,513 @@ class CodeHacker {
 			return count > 0;
 		}
 
-		public void instrument(final CtBehavior behavior)
-			throws CannotCompileException
+		/**
+		 * Queues this editor for the given behavior.
+		 * 
+		 * @param behavior the method or constructor to edit
+		 * @param message the message to report if the edit fails
+		 */
+		public void queue(final CtBehavior behavior, final String message) {
+			this.behavior = behavior;
+			this.message = message;
+			final String key = getKey(behavior);
+			synchronized (queuedEdits) {
+				List<EagerExprEditor> list = queuedEdits.get(key);
+				if (list == null) {
+					list = new ArrayList<EagerExprEditor>();
+					queuedEdits.put(key, list);
+				}
+				list.add(this);
+			}
+		}
+
+		/**
+		 * Determines whether this editor must not be applied in the same pass as
+		 * another editor.
+		 * <p>
+		 * That is the case when they both might match the same expression, or
+		 * when one of them might match code inserted by the other one.
+		 * </p>
+		 */
+		private boolean conflictsWith(final EagerExprEditor other) {
+			if (key == null || other.key == null) return true;
+			return key.equals(other.key) || other.source.contains(key) ||
+				source.contains(other.key);
+		}
+
+		private void report() {
+			if (failure != null) {
+				maybeThrow(new IllegalArgumentException(message, failure));
+			}
+			else if (eager && !wasSuccessful()) {
+				maybeThrow(new IllegalArgumentException(message,
+					new CannotCompileException("No code replaced!")));
+			}
+		}
+	}
+
+	/**
+	 * Applies several {@link EagerExprEditor}s in one pass.
+	 * <p>
+	 * Each expression is offered to the editors in the order in which they were
+	 * queued, until one of them edited it. Failures are recorded per editor.
+	 * </p>
+	 */
+	private static class CombinedExprEditor extends ExprEditor {
+
+		private final List<EagerExprEditor> editors;
+
+		private CombinedExprEditor(final List<EagerExprEditor> editors) {
+			this.editors = editors;
+		}
+
+		private void editAll(final Expr expr) {
+			for (final EagerExprEditor editor : editors) {
+				if (editor.failure != null) continue;
+				final int count = editor.count;
+				try {
+					if (expr instanceof ConstructorCall) {
+						editor.edit((ConstructorCall) expr);
+					}
+					else if (expr instanceof MethodCall) {
+						editor.edit((MethodCall) expr);
+					}
+					else if (expr instanceof NewExpr) editor.edit((NewExpr) expr);
+					else if (expr instanceof NewArray) editor.edit((NewArray) expr);
+					else if (expr instanceof FieldAccess) {
+						editor.edit((FieldAccess) expr);
+					}
+					else if (expr instanceof Instanceof) {
+						editor.edit((Instanceof) expr);
+					}
+					else if (expr instanceof Cast) editor.edit((Cast) expr);
+					else if (expr instanceof Handler) editor.edit((Handler) expr);
+				}
+				catch (final Throwable t) {
+					editor.failure = t;
+				}
+				if (editor.count != count) return;
+			}
+		}
+
+		@Override
+		public void edit(final NewExpr expr) {
+			editAll(expr);
+		}
+
+		@Override
+		public void edit(final NewArray expr) {
+			editAll(expr);
+		}
+
+		@Override
+		public void edit(final MethodCall call) {
+			editAll(call);
+		}
+
+		@Override
+		public void edit(final ConstructorCall call) {
+			editAll(call);
+		}
+
+		@Override
+		public void edit(final FieldAccess access) {
+			editAll(access);
+		}
+
+		@Override
+		public void edit(final Instanceof expr) {
+			editAll(expr);
+		}
+
+		@Override
+		public void edit(final Cast cast) {
+			editAll(cast);
+		}
+
+		@Override
+		public void edit(final Handler handler) {
+			editAll(handler);
+		}
+	}
+
+	/**
+	 * A modification of a method body.
+	 * 
+	 * @see CodeHacker#modifyBody(CtBehavior, String, BodyModification)
+	 */
+	private interface BodyModification {
+
+		/**
+		 * @param target the behavior to modify: the one passed to
+		 *          {@link CodeHacker#modifyBody}, or its copy in a class pool of
+		 *          its own
+		 */
+		void modify(CtBehavior target) throws Exception;
+	}
+
+	/**
+	 * A modification of a method body, together with the expression edits that
+	 * were queued for the same behavior before it.
+	 */
+	private class DeferredModification {
+
+		private final CtBehavior behavior;
+		private final String message;
+		private final BodyModification modification;
+		private final List<EagerExprEditor> edits;
+
+		private DeferredModification(final CtBehavior behavior,
+			final String message, final BodyModification modification,
+			final List<EagerExprEditor> edits)
+		{
+			this.behavior = behavior;
+			this.message = message;
+			this.modification = modification;
+			this.edits = edits;
+		}
+
+		private void apply(final CtBehavior target) {
+			if (edits != null) applyEdits(target, edits);
+			try {
+				modification.modify(target);
+			}
+			catch (final Throwable e) {
+				maybeThrow(new IllegalArgumentException(message, e));
+			}
+		}
+	}
+
+	/**
+	 * Modifies the body of the given method or constructor.
+	 * <p>
+	 * Any expression edits queued for the behavior are applied first. In
+	 * parallel or lazy mode, the modification is deferred until the class is
+	 * committed or loaded, respectively. In that case, the edits queued so far
+	 * are deferred along with it, so that edits queued later are still applied
+	 * after the modification.
+	 * </p>
+	 * 
+	 * @param behavior the method or constructor
+	 * @param message the message to report if the modification fails
+	 * @param modification the modification
+	 */
+	private void modifyBody(final CtBehavior behavior, final String message,
+		final BodyModification modification)
+	{
+		final List<EagerExprEditor> edits;
+		synchronized (queuedEdits) {
+			edits = queuedEdits.remove(getKey(behavior));
+		}
+		final DeferredModification deferred =
+			new DeferredModification(behavior, message, modification, edits);
+		if (!parallel && !lazy) {
+			deferred.apply(behavior);
+			return;
+		}
+		final String className = behavior.getDeclaringClass().getName();
+		synchronized (deferredModifications) {
+			List<DeferredModification> list = deferredModifications.get(className);
+			if (list == null) {
+				list = new ArrayList<DeferredModification>();
+				deferredModifications.put(className, list);
+			}
+			list.add(deferred);
+		}
+	}
+
+	/**
+	 * Applies all deferred modifications and queued expression edits.
+	 * <p>
+	 * In parallel mode, the classes are patched concurrently, using the common
+	 * fork-join pool, see {@link ClassPatch}.
+	 * </p>
+	 */
+	private void applyQueuedEdits() {
+		if (parallel) applyConcurrently();
+		for (;;) {
+			final CtBehavior behavior;
+			synchronized (queuedEdits) {
+				if (queuedEdits.isEmpty()) break;
+				behavior = queuedEdits.values().iterator().next().get(0).behavior;
+			}
+			applyQueuedEdits(behavior);
+		}
+	}
+
+	/**
+	 * Applies all deferred modifications and queued expression edits, one
+	 * fork-join task per class.
+	 */
+	private void applyConcurrently() {
+		final Map<String, List<DeferredModification>> modifications;
+		synchronized (deferredModifications) {
+			modifications =
+				new LinkedHashMap<String, List<DeferredModification>>(
+					deferredModifications);
+			deferredModifications.clear();
+		}
+		final List<List<EagerExprEditor>> edits;
+		synchronized (queuedEdits) {
+			edits = new ArrayList<List<EagerExprEditor>>(queuedEdits.values());
+			queuedEdits.clear();
+		}
+		final Map<String, ClassPatch> patches =
+			new LinkedHashMap<String, ClassPatch>();
+		for (final Map.Entry<String, List<DeferredModification>> entry : modifications
+			.entrySet())
+		{
+			getPatch(patches, getClass(entry.getKey())).modifications.addAll(entry
+				.getValue());
+		}
+		for (final List<EagerExprEditor> list : edits) {
+			final CtClass clazz = list.get(0).behavior.getDeclaringClass();
+			getPatch(patches, clazz).edits.add(list);
+		}
+		if (patches.isEmpty()) return;
+
+		final Map<String, byte[]> snapshot = snapshotModifiedClasses();
+		final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		for (final ClassPatch patch : patches.values()) {
+			tasks.add(ForkJoinTask.adapt(new Runnable() {
+
+				@Override
+				public void run() {
+					patch.compile(snapshot);
+				}
+			}));
+		}
+		ForkJoinTask.invokeAll(tasks);
+		for (final ClassPatch patch : patches.values()) {
+			patch.commit();
+		}
+	}
+
+	private ClassPatch getPatch(final Map<String, ClassPatch> patches,
+		final CtClass clazz)
+	{
+		ClassPatch patch = patches.get(clazz.getName());
+		if (patch == null) {
+			patch = new ClassPatch(clazz);
+			patches.put(clazz.getName(), patch);
+		}
+		return patch;
+	}
+
+	/**
+	 * Obtains the current class files of all modified classes.
+	 * <p>
+	 * Unlike {@link CtClass#toBytecode()}, this does not freeze the classes.
+	 * </p>
+	 */
+	private Map<String, byte[]> snapshotModifiedClasses() {
+		final List<CtClass> classes;
+		synchronized (handledClasses) {
+			classes = new ArrayList<CtClass>(handledClasses.values());
+		}
+		final Map<String, byte[]> result = new HashMap<String, byte[]>();
+		for (final CtClass clazz : classes) {
+			if (!clazz.isModified()) continue;
+			try {
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				final DataOutputStream out = new DataOutputStream(bytes);
+				clazz.getClassFile2().write(out);
+				out.flush();
+				result.put(clazz.getName(), bytes.toByteArray());
+			}
+			catch (final Throwable e) {
+				// the copies will see the unpatched class instead
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The deferred modifications and queued expression edits of one class.
+	 * <p>
+	 * Javassist's {@link ClassPool} is not thread-safe. Therefore, the class is
+	 * patched concurrently with the others as a copy, in a class pool of its
+	 * own that sees the modified classes' current class files. Afterwards, the
+	 * patched method bodies are copied back, one class after the other.
+	 * </p>
+	 */
+	private class ClassPatch {
+
+		private final CtClass clazz;
+		private final List<DeferredModification> modifications =
+			new ArrayList<DeferredModification>();
+		private final List<List<EagerExprEditor>> edits =
+			new ArrayList<List<EagerExprEditor>>();
+		private final Map<CtBehavior, CtBehavior> copies =
+			new LinkedHashMap<CtBehavior, CtBehavior>();
+
+		private ClassPatch(final CtClass clazz) {
+			this.clazz = clazz;
+		}
+
+		/** Patches a copy of the class. Runs concurrently with other patches. */
+		private void compile(final Map<String, byte[]> snapshot) {
+			final ClassPool copyPool = new ClassPool(pool);
+			copyPool.childFirstLookup = true;
+			for (final Map.Entry<String, byte[]> entry : snapshot.entrySet()) {
+				copyPool.appendClassPath(new ByteArrayClassPath(entry.getKey(), entry
+					.getValue()));
+			}
+			copyPool.appendClassPath(new ClassClassPath(CodeHacker.class));
+			copyPool.appendClassPath(new LoaderClassPath(classLoader));
+			try {
+				final CtClass copy = copyPool.get(clazz.getName());
+				for (final DeferredModification modification : modifications) {
+					modification.apply(getCopy(copy, modification.behavior));
+				}
+				for (final List<EagerExprEditor> list : edits) {
+					applyEdits(getCopy(copy, list.get(0).behavior), list);
+				}
+			}
+			catch (final NotFoundException e) {
+				copies.clear();
+				maybeThrow(new IllegalArgumentException("Cannot patch a copy of " +
+					clazz.getName(), e));
+			}
+		}
+
+		private CtBehavior getCopy(final CtClass copy, final CtBehavior behavior)
+			throws NotFoundException
 		{
-			count = 0;
-			behavior.instrument(this);
-			if (!wasSuccessful()) {
-				throw new CannotCompileException("No code replaced!");
+			CtBehavior result = copies.get(behavior);
+			if (result != null) return result;
+			if (behavior instanceof CtConstructor &&
+				((CtConstructor) behavior).isClassInitializer())
+			{
+				result = copy.getClassInitializer();
+			}
+			else for (final CtBehavior candidate : copy.getDeclaredBehaviors()) {
+				if (candidate.getName().equals(behavior.getName()) &&
+					candidate.getSignature().equals(behavior.getSignature()))
+				{
+					result = candidate;
+					break;
+				}
+			}
+			if (result == null) throw new NotFoundException(getKey(behavior));
+			copies.put(behavior, result);
+			return result;
+		}
+
+		/** Copies the patched method bodies back into the original class. */
+		private void commit() {
+			for (final Map.Entry<CtBehavior, CtBehavior> entry : copies.entrySet()) {
+				final CtBehavior behavior = entry.getKey();
+				try {
+					if (behavior instanceof CtMethod) {
+						((CtMethod) behavior).setBody((CtMethod) entry.getValue(), null);
+					}
+					else {
+						((CtConstructor) behavior).setBody((CtConstructor) entry
+							.getValue(), null);
+					}
+				}
+				catch (final Throwable e) {
+					maybeThrow(new IllegalArgumentException("Cannot modify " +
+						getKey(behavior), e));
+				}
 			}
 		}
 	}
 
+	/**
+	 * Applies the deferred modifications and the queued expression edits of all
+	 * behaviors of the given class.
+	 * 
+	 * @param clazz the class
+	 */
+	private void applyQueuedEdits(final CtClass clazz) {
+		final List<DeferredModification> modifications;
+		synchronized (deferredModifications) {
+			modifications = deferredModifications.remove(clazz.getName());
+		}
+		if (modifications != null) {
+			for (final DeferredModification modification : modifications) {
+				modification.apply(modification.behavior);
+			}
+		}
+		final List<CtBehavior> behaviors = new ArrayList<CtBehavior>();
+		synchronized (queuedEdits) {
+			if (queuedEdits.isEmpty()) return;
+			for (final List<EagerExprEditor> list : queuedEdits.values()) {
+				final CtBehavior behavior = list.get(0).behavior;
+				if (behavior.getDeclaringClass() == clazz) behaviors.add(behavior);
+			}
+		}
+		for (final CtBehavior behavior : behaviors) {
+			applyQueuedEdits(behavior);
+		}
+	}
+
+	/**
+	 * Applies the queued expression edits of the given behavior.
+	 * <p>
+	 * The edits are applied in as few passes as possible: a new pass is started
+	 * only when an edit conflicts with one of the current pass.
+	 * </p>
+	 * 
+	 * @param behavior the method or constructor
+	 */
+	private void applyQueuedEdits(final CtBehavior behavior) {
+		final List<EagerExprEditor> list;
+		synchronized (queuedEdits) {
+			if (queuedEdits.isEmpty()) return;
+			list = queuedEdits.remove(getKey(behavior));
+		}
+		if (list != null) applyEdits(behavior, list);
+	}
+
+	/**
+	 * Applies the given expression edits to the given behavior.
+	 * 
+	 * @param behavior the method or constructor
+	 * @param list the edits, in the order they were queued
+	 */
+	private void applyEdits(final CtBehavior behavior,
+		final List<EagerExprEditor> list)
+	{
+		List<EagerExprEditor> pass = new ArrayList<EagerExprEditor>();
+		for (final EagerExprEditor editor : list) {
+			for (final EagerExprEditor other : pass) {
+				if (editor.conflictsWith(other)) {
+					applyPass(behavior, pass);
+					pass = new ArrayList<EagerExprEditor>();
+					break;
+				}
+			}
+			pass.add(editor);
+		}
+		applyPass(behavior, pass);
+	}
+
+	private static String getKey(final CtBehavior behavior) {
+		return behavior.getDeclaringClass().getName() + "#" + behavior.getName() +
+			behavior.getSignature();
+	}
+
+	private void applyPass(final CtBehavior behavior,
+		final List<EagerExprEditor> pass)
+	{
+		if (pass.isEmpty()) return;
+		try {
+			behavior.instrument(pass.size() == 1 ? pass.get(0)
+				: new CombinedExprEditor(pass));
+		}
+		catch (final Throwable e) {
+			for (final EagerExprEditor editor : pass) {
+				if (editor.failure == null) editor.failure = e;
+			}
+		}
+		for (final EagerExprEditor editor : pass) {
+			editor.report();
+		}
+	}
+
 	/**
 	 * Disassembles all methods of a class.
 	 * 
@@ -1486,6 +2146,7 @@ class CodeHacker {
 		final boolean evenSuperclassMethods)
 	{
 		final CtClass clazz = getClass(fullName);
+		applyQueuedEdits(clazz);
 		out.println("Class " + clazz.getName());
 		for (final CtConstructor ctor : clazz.getConstructors()) {
 			disassemble(ctor, out);
@@ -1534,6 +2195,7 @@ class CodeHacker {
 	 * @throws IOException
 	 */
 	public void writeJar(final File path) throws IOException {
+		applyQueuedEdits();
 		final JarOutputStream jar = new JarOutputStream(new FileOutputStream(path));
 		final DataOutputStream dataOut = new DataOutputStream(jar);
 		for (final CtClass clazz : handledClasses.values()) {
@@ -1550,6 +2212,7 @@ class CodeHacker {
 	public void writeJar(final URL directory, final File jarFile)
 		throws IOException, NotFoundException
 	{
+		applyQueuedEdits();
 		final int prefixLength = directory.getPath().length();
 		final Collection<URL> urls = Utils.listContents(directory);
 
@@ -1665,6 +2328,7 @@ class CodeHacker {
 	}
 
 	protected void verify(final PrintWriter out) {
+		applyQueuedEdits();
 		out.println("Verifying " + handledClasses.size() + " classes");
 		for (final CtClass clazz : handledClasses.values()) {
 			out.println("Verifying class " + clazz.getName());
@@ -1710,4 +2374,25 @@ class CodeHacker {
 		final CtClass c = getClass(clazz);
 		return (String) c.getField(fieldName).getConstantValue();
 	}
+
+	/**
+	 * A {@link ClassPool} whose cached classes can be released.
+	 * 
+	 * @see CodeHacker#release()
+	 */
+	static class ReleasableClassPool extends ClassPool {
+
+		public ReleasableClassPool() {
+			super(false);
+		}
+
+		/** Gets a snapshot of the classes currently cached by this pool. */
+		@SuppressWarnings("unchecked")
+		Collection<CtClass> getCachedClasses() {
+			synchronized (classes) {
+				return new ArrayList<CtClass>(classes.values());
+			}
+		}
+	}
+
 }
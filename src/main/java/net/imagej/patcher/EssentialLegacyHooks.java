@@ -31,12 +31,21 @@ package net.imagej.patcher;
 
 import ij.IJ;
 
+import java.awt.Frame;
+import java.awt.Image;
+import java.awt.image.ImageProducer;
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -123,16 +132,10 @@ public class EssentialLegacyHooks extends LegacyHooks {
 			}
 		}
 		try {
-			for (final File dir : directories) {
-				missingSubdirectories(dir, directories, missing);
-			}
+			final ClassDirectoryIndex index = ClassDirectoryIndex.getDefault();
+			index.findMissing(directories, missing);
 			if (missing.isEmpty()) return null;
-			final URL[] urls = new URL[missing.size()];
-			int i = 0;
-			for (final File dir : missing) {
-				urls[i++] = dir.toURI().toURL();
-			}
-			return new URLClassLoader(urls, loader);
+			return index.getClassLoader(loader, missing);
 		}
 		catch (Exception e) {
 			e.printStackTrace();
@@ -140,6 +143,99 @@ public class EssentialLegacyHooks extends LegacyHooks {
 		}
 	}
 
+	/**
+	 * Intended for sole use with patches in {@link ij.io.PluginClassLoader}. DO
+	 * NOT USE.
+	 */
+	public static URL[] pluginJars(final LegacyHooks hooks, final File directory)
+		throws IOException
+	{
+		final List<URL> urls = new ArrayList<>();
+		addPluginJars(hooks, directory, urls);
+		return urls.toArray(new URL[urls.size()]);
+	}
+
+	/**
+	 * Intended for sole use with patches in {@link ij.io.PluginClassLoader}. DO
+	 * NOT USE.
+	 */
+	@SuppressWarnings("deprecation")
+	public static URL[] extraPluginJars(final LegacyHooks hooks, final String path)
+		throws IOException
+	{
+		final List<URL> urls = new ArrayList<>();
+		final File plugins = new File(path);
+		if (plugins.getName().equals("plugins")) {
+			final File root = plugins.getParentFile();
+			if (root != null) addPluginJars(hooks, new File(root, "jars"), urls);
+		}
+		for (final File file : hooks.handleExtraPluginJars()) {
+			urls.add(file.toURL());
+		}
+		return urls.toArray(new URL[urls.size()]);
+	}
+
+	private static void addPluginJars(final LegacyHooks hooks,
+		final File directory, final List<URL> urls) throws IOException
+	{
+		final String[] list = hooks.addPluginDirectory(directory, directory.list());
+		if (list == null) return;
+		for (final String name : list) {
+			final File file = new File(directory, name);
+			if (file.isDirectory()) addPluginJars(hooks, file, urls);
+			else if (file.getName().endsWith(".jar")) urls.add(file.toURI().toURL());
+		}
+	}
+
+	/**
+	 * Intended for sole use with patches in {@link ij.Menus}. DO NOT USE.
+	 */
+	public static void removeDuplicates(final Collection<?> list) {
+		if (list == null) return;
+		final Set<Object> seen = new HashSet<>();
+		for (final Iterator<?> iter = list.iterator(); iter.hasNext(); ) {
+			if (!seen.add(iter.next())) iter.remove();
+		}
+	}
+
+	/**
+	 * Intended for sole use with patches in {@link ij.Menus}. DO NOT USE.
+	 */
+	public static void removeSourcesJars(final List<?> jarFiles) {
+		if (jarFiles == null) return;
+		for (int i = jarFiles.size() - 1; i >= 0; i--) {
+			if (((String) jarFiles.get(i)).endsWith("-sources.jar")) {
+				jarFiles.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * Intended for sole use with patches in {@link ij.Menus} and
+	 * {@link ij.plugin.MacroInstaller}. DO NOT USE.
+	 */
+	public static String startupMacrosPath(final String path) {
+		if (!path.endsWith("StartupMacros.txt")) return path;
+		final File fijiFile =
+			new File(path.substring(0, path.length() - 3) + "fiji.ijm");
+		return fijiFile.exists() ? fijiFile.getPath() : path;
+	}
+
+	/**
+	 * Intended for sole use with patches in {@link ij.WindowManager}. DO NOT
+	 * USE.
+	 */
+	public static void setIconImage(final URL iconURL, final Frame window)
+		throws IOException
+	{
+		if (iconURL == null || window == null) return;
+		final Image img =
+			window.createImage((ImageProducer) iconURL.getContent());
+		if (img != null) {
+			window.setIconImage(img);
+		}
+	}
+
 	/**
 	 * Tests whether the given directory is a build directory in a development
 	 * environment. E.g., with Maven, class files typically reside in
@@ -150,27 +246,6 @@ public class EssentialLegacyHooks extends LegacyHooks {
 		return Arrays.asList(buildDirs).contains(dir.getParentFile().getName());
 	}
 
-	private static boolean missingSubdirectories(final File dir, final Set<File> already, final Set<File> missing) {
-		boolean containsClassFiles = false;
-		for (final File sub : dir.listFiles()) {
-			if (sub.isDirectory()) {
-				if (already.contains(sub) || missing.contains(sub)) continue;
-				if (missingSubdirectories(sub, already, missing)) try {
-					containsClassFiles = true;
-					missing.add(sub);
-				}
-				catch (Exception e) {
-					if (e instanceof RuntimeException) throw (RuntimeException) e;
-					throw new RuntimeException(e);
-				}
-			}
-			else if (sub.getName().endsWith(".class")) {
-				containsClassFiles = true;
-			}
-		}
-		return containsClassFiles;
-	}
-
 	/**
 	 * Intercepts LegacyInitializer's Context creation.
 	 * <p>
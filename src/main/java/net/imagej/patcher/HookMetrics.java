@@ -0,0 +1,330 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Invocation counts and latency histograms of the {@link LegacyHooks}.
+ * <p>
+ * The counters are {@link LongAdder}s, i.e. striped to avoid contention, and
+ * recording a call does not allocate. The latencies are recorded in a
+ * histogram with power-of-two buckets (in nanoseconds). See
+ * {@link InstrumentedLegacyHooks} for how to enable the metrics.
+ * </p>
+ * <p>
+ * The MBean is unregistered when the hooks are disposed of, or else soon after
+ * the class loader of the legacy environment was garbage collected.
+ * </p>
+ * <p>
+ * Do not use: for internal use only.
+ * </p>
+ */
+public final class HookMetrics implements HookMetricsMBean {
+
+	private final static int BUCKETS = 40;
+
+	/** How often to look for legacy environments that were dropped. */
+	private final static long EXPUNGE_INTERVAL_SECONDS = 10;
+
+	private final static AtomicLong ids = new AtomicLong();
+	private final static ReferenceQueue<ClassLoader> dropped =
+		new ReferenceQueue<ClassLoader>();
+	// keeps the owners reachable until their class loaders are collected
+	private final static Set<Owner> owners = new HashSet<Owner>();
+	private static boolean expunging;
+
+	private final long id = ids.incrementAndGet();
+	private final ConcurrentMap<String, Hook> hooks =
+		new ConcurrentHashMap<String, Hook>();
+	private ObjectName name;
+	private Owner owner;
+
+	/**
+	 * Unregisters the metrics when the legacy environment's class loader is
+	 * garbage collected.
+	 */
+	private static class Owner extends WeakReference<ClassLoader> {
+
+		private final HookMetrics metrics;
+
+		private Owner(final ClassLoader loader, final HookMetrics metrics) {
+			super(loader, dropped);
+			this.metrics = metrics;
+		}
+	}
+
+	/**
+	 * The counters of a single hook.
+	 */
+	final static class Hook {
+
+		private final String name;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+		private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+		private Hook(final String name) {
+			this.name = name;
+			for (int i = 0; i < BUCKETS; i++) {
+				histogram[i] = new LongAdder();
+			}
+		}
+
+		/**
+		 * Records a call.
+		 * 
+		 * @param start the value of {@link System#nanoTime()} when the call started
+		 */
+		void record(final long start) {
+			final long duration = System.nanoTime() - start;
+			count.increment();
+			nanos.add(duration);
+			histogram[bucket(duration)].increment();
+		}
+
+		private double percentileMicros(final double percentile) {
+			final long total = count.sum();
+			if (total == 0) return 0;
+			final long rank = (long) Math.ceil(percentile / 100 * total);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += histogram[i].sum();
+				if (seen >= rank) return (1l << (i + 1)) / 1e3;
+			}
+			return (1l << BUCKETS) / 1e3;
+		}
+
+		private void reset() {
+			count.reset();
+			nanos.reset();
+			for (final LongAdder bucket : histogram) {
+				bucket.reset();
+			}
+		}
+	}
+
+	private static int bucket(final long nanos) {
+		if (nanos <= 1) return 0;
+		return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	/**
+	 * Gets (or creates) the counters of a hook.
+	 * 
+	 * @param name the name of the hook method
+	 * @return the counters
+	 */
+	Hook getHook(final String name) {
+		Hook hook = hooks.get(name);
+		if (hook == null) {
+			final Hook newHook = new Hook(name);
+			hook = hooks.putIfAbsent(name, newHook);
+			if (hook == null) hook = newHook;
+		}
+		return hook;
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server.
+	 * <p>
+	 * The MBean is named after a number that is unique within the JVM.
+	 * </p>
+	 * 
+	 * @param loader the class loader of the legacy environment; the metrics are
+	 *          unregistered when it is garbage collected
+	 */
+	void register(final ClassLoader loader) {
+		expungeDropped();
+		synchronized (this) {
+			if (name != null) return;
+			try {
+				final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				final ObjectName objectName =
+					new ObjectName("net.imagej.patcher:type=HookMetrics,name=" + id);
+				server.registerMBean(this, objectName);
+				name = objectName;
+			}
+			catch (final JMException e) {
+				e.printStackTrace();
+				return;
+			}
+			owner = new Owner(loader, this);
+			synchronized (owners) {
+				owners.add(owner);
+				if (!expunging) {
+					expunging = true;
+					ProgressDispatcher.getExecutor().scheduleWithFixedDelay(
+						new Runnable() {
+
+							@Override
+							public void run() {
+								expungeDropped();
+							}
+						}, EXPUNGE_INTERVAL_SECONDS, EXPUNGE_INTERVAL_SECONDS,
+						TimeUnit.SECONDS);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Unregisters the metrics of legacy environments that were garbage
+	 * collected without being disposed of.
+	 */
+	static void expungeDropped() {
+		for (;;) {
+			final Owner owner = (Owner) dropped.poll();
+			if (owner == null) break;
+			owner.metrics.unregister();
+		}
+	}
+
+	/**
+	 * Unregisters these metrics from the platform MBean server.
+	 */
+	synchronized void unregister() {
+		if (owner != null) {
+			synchronized (owners) {
+				owners.remove(owner);
+			}
+			owner.clear();
+			owner = null;
+		}
+		if (name == null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+		catch (final JMException e) {
+			// already gone
+		}
+		name = null;
+	}
+
+	/**
+	 * Gets the name under which these metrics are registered.
+	 * 
+	 * @return the name, or {@code null} if they are not registered
+	 */
+	public synchronized ObjectName getObjectName() {
+		return name;
+	}
+
+	@Override
+	public String[] getHookNames() {
+		final List<String> names = new ArrayList<String>();
+		for (final Hook hook : hooks.values()) {
+			if (hook.count.sum() > 0) names.add(hook.name);
+		}
+		Collections.sort(names);
+		return names.toArray(new String[names.size()]);
+	}
+
+	@Override
+	public long getTotalInvocations() {
+		long total = 0;
+		for (final Hook hook : hooks.values()) {
+			total += hook.count.sum();
+		}
+		return total;
+	}
+
+	@Override
+	public double getTotalMillis() {
+		long total = 0;
+		for (final Hook hook : hooks.values()) {
+			total += hook.nanos.sum();
+		}
+		return total / 1e6;
+	}
+
+	@Override
+	public long getInvocationCount(final String name) {
+		final Hook hook = hooks.get(name);
+		return hook == null ? 0 : hook.count.sum();
+	}
+
+	@Override
+	public double getTotalMillis(final String name) {
+		final Hook hook = hooks.get(name);
+		return hook == null ? 0 : hook.nanos.sum() / 1e6;
+	}
+
+	@Override
+	public double getLatencyPercentileMicros(final String name,
+		final double percentile)
+	{
+		final Hook hook = hooks.get(name);
+		return hook == null ? 0 : hook.percentileMicros(percentile);
+	}
+
+	@Override
+	public String dump() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append(String.format("%-32s %10s %12s %10s %10s %10s%n", "hook",
+			"calls", "total ms", "mean us", "p50 us", "p99 us"));
+		for (final String name : getHookNames()) {
+			final Hook hook = hooks.get(name);
+			final long count = hook.count.sum();
+			final long nanos = hook.nanos.sum();
+			builder.append(String.format("%-32s %10d %12.3f %10.3f %10.3f %10.3f%n",
+				name, count, nanos / 1e6, count == 0 ? 0 : nanos / 1e3 / count, hook
+					.percentileMicros(50), hook.percentileMicros(99)));
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public void reset() {
+		for (final Hook hook : hooks.values()) {
+			hook.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return dump();
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+/**
+ * The management interface of {@link HookMetrics}.
+ * <p>
+ * Do not use: for internal use only.
+ * </p>
+ */
+public interface HookMetricsMBean {
+
+	/**
+	 * Gets the names of the hooks that were called at least once.
+	 */
+	String[] getHookNames();
+
+	/**
+	 * Gets the total number of calls into the hooks.
+	 */
+	long getTotalInvocations();
+
+	/**
+	 * Gets the total time spent in the hooks, in milliseconds.
+	 */
+	double getTotalMillis();
+
+	/**
+	 * Gets the number of calls into the given hook.
+	 */
+	long getInvocationCount(String hook);
+
+	/**
+	 * Gets the time spent in the given hook, in milliseconds.
+	 */
+	double getTotalMillis(String hook);
+
+	/**
+	 * Estimates a latency percentile of the given hook, in microseconds.
+	 * 
+	 * @param percentile between 0 and 100
+	 * @return the upper bound of the histogram bucket the percentile falls into
+	 */
+	double getLatencyPercentileMicros(String hook, double percentile);
+
+	/**
+	 * Formats the metrics of all hooks as a text table.
+	 */
+	String dump();
+
+	/**
+	 * Resets all counters.
+	 */
+	void reset();
+}
@@ -0,0 +1,197 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches the calls to {@link LegacyHooks#registerImage(Object)}.
+ * <p>
+ * ImageJ 1.x calls {@code registerImage()} from {@code ImagePlus.updateAndDraw()}
+ * and friends, i.e. thousands of times for the same image e.g. while scrolling
+ * through a stack. If the installed hooks return a positive
+ * {@link LegacyHooks#getImageRegistrationInterval()}, the patched ImageJ 1.x
+ * only marks the image as pending, and each pending image is delivered once
+ * per interval by the dispatcher thread (shared with the
+ * {@link ProgressDispatcher}), or when the hooks call
+ * {@link LegacyHooks#flushImageRegistrations()}. Unregistering an image
+ * cancels its pending registration; if the registration is being delivered at
+ * that moment, the cancellation waits for it, so that the hooks never see an
+ * image registered after it was unregistered.
+ * </p>
+ * <p>
+ * Do not use: for internal use only.
+ * </p>
+ */
+public final class ImageRegistrations {
+
+	// the batch references the hooks, so it must not be a strong value
+	private final static Map<LegacyHooks, WeakReference<ImageRegistrations>> batches =
+		new WeakHashMap<LegacyHooks, WeakReference<ImageRegistrations>>();
+
+	private final LegacyHooks hooks;
+	// ImagePlus does not override equals(), therefore this is an identity set
+	private final Map<Object, Boolean> pending =
+		new ConcurrentHashMap<Object, Boolean>();
+	private final ScheduledFuture<?> future;
+	/** Orders the delivery of a registration against its cancellation. */
+	private final Object lock = new Object();
+
+	/**
+	 * Creates a batch if the hooks ask for it.
+	 * 
+	 * @param hooks the hooks to deliver to
+	 * @return the batch, or {@code null} if the registrations should be
+	 *         delivered immediately
+	 */
+	public static ImageRegistrations create(final LegacyHooks hooks) {
+		final long interval = hooks.getImageRegistrationInterval();
+		if (interval <= 0) return null;
+		final ImageRegistrations batch = new ImageRegistrations(hooks, interval);
+		synchronized (batches) {
+			// the hooks flushing themselves do not know about instrumentation
+			batches.put(InstrumentedLegacyHooks.unwrap(hooks),
+				new WeakReference<ImageRegistrations>(batch));
+		}
+		return batch;
+	}
+
+	private ImageRegistrations(final LegacyHooks hooks, final long interval) {
+		this.hooks = hooks;
+		final Delivery delivery = new Delivery(this);
+		future =
+			ProgressDispatcher.getExecutor().scheduleWithFixedDelay(delivery,
+				interval, interval, TimeUnit.MILLISECONDS);
+		delivery.future = future;
+	}
+
+	/**
+	 * Marks an image as pending registration.
+	 * 
+	 * @param image the image
+	 */
+	public void register(final Object image) {
+		if (image != null) pending.put(image, Boolean.TRUE);
+	}
+
+	/**
+	 * Cancels the pending registration of an image.
+	 * 
+	 * @param image the image
+	 */
+	public void cancel(final Object image) {
+		if (image == null) return;
+		synchronized (lock) {
+			pending.remove(image);
+		}
+	}
+
+	/**
+	 * Discards the pending registrations without delivering them.
+	 */
+	public void clear() {
+		synchronized (lock) {
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Delivers each pending image once.
+	 */
+	public void flush() {
+		for (final Object image : pending.keySet()) {
+			synchronized (lock) {
+				// a concurrent flush or cancel might have won
+				if (pending.remove(image) != null) hooks.registerImage(image);
+			}
+		}
+	}
+
+	/**
+	 * Delivers the pending images and stops the periodic delivery.
+	 * <p>
+	 * Called when the hooks are replaced.
+	 * </p>
+	 */
+	public void dispose() {
+		future.cancel(false);
+		synchronized (batches) {
+			batches.remove(InstrumentedLegacyHooks.unwrap(hooks));
+		}
+		flush();
+	}
+
+	/**
+	 * Delivers the pending registrations of the given hooks.
+	 * 
+	 * @param hooks the hooks
+	 */
+	static void flush(final LegacyHooks hooks) {
+		final WeakReference<ImageRegistrations> reference;
+		synchronized (batches) {
+			reference = batches.get(hooks);
+		}
+		final ImageRegistrations batch = reference == null ? null : reference.get();
+		if (batch != null) batch.flush();
+	}
+
+	/**
+	 * Delivers the registrations of a batch until it is garbage collected.
+	 */
+	private static class Delivery implements Runnable {
+
+		private final WeakReference<ImageRegistrations> batch;
+		private volatile ScheduledFuture<?> future;
+
+		private Delivery(final ImageRegistrations batch) {
+			this.batch = new WeakReference<ImageRegistrations>(batch);
+		}
+
+		@Override
+		public void run() {
+			final ImageRegistrations batch = this.batch.get();
+			if (batch == null) {
+				if (future != null) future.cancel(false);
+				return;
+			}
+			try {
+				batch.flush();
+			}
+			catch (final Throwable t) {
+				// do not let a failing hook cancel the future deliveries
+				t.printStackTrace();
+			}
+		}
+	}
+}
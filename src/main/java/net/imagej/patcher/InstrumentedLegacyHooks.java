@@ -0,0 +1,666 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+import java.awt.event.KeyEvent;
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps {@link LegacyHooks} to record how often, and for how long, ImageJ 1.x
+ * calls them.
+ * <p>
+ * When the system property {@value #METRICS_PROPERTY} is set to {@code true},
+ * the patched {@code ij.IJ._hooks(LegacyHooks)} method wraps every hooks object
+ * it installs. The {@link HookMetrics} of a legacy environment survive
+ * replacing its hooks; they are registered as a JMX MBean named
+ * {@code net.imagej.patcher:type=HookMetrics,name=<id>} (where {@code <id>}
+ * is a number unique within the JVM) and can be obtained
+ * via {@link LegacyEnvironment#getHookMetrics()}.
+ * </p>
+ * <p>
+ * Do not use: for internal use only.
+ * </p>
+ */
+public final class InstrumentedLegacyHooks extends LegacyHooks {
+
+	/** Whether to instrument the hooks. */
+	public static final String METRICS_PROPERTY = "ij1.patcher.hookMetrics";
+
+	private final LegacyHooks delegate;
+	private final HookMetrics metrics;
+
+	private final HookMetrics.Hook isLegacyModeHook;
+	private final HookMetrics.Hook getContextHook;
+	private final HookMetrics.Hook quitHook;
+	private final HookMetrics.Hook installedHook;
+	private final HookMetrics.Hook interceptRunPlugInHook;
+	private final HookMetrics.Hook showProgressHook;
+	private final HookMetrics.Hook showStatusHook;
+	private final HookMetrics.Hook logHook;
+	private final HookMetrics.Hook registerImageHook;
+	private final HookMetrics.Hook getImageRegistrationIntervalHook;
+	private final HookMetrics.Hook flushImageRegistrationsHook;
+	private final HookMetrics.Hook unregisterImageHook;
+	private final HookMetrics.Hook debugHook;
+	private final HookMetrics.Hook errorHook;
+	private final HookMetrics.Hook getAppNameHook;
+	private final HookMetrics.Hook getAppVersionHook;
+	private final HookMetrics.Hook getIconURLHook;
+	private final HookMetrics.Hook openInEditorHook;
+	private final HookMetrics.Hook createInEditorHook;
+	private final HookMetrics.Hook enableIJ1PluginDirsHook;
+	private final HookMetrics.Hook addPluginClasspathHook;
+	private final HookMetrics.Hook handleExtraPluginJarsHook;
+	private final HookMetrics.Hook runAfterRefreshMenusHook;
+	private final HookMetrics.Hook handleNoSuchMethodErrorHook;
+	private final HookMetrics.Hook newPluginClassLoaderHook;
+	private final HookMetrics.Hook addPluginDirectoryHook;
+	private final HookMetrics.Hook initializedHook;
+	private final HookMetrics.Hook autoGenerateConfigFileHook;
+	private final HookMetrics.Hook addMenuItemHook;
+	private final HookMetrics.Hook getMenuStructureHook;
+	private final HookMetrics.Hook interceptOpenHook;
+	private final HookMetrics.Hook interceptFileOpenHook;
+	private final HookMetrics.Hook interceptOpenImageHook;
+	private final HookMetrics.Hook interceptOpenRecentHook;
+	private final HookMetrics.Hook interceptDragAndDropFileHook;
+	private final HookMetrics.Hook interceptKeyPressedHook;
+	private final HookMetrics.Hook getThreadAncestorsHook;
+	private final HookMetrics.Hook interceptCloseAllWindowsHook;
+	private final HookMetrics.Hook interceptImageWindowCloseHook;
+	private final HookMetrics.Hook disposingHook;
+
+	private InstrumentedLegacyHooks(final LegacyHooks delegate,
+		final HookMetrics metrics)
+	{
+		this.delegate = delegate;
+		this.metrics = metrics;
+		isLegacyModeHook = metrics.getHook("isLegacyMode");
+		getContextHook = metrics.getHook("getContext");
+		quitHook = metrics.getHook("quit");
+		installedHook = metrics.getHook("installed");
+		interceptRunPlugInHook = metrics.getHook("interceptRunPlugIn");
+		showProgressHook = metrics.getHook("showProgress");
+		showStatusHook = metrics.getHook("showStatus");
+		logHook = metrics.getHook("log");
+		registerImageHook = metrics.getHook("registerImage");
+		getImageRegistrationIntervalHook = metrics.getHook("getImageRegistrationInterval");
+		flushImageRegistrationsHook = metrics.getHook("flushImageRegistrations");
+		unregisterImageHook = metrics.getHook("unregisterImage");
+		debugHook = metrics.getHook("debug");
+		errorHook = metrics.getHook("error");
+		getAppNameHook = metrics.getHook("getAppName");
+		getAppVersionHook = metrics.getHook("getAppVersion");
+		getIconURLHook = metrics.getHook("getIconURL");
+		openInEditorHook = metrics.getHook("openInEditor");
+		createInEditorHook = metrics.getHook("createInEditor");
+		enableIJ1PluginDirsHook = metrics.getHook("enableIJ1PluginDirs");
+		addPluginClasspathHook = metrics.getHook("addPluginClasspath");
+		handleExtraPluginJarsHook = metrics.getHook("handleExtraPluginJars");
+		runAfterRefreshMenusHook = metrics.getHook("runAfterRefreshMenus");
+		handleNoSuchMethodErrorHook = metrics.getHook("handleNoSuchMethodError");
+		newPluginClassLoaderHook = metrics.getHook("newPluginClassLoader");
+		addPluginDirectoryHook = metrics.getHook("addPluginDirectory");
+		initializedHook = metrics.getHook("initialized");
+		autoGenerateConfigFileHook = metrics.getHook("autoGenerateConfigFile");
+		addMenuItemHook = metrics.getHook("addMenuItem");
+		getMenuStructureHook = metrics.getHook("getMenuStructure");
+		interceptOpenHook = metrics.getHook("interceptOpen");
+		interceptFileOpenHook = metrics.getHook("interceptFileOpen");
+		interceptOpenImageHook = metrics.getHook("interceptOpenImage");
+		interceptOpenRecentHook = metrics.getHook("interceptOpenRecent");
+		interceptDragAndDropFileHook = metrics.getHook("interceptDragAndDropFile");
+		interceptKeyPressedHook = metrics.getHook("interceptKeyPressed");
+		getThreadAncestorsHook = metrics.getHook("getThreadAncestors");
+		interceptCloseAllWindowsHook = metrics.getHook("interceptCloseAllWindows");
+		interceptImageWindowCloseHook = metrics.getHook("interceptImageWindowClose");
+		disposingHook = metrics.getHook("disposing");
+	}
+
+	/**
+	 * Wraps the hooks if {@value #METRICS_PROPERTY} is set.
+	 * 
+	 * @param previous the hooks that were installed before, if any
+	 * @param hooks the hooks to install
+	 * @param loader the class loader of the legacy environment
+	 * @return the hooks to install
+	 */
+	public static LegacyHooks wrap(final LegacyHooks previous,
+		final LegacyHooks hooks, final ClassLoader loader)
+	{
+		if (hooks instanceof InstrumentedLegacyHooks ||
+			!Boolean.getBoolean(METRICS_PROPERTY)) return hooks;
+		final HookMetrics metrics =
+			previous instanceof InstrumentedLegacyHooks
+				? ((InstrumentedLegacyHooks) previous).metrics : new HookMetrics();
+		metrics.register(loader);
+		return new InstrumentedLegacyHooks(hooks, metrics);
+	}
+
+	/**
+	 * Unwraps instrumented hooks.
+	 * 
+	 * @param hooks the (possibly instrumented) hooks
+	 * @return the hooks doing the actual work
+	 */
+	public static LegacyHooks unwrap(final LegacyHooks hooks) {
+		return hooks instanceof InstrumentedLegacyHooks
+			? ((InstrumentedLegacyHooks) hooks).delegate : hooks;
+	}
+
+	/**
+	 * Gets the metrics.
+	 * 
+	 * @return the metrics
+	 */
+	public HookMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public void dispose() {
+		metrics.unregister();
+		delegate.dispose();
+	}
+
+	@Override
+	public boolean isLegacyMode() {
+		final long start = System.nanoTime();
+		try {
+			return delegate.isLegacyMode();
+		}
+		finally {
+			isLegacyModeHook.record(start);
+		}
+	}
+
+	@Override
+	public Object getContext() {
+		final long start = System.nanoTime();
+		try {
+			return delegate.getContext();
+		}
+		finally {
+			getContextHook.record(start);
+		}
+	}
+
+	@Override
+	public boolean quit() {
+		final long start = System.nanoTime();
+		try {
+			return delegate.quit();
+		}
+		finally {
+			quitHook.record(start);
+		}
+	}
+
+	@Override
+	public void installed() {
+		final long start = System.nanoTime();
+		try {
+			delegate.installed();
+		}
+		finally {
+			installedHook.record(start);
+		}
+	}
+
+	@Override
+	public Object interceptRunPlugIn(final String className, final String arg) {
+		final long start = System.nanoTime();
+		try {
+			return delegate.interceptRunPlugIn(className, arg);
+		}
+		finally {
+			interceptRunPlugInHook.record(start);
+		}
+	}
+
+	@Override
+	public void showProgress(final double progress) {
+		final long start = System.nanoTime();
+		try {
+			delegate.showProgress(progress);
+		}
+		finally {
+			showProgressHook.record(start);
+		}
+	}
+
+	@Override
+	public void showProgress(final int currentIndex, final int finalIndex) {
+		final long start = System.nanoTime();
+		try {
+			delegate.showProgress(currentIndex, finalIndex);
+		}
+		finally {
+			showProgressHook.record(start);
+		}
+	}
+
+	@Override
+	public void showStatus(final String status) {
+		final long start = System.nanoTime();
+		try {
+			delegate.showStatus(status);
+		}
+		finally {
+			showStatusHook.record(start);
+		}
+	}
+
+	@Override
+	public void log(final String message) {
+		final long start = System.nanoTime();
+		try {
+			delegate.log(message);
+		}
+		finally {
+			logHook.record(start);
+		}
+	}
+
+	@Override
+	public void registerImage(final Object image) {
+		final long start = System.nanoTime();
+		try {
+			delegate.registerImage(image);
+		}
+		finally {
+			registerImageHook.record(start);
+		}
+	}
+
+	@Override
+	public long getImageRegistrationInterval() {
+		final long start = System.nanoTime();
+		try {
+			return delegate.getImageRegistrationInterval();
+		}
+		finally {
+			getImageRegistrationIntervalHook.record(start);
+		}
+	}
+
+	@Override
+	public void flushImageRegistrations() {
+		final long start = System.nanoTime();
+		try {
+			delegate.flushImageRegistrations();
+		}
+		finally {
+			flushImageRegistrationsHook.record(start);
+		}
+	}
+
+	@Override
+	public void unregisterImage(final Object image) {
+		final long start = System.nanoTime();
+		try {
+			delegate.unregisterImage(image);
+		}
+		finally {
+			unregisterImageHook.record(start);
+		}
+	}
+
+	@Override
+	public void debug(final String string) {
+		final long start = System.nanoTime();
+		try {
+			delegate.debug(string);
+		}
+		finally {
+			debugHook.record(start);
+		}
+	}
+
+	@Override
+	public void error(final Throwable t) {
+		final long start = System.nanoTime();
+		try {
+			delegate.error(t);
+		}
+		finally {
+			errorHook.record(start);
+		}
+	}
+
+	@Override
+	public String getAppName() {
+		final long start = System.nanoTime();
+		try {
+			return delegate.getAppName();
+		}
+		finally {
+			getAppNameHook.record(start);
+		}
+	}
+
+	@Override
+	public String getAppVersion() {
+		final long start = System.nanoTime();
+		try {
+			return delegate.getAppVersion();
+		}
+		finally {
+			getAppVersionHook.record(start);
+		}
+	}
+
+	@Override
+	public URL getIconURL() {
+		final long start = System.nanoTime();
+		try {
+			return delegate.getIconURL();
+		}
+		finally {
+			getIconURLHook.record(start);
+		}
+	}
+
+	@Override
+	public boolean openInEditor(final String path) {
+		final long start = System.nanoTime();
+		try {
+			return delegate.openInEditor(path);
+		}
+		finally {
+			openInEditorHook.record(start);
+		}
+	}
+
+	@Override
+	public boolean createInEditor(final String fileName, final String content) {
+		final long start = System.nanoTime();
+		try {
+			return delegate.createInEditor(fileName, content);
+		}
+		finally {
+			createInEditorHook.record(start);
+		}
+	}
+
+	@Override
+	protected void enableIJ1PluginDirs(final boolean enable) {
+		final long start = System.nanoTime();
+		try {
+			delegate.enableIJ1PluginDirs(enable);
+		}
+		finally {
+			enableIJ1PluginDirsHook.record(start);
+		}
+	}
+
+	@Override
+	protected void addPluginClasspath(final File file) {
+		final long start = System.nanoTime();
+		try {
+			delegate.addPluginClasspath(file);
+		}
+		finally {
+			addPluginClasspathHook.record(start);
+		}
+	}
+
+	@Override
+	public List<File> handleExtraPluginJars() {
+		final long start = System.nanoTime();
+		try {
+			return delegate.handleExtraPluginJars();
+		}
+		finally {
+			handleExtraPluginJarsHook.record(start);
+		}
+	}
+
+	@Override
+	public void runAfterRefreshMenus() {
+		final long start = System.nanoTime();
+		try {
+			delegate.runAfterRefreshMenus();
+		}
+		finally {
+			runAfterRefreshMenusHook.record(start);
+		}
+	}
+
+	@Override
+	public boolean handleNoSuchMethodError(final NoSuchMethodError error) {
+		final long start = System.nanoTime();
+		try {
+			return delegate.handleNoSuchMethodError(error);
+		}
+		finally {
+			handleNoSuchMethodErrorHook.record(start);
+		}
+	}
+
+	@Override
+	public void newPluginClassLoader(final ClassLoader loader) {
+		final long start = System.nanoTime();
+		try {
+			delegate.newPluginClassLoader(loader);
+		}
+		finally {
+			newPluginClassLoaderHook.record(start);
+		}
+	}
+
+	@Override
+	public String[] addPluginDirectory(final File directory,
+		final String[] names)
+	{
+		final long start = System.nanoTime();
+		try {
+			return delegate.addPluginDirectory(directory, names);
+		}
+		finally {
+			addPluginDirectoryHook.record(start);
+		}
+	}
+
+	@Override
+	public void initialized() {
+		final long start = System.nanoTime();
+		try {
+			delegate.initialized();
+		}
+		finally {
+			initializedHook.record(start);
+		}
+	}
+
+	@Override
+	public InputStream autoGenerateConfigFile(final File directory) {
+		final long start = System.nanoTime();
+		try {
+			return delegate.autoGenerateConfigFile(directory);
+		}
+		finally {
+			autoGenerateConfigFileHook.record(start);
+		}
+	}
+
+	@Override
+	protected StringBuilder autoGenerateConfigFile(
+		final File topLevelDirectory, final File directory,
+		final String menuPath, final String packageName,
+		final StringBuilder builder)
+	{
+		final long start = System.nanoTime();
+		try {
+			return delegate.autoGenerateConfigFile(topLevelDirectory, directory, menuPath, packageName, builder);
+		}
+		finally {
+			autoGenerateConfigFileHook.record(start);
+		}
+	}
+
+	@Override
+	public void addMenuItem(final String menuPath, final String command) {
+		final long start = System.nanoTime();
+		try {
+			delegate.addMenuItem(menuPath, command);
+		}
+		finally {
+			addMenuItemHook.record(start);
+		}
+	}
+
+	@Override
+	public Map<String, String> getMenuStructure() {
+		final long start = System.nanoTime();
+		try {
+			return delegate.getMenuStructure();
+		}
+		finally {
+			getMenuStructureHook.record(start);
+		}
+	}
+
+	@Deprecated
+	@Override
+	public Object interceptOpen(final String path, final int planeIndex,
+		final boolean display)
+	{
+		final long start = System.nanoTime();
+		try {
+			return delegate.interceptOpen(path, planeIndex, display);
+		}
+		finally {
+			interceptOpenHook.record(start);
+		}
+	}
+
+	@Override
+	public Object interceptFileOpen(final String path) {
+		final long start = System.nanoTime();
+		try {
+			return delegate.interceptFileOpen(path);
+		}
+		finally {
+			interceptFileOpenHook.record(start);
+		}
+	}
+
+	@Override
+	public Object interceptOpenImage(final String path, final int planeIndex) {
+		final long start = System.nanoTime();
+		try {
+			return delegate.interceptOpenImage(path, planeIndex);
+		}
+		finally {
+			interceptOpenImageHook.record(start);
+		}
+	}
+
+	@Override
+	public Object interceptOpenRecent(final String path) {
+		final long start = System.nanoTime();
+		try {
+			return delegate.interceptOpenRecent(path);
+		}
+		finally {
+			interceptOpenRecentHook.record(start);
+		}
+	}
+
+	@Override
+	public Object interceptDragAndDropFile(final File f) {
+		final long start = System.nanoTime();
+		try {
+			return delegate.interceptDragAndDropFile(f);
+		}
+		finally {
+			interceptDragAndDropFileHook.record(start);
+		}
+	}
+
+	@Override
+	public boolean interceptKeyPressed(final KeyEvent e) {
+		final long start = System.nanoTime();
+		try {
+			return delegate.interceptKeyPressed(e);
+		}
+		finally {
+			interceptKeyPressedHook.record(start);
+		}
+	}
+
+	@Override
+	public Iterable<Thread> getThreadAncestors() {
+		final long start = System.nanoTime();
+		try {
+			return delegate.getThreadAncestors();
+		}
+		finally {
+			getThreadAncestorsHook.record(start);
+		}
+	}
+
+	@Override
+	public boolean interceptCloseAllWindows() {
+		final long start = System.nanoTime();
+		try {
+			return delegate.interceptCloseAllWindows();
+		}
+		finally {
+			interceptCloseAllWindowsHook.record(start);
+		}
+	}
+
+	@Override
+	public void interceptImageWindowClose(final Object window) {
+		final long start = System.nanoTime();
+		try {
+			delegate.interceptImageWindowClose(window);
+		}
+		finally {
+			interceptImageWindowCloseHook.record(start);
+		}
+	}
+
+	@Override
+	public boolean disposing() {
+		final long start = System.nanoTime();
+		try {
+			return delegate.disposing();
+		}
+		finally {
+			disposingHook.record(start);
+		}
+	}
+}
@@ -42,6 +42,7 @@ import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
@@ -85,6 +86,20 @@ public class JavaAgent implements ClassFileTransformer {
 		patchingTransformer.store(name, bytes);
 	}
 
+	/**
+	 * Registers a recipe for patched bytecode that is run only when the class is
+	 * first loaded.
+	 */
+	static void storePatchedClass(final String name,
+		final Supplier<byte[]> recipe)
+	{
+		if (patchingTransformer == null) {
+			patchingTransformer = new PatchingTransformer();
+			instrumentation.addTransformer(patchingTransformer);
+		}
+		patchingTransformer.store(name, recipe);
+	}
+
 	public static void stop() {
 		if (instrumentation != null && agent != null) {
 			instrumentation.removeTransformer(agent);
@@ -254,16 +269,25 @@ public class JavaAgent implements ClassFileTransformer {
 	private static class PatchingTransformer implements ClassFileTransformer {
 		private final java.util.concurrent.ConcurrentHashMap<String, byte[]> patches =
 			new java.util.concurrent.ConcurrentHashMap<>();
+		private final java.util.concurrent.ConcurrentHashMap<String, Supplier<byte[]>> recipes =
+			new java.util.concurrent.ConcurrentHashMap<>();
 
 		void store(final String className, final byte[] bytes) {
 			patches.put(className.replace('.', '/'), bytes);
 		}
 
+		void store(final String className, final Supplier<byte[]> recipe) {
+			recipes.put(className.replace('.', '/'), recipe);
+		}
+
 		@Override
 		public byte[] transform(final ClassLoader loader, final String className,
 				final Class<?> classBeingRedefined, final ProtectionDomain protectionDomain,
 				final byte[] classfileBuffer) throws IllegalClassFormatException {
-			return patches.remove(className);
+			final byte[] patched = patches.remove(className);
+			if (patched != null || className == null) return patched;
+			final Supplier<byte[]> recipe = recipes.remove(className);
+			return recipe == null ? null : recipe.get();
 		}
 	}
 
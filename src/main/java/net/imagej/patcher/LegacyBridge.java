@@ -0,0 +1,98 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+/**
+ * Calls into a (patched) ImageJ 1.x without reflection.
+ * <p>
+ * The {@link LegacyInjector} generates an implementation of this interface in
+ * the class loader holding the patched ImageJ 1.x classes, so that the
+ * {@link LegacyEnvironment} can call them directly.
+ * </p>
+ * <p>
+ * Do not use: for internal use only.
+ * </p>
+ */
+public interface LegacyBridge {
+
+	/**
+	 * Calls {@code ij.Macro.setOptions(options)}.
+	 */
+	void setMacroOptions(String options);
+
+	/**
+	 * Calls {@code ij.IJ.run(command, options)}.
+	 */
+	void run(String command, String options);
+
+	/**
+	 * Calls {@code ij.IJ.runMacro(macro, arg)}.
+	 */
+	String runMacro(String macro, String arg);
+
+	/**
+	 * Calls {@code ij.IJ.runPlugIn(className, arg)}.
+	 */
+	Object runPlugIn(String className, String arg);
+
+	/**
+	 * Calls {@code ij.ImageJ.main(args)}.
+	 */
+	void main(String[] args);
+
+	/**
+	 * Wraps the pixels in a new {@code ij.ImagePlus} and shows it.
+	 * 
+	 * @return the ID of the new image
+	 */
+	int createImage(PixelData data);
+
+	/**
+	 * Obtains the pixels of an image.
+	 * 
+	 * @param imageID the ID of the image, or 0 for the current image
+	 * @return the pixels, or null if there is no such image
+	 */
+	PixelData getPixelData(int imageID);
+
+	/**
+	 * Redirects {@code ij.IJ.log()}.
+	 * 
+	 * @param capture the capture, or null to restore the default output
+	 */
+	void setLogCapture(LogCapture capture);
+
+	/**
+	 * Obtains the columns of a results table.
+	 * 
+	 * @param title the title of the table, or null for the system results table
+	 * @return the columns, or null if there is no such table
+	 */
+	TableData getResultsTable(String title);
+}
@@ -29,8 +29,6 @@
 
 package net.imagej.patcher;
 
-import ij.ImagePlus;
-
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -43,6 +41,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * A special purpose class loader to encapsulate ImageJ 1.x "instances" from
@@ -72,15 +72,47 @@ public class LegacyClassLoader extends URLClassLoader {
 	 * Patched class bytes pre-registered by {@link CodeHacker} to be defined
 	 * when first requested, avoiding the need to call {@code ClassLoader.defineClass()}
 	 * via reflection (which is blocked by Java 17+'s strong encapsulation).
+	 * <p>
+	 * NB: This class loader is parallel capable, therefore the patched classes
+	 * can be registered and requested concurrently.
+	 * </p>
+	 */
+	private final Map<String, byte[]> patchedClasses =
+		new ConcurrentHashMap<>();
+
+	/**
+	 * Recipes producing patched class bytes, registered by {@link CodeHacker} in
+	 * lazy mode, to be run only when the class is first requested.
 	 */
-	private final Map<String, byte[]> patchedClasses = new HashMap<>();
+	private final Map<String, Supplier<byte[]>> lazilyPatchedClasses =
+		new ConcurrentHashMap<>();
 
 	static {
+		registerAsParallelCapable();
+
 		sharedClasses = new HashMap<String, Class<?>>();
 		sharedClasses.put(LegacyHooks.class.getName(), LegacyHooks.class);
 		for (final Class<?> clazz : LegacyHooks.class.getClasses()) {
 			sharedClasses.put(clazz.getName(), clazz);
 		}
+		sharedClasses.put(PluginClassPathIndex.class.getName(),
+			PluginClassPathIndex.class);
+		sharedClasses.put(PluginsConfigIndex.class.getName(),
+			PluginsConfigIndex.class);
+		sharedClasses.put(ClassDirectoryIndex.class.getName(),
+			ClassDirectoryIndex.class);
+		sharedClasses.put(LegacyBridge.class.getName(), LegacyBridge.class);
+		sharedClasses.put(PixelData.class.getName(), PixelData.class);
+		sharedClasses.put(TableData.class.getName(), TableData.class);
+		sharedClasses.put(LogCapture.class.getName(), LogCapture.class);
+		sharedClasses.put(ProgressDispatcher.class.getName(),
+			ProgressDispatcher.class);
+		sharedClasses.put(ImageRegistrations.class.getName(),
+			ImageRegistrations.class);
+		sharedClasses.put(InstrumentedLegacyHooks.class.getName(),
+			InstrumentedLegacyHooks.class);
+		sharedClasses.put(HookMetrics.class.getName(), HookMetrics.class);
+		sharedClasses.put(HookMetricsMBean.class.getName(), HookMetricsMBean.class);
 		// NB: EssentialLegacyHooks and HeadlessGenericDialog are intentionally
 		// stored by name only. Referencing their Class<?> objects here would
 		// eagerly load them into the system classloader, which would prevent
@@ -127,11 +159,34 @@ public class LegacyClassLoader extends URLClassLoader {
 		patchedClasses.put(name, bytes);
 	}
 
+	/**
+	 * Pre-registers a recipe for patched bytecode that is run only when the
+	 * class is first loaded via {@link #findClass}.
+	 */
+	void storePatchedClass(final String name, final Supplier<byte[]> recipe) {
+		lazilyPatchedClasses.put(name, recipe);
+	}
+
 	@Override
 	public Class<?> findClass(final String className)
 		throws ClassNotFoundException
 	{
-		final byte[] patched = patchedClasses.remove(className);
+		// NB: loadClass() holds this lock already, but findClass() is public
+		synchronized (getClassLoadingLock(className)) {
+			final Class<?> loaded = findLoadedClass(className);
+			if (loaded != null) return loaded;
+			return findClassLocked(className);
+		}
+	}
+
+	private Class<?> findClassLocked(final String className)
+		throws ClassNotFoundException
+	{
+		byte[] patched = patchedClasses.remove(className);
+		if (patched == null) {
+			final Supplier<byte[]> recipe = lazilyPatchedClasses.remove(className);
+			if (recipe != null) patched = recipe.get();
+		}
 		if (patched != null) {
 			return defineClass(className, patched, 0, patched.length);
 		}
@@ -164,21 +219,19 @@ public class LegacyClassLoader extends URLClassLoader {
 	}
 
 	private static ClassLoader determineParent() {
+		// NB: do not load ij.IJ, lest it cannot be patched in the system class loader
 		ClassLoader loader = ClassLoader.getSystemClassLoader();
-		for (;;) try {
-			if (loader.loadClass("ij.IJ") == null) {
-				return loader;
-			}
+		while (loader.getResource("ij/IJ.class") != null) {
 			loader = loader.getParent();
 			if (loader == null) {
 				throw new RuntimeException("Cannot find bootstrap class loader");
 			}
-		} catch (ClassNotFoundException e) {
-			return loader;
 		}
+		return loader;
 	}
 
 	private static URL[] getImageJ1Jar() {
-		return new URL[] { Utils.getLocation(ImagePlus.class) };
+		return new URL[] { Utils.getLocation(LegacyClassLoader.class
+			.getClassLoader(), "ij.ImagePlus") };
 	}
 }
@@ -36,10 +36,18 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URLClassLoader;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import net.imagej.patcher.LegacyInjector.Callback;
 
@@ -59,8 +67,11 @@ public class LegacyEnvironment {
 	final private LegacyInjector injector;
 	private Throwable initializationStackTrace;
 	private ClassLoader loader;
-	private Method setOptions, run, runMacro, runPlugIn, main;
+	private Class<?> ij;
+	private LegacyBridge bridge;
 	private Field _hooks;
+	private int asyncQueueCapacity = Integer.MAX_VALUE;
+	private ThreadPoolExecutor executor;
 
 	/**
 	 * Constructs a new legacy environment.
@@ -88,6 +99,11 @@ public class LegacyEnvironment {
 		this.injector = injector;
 	}
 
+	/** Whether the headless patches are applied. */
+	boolean isHeadless() {
+		return headless;
+	}
+
 	private boolean isInitialized() {
 		return _hooks != null;
 	}
@@ -98,15 +114,9 @@ public class LegacyEnvironment {
 		try {
 			this.loader = loader != null ? loader : new LegacyClassLoader();
 			injector.injectHooks(loader, headless);
-			final Class<?> ij = this.loader.loadClass("ij.IJ");
-			final Class<?> imagej = this.loader.loadClass("ij.ImageJ");
-			final Class<?> macro = this.loader.loadClass("ij.Macro");
+			ij = this.loader.loadClass("ij.IJ");
+			bridge = newBridge(this.loader);
 			_hooks = ij.getField("_hooks");
-			setOptions = macro.getMethod("setOptions", String.class);
-			run = ij.getMethod("run", String.class, String.class);
-			runMacro = ij.getMethod("runMacro", String.class, String.class);
-			runPlugIn = ij.getMethod("runPlugIn", String.class, String.class);
-			main = imagej.getMethod("main", String[].class);
 		}
 		catch (final Exception e) {
 			throw new RuntimeException("Found incompatible ImageJ class", e);
@@ -146,14 +156,14 @@ public class LegacyEnvironment {
 	 */
 	public void disableIJ1PluginDirs() {
 		ensureUninitialized();
-		injector.after.add(new Callback() {
+		injector.after.add(injector.describe("disableIJ1PluginDirs", new Callback() {
 
 			@Override
 			public void call(final CodeHacker hacker) {
 				hacker.insertAtBottomOfMethod(ESSENTIAL_LEGACY_HOOKS_CLASS,
 					"public <init>()", "enableIJ1PluginDirs(false);");
 			}
-		});
+		}));
 	}
 
 	/**
@@ -172,7 +182,7 @@ public class LegacyEnvironment {
 	 */
 	public void disableInitializer() {
 		ensureUninitialized();
-		injector.after.add(new Callback() {
+		injector.after.add(injector.describe("disableInitializer", new Callback() {
 
 			@Override
 			public void call(final CodeHacker hacker) {
@@ -180,7 +190,7 @@ public class LegacyEnvironment {
 					"public void initialized()", ESSENTIAL_LEGACY_HOOKS_CLASS,
 					"runInitializer", "");
 			}
-		});
+		}));
 	}
 
 	/**
@@ -221,13 +231,13 @@ public class LegacyEnvironment {
 	 */
 	public void noPluginClassLoader() {
 		ensureUninitialized();
-		injector.after.add(new Callback() {
+		injector.after.add(injector.describe("noPluginClassLoader", new Callback() {
 
 			@Override
 			public void call(final CodeHacker hacker) {
 				LegacyExtensions.noPluginClassLoader(hacker);
 			}
-		});
+		}));
 	}
 
 	/**
@@ -241,13 +251,13 @@ public class LegacyEnvironment {
 	 */
 	public void suppressIJ1ScriptDiscovery() {
 		ensureUninitialized();
-		injector.after.add(new Callback() {
+		injector.after.add(injector.describe("suppressIJ1ScriptDiscovery", new Callback() {
 
 			@Override
 			public void call(final CodeHacker hacker) {
 				LegacyExtensions.suppressIJ1ScriptDiscovery(hacker);
 			}
-		});
+		}));
 	}
 
 	/**
@@ -317,14 +327,15 @@ public class LegacyEnvironment {
 				.append("\"));");
 		}
 
-		injector.after.add(new Callback() {
+		injector.after.add(injector.describe("addPluginClasspath " + builder,
+			new Callback() {
 
 			@Override
 			public void call(final CodeHacker hacker) {
 				hacker.insertAtBottomOfMethod(ESSENTIAL_LEGACY_HOOKS_CLASS,
 					"public <init>()", builder.toString());
 			}
-		});
+		}));
 	}
 
 	/**
@@ -344,12 +355,7 @@ public class LegacyEnvironment {
 	 */
 	public void setMacroOptions(final String options) {
 		initialize();
-		try {
-			setOptions.invoke(null, options);
-		}
-		catch (final Exception e) {
-			throw new RuntimeException(e);
-		}
+		bridge.setMacroOptions(options);
 	}
 
 	/**
@@ -362,15 +368,15 @@ public class LegacyEnvironment {
 		initialize();
 		final Thread thread = Thread.currentThread();
 		final ClassLoader savedLoader = thread.getContextClassLoader();
-		thread.setContextClassLoader(loader);
+		if (savedLoader != loader) thread.setContextClassLoader(loader);
 		try {
-			run.invoke(null, command, options);
+			bridge.run(command, options);
 		}
-		catch (final Exception e) {
-			throw new RuntimeException(errorMessage(run, e), e);
+		catch (final Throwable t) {
+			throw new RuntimeException(errorMessage(t), t);
 		}
 		finally {
-			thread.setContextClassLoader(savedLoader);
+			if (savedLoader != loader) thread.setContextClassLoader(savedLoader);
 		}
 	}
 
@@ -382,21 +388,31 @@ public class LegacyEnvironment {
 	 *          via {@code getArgument()})
 	 */
 	public void runMacro(final String macro, final String arg) {
+		evalMacro(macro, arg);
+	}
+
+	/**
+	 * Runs {@code IJ.runMacro(macro, arg)} in the legacy environment.
+	 * 
+	 * @return the value returned by the macro, or {@code "[aborted]"}
+	 */
+	String evalMacro(final String macro, final String arg) {
 		initialize();
 		final Thread thread = Thread.currentThread();
 		final String savedName = thread.getName();
-		thread.setName("Run$_" + savedName);
+		final boolean rename = !savedName.startsWith("Run$_");
+		if (rename) thread.setName("Run$_" + savedName);
 		final ClassLoader savedLoader = thread.getContextClassLoader();
-		thread.setContextClassLoader(loader);
+		if (savedLoader != loader) thread.setContextClassLoader(loader);
 		try {
-			runMacro.invoke(null, macro, arg);
+			return bridge.runMacro(macro, arg);
 		}
-		catch (final Exception e) {
-			throw new RuntimeException(errorMessage(runMacro, e), e);
+		catch (final Throwable t) {
+			throw new RuntimeException(errorMessage(t), t);
 		}
 		finally {
-			thread.setName(savedName);
-			thread.setContextClassLoader(savedLoader);
+			if (rename) thread.setName(savedName);
+			if (savedLoader != loader) thread.setContextClassLoader(savedLoader);
 		}
 	}
 
@@ -411,18 +427,19 @@ public class LegacyEnvironment {
 		initialize();
 		final Thread thread = Thread.currentThread();
 		final String savedName = thread.getName();
-		thread.setName("Run$_" + savedName);
+		final boolean rename = !savedName.startsWith("Run$_");
+		if (rename) thread.setName("Run$_" + savedName);
 		final ClassLoader savedLoader = thread.getContextClassLoader();
-		thread.setContextClassLoader(loader);
+		if (savedLoader != loader) thread.setContextClassLoader(loader);
 		try {
-			return runPlugIn.invoke(null, className, arg);
+			return bridge.runPlugIn(className, arg);
 		}
-		catch (final Exception e) {
-			throw new RuntimeException(errorMessage(runPlugIn, e), e);
+		catch (final Throwable t) {
+			throw new RuntimeException(errorMessage(t), t);
 		}
 		finally {
-			thread.setName(savedName);
-			thread.setContextClassLoader(savedLoader);
+			if (rename) thread.setName(savedName);
+			if (savedLoader != loader) thread.setContextClassLoader(savedLoader);
 		}
 	}
 
@@ -434,12 +451,228 @@ public class LegacyEnvironment {
 	public void main(final String... args) {
 		initialize();
 		Thread.currentThread().setContextClassLoader(loader);
+		bridge.main(args);
+	}
+
+	/**
+	 * Makes an image available to ImageJ 1.x without copying its pixels.
+	 * <p>
+	 * A new {@code ij.ImagePlus} is constructed around the pixel arrays and
+	 * becomes the current image. Changes made by ImageJ 1.x are therefore
+	 * visible in the caller's arrays, and vice versa.
+	 * </p>
+	 * <p>
+	 * An image window is opened only if the ImageJ 1.x GUI is running outside
+	 * of batch mode. Otherwise, the environment is switched to batch mode (as
+	 * with {@code setBatchMode(true)} in a macro), so that the image is
+	 * registered without being displayed.
+	 * </p>
+	 * 
+	 * @param data the pixels and metadata
+	 * @return the ID of the new image, e.g. for use with
+	 *         {@code selectImage(id)} in macros
+	 */
+	public int createImage(final PixelData data) {
+		initialize();
+		return bridge.createImage(data);
+	}
+
+	/**
+	 * Obtains the pixels and metadata of an image without copying them.
+	 * <p>
+	 * The pixel arrays are those of the image; they stay shared until ImageJ 1.x
+	 * replaces them (e.g. when the image is converted to a different type).
+	 * Virtual stacks are loaded into memory.
+	 * </p>
+	 * 
+	 * @param imageID the ID of the image, or 0 for the current image
+	 * @return the pixels, or {@code null} if there is no such image
+	 */
+	public PixelData getPixelData(final int imageID) {
+		initialize();
+		return bridge.getPixelData(imageID);
+	}
+
+	/**
+	 * Redirects the output of {@code ij.IJ.log()} in this legacy environment.
+	 * <p>
+	 * By default, headless ImageJ 1.x prints log messages to {@link System#out}
+	 * (and ImageJ 1.x with a GUI shows them in the Log window). With a capture
+	 * installed, the messages go only to the capture; see {@link LogCapture}
+	 * for the options.
+	 * </p>
+	 * 
+	 * @param capture the capture, or {@code null} to restore the default output
+	 */
+	public void setLogCapture(final LogCapture capture) {
+		initialize();
+		bridge.setLogCapture(capture);
+	}
+
+	/**
+	 * Obtains the columns of a results table.
+	 * <p>
+	 * The values are returned as typed arrays rather than being formatted as
+	 * text: one {@code double[]} per column, plus the row labels and any cells
+	 * holding text as {@code String[]}s. In headless mode, tables are never
+	 * shown in a {@code TextWindow}; they are only remembered by their title.
+	 * </p>
+	 * 
+	 * @param title the title of the table, or {@code null} for the system
+	 *          results table
+	 * @return the columns, or {@code null} if there is no such table
+	 */
+	public TableData getResultsTable(final String title) {
+		initialize();
+		return bridge.getResultsTable(title);
+	}
+
+	/**
+	 * Runs {@code IJ.run(command, options)} in the legacy environment,
+	 * asynchronously.
+	 * <p>
+	 * The asynchronous calls into a given legacy environment are executed one
+	 * after the other, in a thread dedicated to that environment.
+	 * </p>
+	 * 
+	 * @param command the command to run
+	 * @param options the options to pass to the command
+	 * @return the future, completed exceptionally with a
+	 *         {@link RejectedExecutionException} if too many calls are pending
+	 *         (see {@link #setAsyncQueueCapacity(int)})
+	 */
+	public CompletableFuture<Void> runAsync(final String command,
+		final String options)
+	{
+		return submit(new Callable<Void>() {
+
+			@Override
+			public Void call() {
+				run(command, options);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Runs {@code IJ.runMacro(macro, arg)} in the legacy environment,
+	 * asynchronously.
+	 * 
+	 * @param macro the macro code to run
+	 * @param arg an optional argument (which can be retrieved in the macro code
+	 *          via {@code getArgument()})
+	 * @return the future
+	 * @see #runAsync(String, String)
+	 */
+	public CompletableFuture<Void> runMacroAsync(final String macro,
+		final String arg)
+	{
+		return submit(new Callable<Void>() {
+
+			@Override
+			public Void call() {
+				runMacro(macro, arg);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Runs {@code IJ.runPlugIn(className, arg)} in the legacy environment,
+	 * asynchronously.
+	 * 
+	 * @param className the plugin class to run
+	 * @param arg an optional argument (which get passed to the {@code run()} or
+	 *          {@code setup()} method of the plugin)
+	 * @return the future
+	 * @see #runAsync(String, String)
+	 */
+	public CompletableFuture<Object> runPlugInAsync(final String className,
+		final String arg)
+	{
+		return submit(new Callable<Object>() {
+
+			@Override
+			public Object call() {
+				return runPlugIn(className, arg);
+			}
+		});
+	}
+
+	/**
+	 * Limits the number of asynchronous calls waiting to be executed.
+	 * <p>
+	 * Once the limit is reached, further asynchronous calls are rejected
+	 * immediately rather than blocking the caller, so that the caller can decide
+	 * whether to retry later, to fail the request or to use a different legacy
+	 * environment. By default, the number of pending calls is unlimited.
+	 * </p>
+	 * 
+	 * @param capacity the maximal number of pending calls, not counting the one
+	 *          currently executing
+	 */
+	public synchronized void setAsyncQueueCapacity(final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		if (executor != null) {
+			throw new IllegalStateException("Asynchronous calls were already made");
+		}
+		asyncQueueCapacity = capacity;
+	}
+
+	/**
+	 * Gets the number of asynchronous calls waiting to be executed.
+	 * 
+	 * @return the number of pending calls, not counting the one currently
+	 *         executing
+	 */
+	public synchronized int getAsyncQueueLength() {
+		return executor == null ? 0 : executor.getQueue().size();
+	}
+
+	private <T> CompletableFuture<T> submit(final Callable<T> task) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
 		try {
-			main.invoke(null, (Object) args);
+			getExecutor().execute(new Runnable() {
+
+				@Override
+				public void run() {
+					if (future.isDone()) return; // cancelled
+					try {
+						future.complete(task.call());
+					}
+					catch (final Throwable t) {
+						future.completeExceptionally(t);
+					}
+				}
+			});
 		}
-		catch (final Exception e) {
-			throw new RuntimeException(e);
+		catch (final RejectedExecutionException e) {
+			future.completeExceptionally(e);
 		}
+		return future;
+	}
+
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(asyncQueueCapacity),
+				new ThreadFactory() {
+
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable, "LegacyEnvironment-" +
+							Integer.toHexString(System.identityHashCode(
+								LegacyEnvironment.this)));
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			// do not keep a thread around for idle environments
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
 	}
 
 	/**
@@ -505,6 +738,23 @@ public class LegacyEnvironment {
 		return loader;
 	}
 
+	/**
+	 * Estimates how much memory was freed after patching ImageJ 1.x.
+	 * <p>
+	 * Once the patched classes are defined, the Javassist representations of
+	 * all classes involved are released. The returned value is an estimate
+	 * based on the sizes of the released class files, not a measurement of the
+	 * heap.
+	 * </p>
+	 * 
+	 * @return the estimated number of bytes, or 0 if the patched classes were
+	 *         defined without Javassist (e.g. from the patched class cache)
+	 */
+	public long getReleasedBytesEstimate() {
+		initialize();
+		return injector.getReleasedBytesEstimate();
+	}
+
 	/**
 	 * Gets the ImageJ 1.x menu structure as a map
 	 */
@@ -522,6 +772,28 @@ public class LegacyEnvironment {
 		}
 	}
 
+	/**
+	 * Gets the invocation counts and latencies of the legacy hooks.
+	 * <p>
+	 * The hooks are only instrumented when the system property
+	 * {@value InstrumentedLegacyHooks#METRICS_PROPERTY} is set to {@code true}
+	 * before this legacy environment is initialized.
+	 * </p>
+	 * 
+	 * @return the metrics, or {@code null} if the hooks are not instrumented
+	 */
+	public HookMetrics getHookMetrics() {
+		initialize();
+		try {
+			final Object hooks = _hooks.get(null);
+			return hooks instanceof InstrumentedLegacyHooks
+				? ((InstrumentedLegacyHooks) hooks).getMetrics() : null;
+		}
+		catch (final IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Launches a fully-patched, self-contained ImageJ.
 	 * 
@@ -572,20 +844,17 @@ public class LegacyEnvironment {
 	 * tries to use reflection to extract the error message without altering it.
 	 * </p>
 	 * 
-	 * @param m The method whose execution triggered the exception.
 	 * @param t The exception from which to extract the error message.
 	 * @return The extracted error message, or null if it could not be extracted.
 	 */
-	private static String errorMessage(final Method m, final Throwable t) {
+	private String errorMessage(final Throwable t) {
 		if (t == null) return null;
 		final Throwable cause = t.getCause();
-		if (cause != null) return errorMessage(m, cause);
+		if (cause != null) return errorMessage(cause);
 		if (t.getClass() != RuntimeException.class) return null;
 		if (!"Macro canceled".equals(t.getMessage())) return null;
-		final Class<?> c = m.getDeclaringClass();
-		if (!"ij.IJ".equals(c.getName())) return null;
 		try {
-			final Field f = c.getDeclaredField("lastErrorMessage");
+			final Field f = ij.getDeclaredField("lastErrorMessage");
 			f.setAccessible(true);
 			final Object value = f.get(null);
 			return value instanceof String ? (String) value : null;
@@ -596,4 +865,271 @@ public class LegacyEnvironment {
 			return null;
 		}
 	}
+
+	/**
+	 * Instantiates the {@link LegacyBridge} generated by the
+	 * {@link LegacyInjector}.
+	 * <p>
+	 * If the ImageJ 1.x classes were patched without it (e.g. by a Java agent,
+	 * which cannot define new classes), the calls are made via reflection
+	 * instead.
+	 * </p>
+	 */
+	private static LegacyBridge newBridge(final ClassLoader loader)
+		throws ReflectiveOperationException
+	{
+		try {
+			return (LegacyBridge) loader.loadClass(
+				LegacyInjector.LEGACY_BRIDGE_CLASS).newInstance();
+		}
+		catch (final ClassNotFoundException e) {
+			return new ReflectionBridge(loader);
+		}
+	}
+
+	/**
+	 * Calls into ImageJ 1.x via reflection, for when the {@link LegacyBridge}
+	 * could not be generated.
+	 */
+	static class ReflectionBridge implements LegacyBridge {
+
+		private final ClassLoader loader;
+		private final Method setOptions, run, runMacro, runPlugIn, main;
+		/** {@code ij.IJ._logCapture}, or null if ImageJ 1.x was not patched. */
+		private final Field logCapture;
+
+		ReflectionBridge(final ClassLoader loader)
+			throws ReflectiveOperationException
+		{
+			this.loader = loader;
+			final Class<?> ij = loader.loadClass("ij.IJ");
+			final Class<?> imagej = loader.loadClass("ij.ImageJ");
+			final Class<?> macro = loader.loadClass("ij.Macro");
+			setOptions = macro.getMethod("setOptions", String.class);
+			run = ij.getMethod("run", String.class, String.class);
+			runMacro = ij.getMethod("runMacro", String.class, String.class);
+			runPlugIn = ij.getMethod("runPlugIn", String.class, String.class);
+			main = imagej.getMethod("main", String[].class);
+			Field field = null;
+			try {
+				field = ij.getField("_logCapture");
+			}
+			catch (final NoSuchFieldException e) {
+				// not patched by us
+			}
+			logCapture = field;
+		}
+
+		@Override
+		public void setMacroOptions(final String options) {
+			invoke(setOptions, options);
+		}
+
+		@Override
+		public void run(final String command, final String options) {
+			invoke(run, command, options);
+		}
+
+		@Override
+		public String runMacro(final String macro, final String arg) {
+			return (String) invoke(runMacro, macro, arg);
+		}
+
+		@Override
+		public Object runPlugIn(final String className, final String arg) {
+			return invoke(runPlugIn, className, arg);
+		}
+
+		@Override
+		public void main(final String[] args) {
+			invoke(main, (Object) args);
+		}
+
+		@Override
+		public int createImage(final PixelData data) {
+			try {
+				final Class<?> stackClass = loader.loadClass("ij.ImageStack");
+				final Object stack =
+					stackClass.getConstructor(int.class, int.class).newInstance(
+						data.getWidth(), data.getHeight());
+				final Method addSlice =
+					stackClass.getMethod("addSlice", String.class, Object.class);
+				for (final Object plane : data.getPlanes()) {
+					invokeOn(addSlice, stack, null, plane);
+				}
+				final Class<?> imageClass = loader.loadClass("ij.ImagePlus");
+				final Object image =
+					imageClass.getConstructor(String.class, stackClass).newInstance(
+						data.getTitle(), stack);
+				invokeOn(imageClass.getMethod("setDimensions", int.class, int.class,
+					int.class), image, data.getChannels(), data.getSlices(), data
+					.getFrames());
+				if ((Integer) call(image, "getNDimensions") > 3) {
+					invokeOn(imageClass.getMethod("setOpenAsHyperStack", boolean.class),
+						image, true);
+				}
+				final Object calibration = call(image, "getCalibration");
+				final Class<?> calibrationClass = calibration.getClass();
+				calibrationClass.getField("pixelWidth").setDouble(calibration,
+					data.getPixelWidth());
+				calibrationClass.getField("pixelHeight").setDouble(calibration,
+					data.getPixelHeight());
+				calibrationClass.getField("pixelDepth").setDouble(calibration,
+					data.getPixelDepth());
+				invokeOn(calibrationClass.getMethod("setUnit", String.class),
+					calibration, data.getUnit());
+				// without the ImageJ 1.x GUI, register the image without a window
+				final Class<?> interpreter = loader.loadClass("ij.macro.Interpreter");
+				if (invoke(loader.loadClass("ij.IJ").getMethod("getInstance")) == null &&
+					!(Boolean) invoke(interpreter.getMethod("isBatchMode")))
+				{
+					interpreter.getField("batchMode").setBoolean(null, true);
+				}
+				call(image, "show");
+				return (Integer) call(image, "getID");
+			}
+			catch (final InvocationTargetException e) {
+				throw rethrow(e);
+			}
+			catch (final ReflectiveOperationException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public PixelData getPixelData(final int imageID) {
+			try {
+				final Class<?> windowManager = loader.loadClass("ij.WindowManager");
+				final Object image = imageID == 0 ? invoke(windowManager
+					.getMethod("getCurrentImage")) : invoke(windowManager.getMethod(
+					"getImage", int.class), imageID);
+				if (image == null) return null;
+				final Object stack = call(image, "getStack");
+				final Method getPixels =
+					stack.getClass().getMethod("getPixels", int.class);
+				final Object[] planes = new Object[(Integer) call(stack, "getSize")];
+				for (int i = 0; i < planes.length; i++) {
+					planes[i] = invokeOn(getPixels, stack, i + 1);
+				}
+				final PixelData data =
+					new PixelData((String) call(image, "getTitle"), (Integer) call(image,
+						"getWidth"), (Integer) call(image, "getHeight"), planes);
+				data.setDimensions((Integer) call(image, "getNChannels"),
+					(Integer) call(image, "getNSlices"), (Integer) call(image,
+						"getNFrames"));
+				final Object calibration = call(image, "getCalibration");
+				final Class<?> calibrationClass = calibration.getClass();
+				data.setCalibration(calibrationClass.getField("pixelWidth").getDouble(
+					calibration), calibrationClass.getField("pixelHeight").getDouble(
+					calibration), calibrationClass.getField("pixelDepth").getDouble(
+					calibration), (String) call(calibration, "getUnit"));
+				return data;
+			}
+			catch (final ReflectiveOperationException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void setLogCapture(final LogCapture capture) {
+			if (logCapture == null) {
+				throw new UnsupportedOperationException(
+					"ImageJ 1.x was not patched to capture the log");
+			}
+			try {
+				logCapture.set(null, capture);
+			}
+			catch (final IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public TableData getResultsTable(final String title) {
+			try {
+				final Class<?> tableClass =
+					loader.loadClass("ij.measure.ResultsTable");
+				final Object table = title == null ? invoke(tableClass
+					.getMethod("getResultsTable")) : invoke(tableClass.getMethod(
+					"getResultsTable", String.class), title);
+				if (table == null) return null;
+				final int size = (Integer) call(table, "size");
+				final TableData data =
+					new TableData((String) call(table, "getTitle"), size);
+				final Method columnExists =
+					tableClass.getMethod("columnExists", int.class);
+				final Method getColumnAsDoubles =
+					tableClass.getMethod("getColumnAsDoubles", int.class);
+				final Method getStringValue =
+					tableClass.getMethod("getStringValue", int.class, int.class);
+				final Method getColumnHeading =
+					tableClass.getMethod("getColumnHeading", int.class);
+				final int last = (Integer) call(table, "getLastColumn");
+				for (int column = 0; column <= last; column++) {
+					if (!(Boolean) invokeOn(columnExists, table, column)) continue;
+					double[] values =
+						(double[]) invokeOn(getColumnAsDoubles, table, column);
+					if (values == null) values = new double[size];
+					// only NaN cells can hold text, no need to format the others
+					String[] text = null;
+					for (int row = 0; row < size; row++) {
+						if (!Double.isNaN(values[row])) continue;
+						final String value =
+							(String) invokeOn(getStringValue, table, column, row);
+						if (value == null || "NaN".equals(value)) continue;
+						if (text == null) text = new String[size];
+						text[row] = value;
+					}
+					data.addColumn((String) invokeOn(getColumnHeading, table, column),
+						values, text);
+				}
+				final Method getLabel = tableClass.getMethod("getLabel", int.class);
+				if (size > 0 && invokeOn(getLabel, table, 0) != null) {
+					final String[] labels = new String[size];
+					for (int row = 0; row < size; row++) {
+						labels[row] = (String) invokeOn(getLabel, table, row);
+					}
+					data.setLabels(labels);
+				}
+				return data;
+			}
+			catch (final ReflectiveOperationException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private static Object invoke(final Method method, final Object... args) {
+			return invokeOn(method, null, args);
+		}
+
+		private static Object invokeOn(final Method method, final Object object,
+			final Object... args)
+		{
+			try {
+				return method.invoke(object, args);
+			}
+			catch (final InvocationTargetException e) {
+				throw rethrow(e);
+			}
+			catch (final IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		/** Calls a public method without parameters. */
+		private static Object call(final Object object, final String methodName)
+			throws NoSuchMethodException
+		{
+			return invokeOn(object.getClass().getMethod(methodName), object);
+		}
+
+		private static RuntimeException rethrow(
+			final InvocationTargetException e)
+		{
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
 }
@@ -0,0 +1,397 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import java.awt.Window;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a number of initialized ImageJ 1.x instances ready for use.
+ * <p>
+ * Creating a {@link LegacyEnvironment} is expensive: ImageJ 1.x needs to be
+ * patched, initialized and its menus parsed, not to mention that the JIT
+ * compiler needs to warm up. When many short-running, independent jobs (such as
+ * untrusted macros) need to be executed in isolation, it therefore makes sense
+ * to reuse the environments.
+ * </p>
+ * <p>
+ * A job checks out an environment via {@link #checkOut()} and returns it via
+ * {@link #checkIn(LegacyEnvironment)}, at which point ImageJ 1.x' static state
+ * is reset: open images and other windows are closed, the results tables are
+ * cleared, the log capture and pending image registrations are dropped, and
+ * macro options as well as batch mode are reset. An environment is evicted
+ * when it was used the configured number of times, or when resetting it
+ * failed; evicted environments are disposed of, and the pool is replenished
+ * in the background.
+ * </p>
+ * <p>
+ * To configure the environments (e.g. via
+ * {@link LegacyEnvironment#disableIJ1PluginDirs()}), override
+ * {@link #newEnvironment()}.
+ * </p>
+ */
+public class LegacyEnvironmentPool {
+
+	private final int size;
+	private final int maxUses;
+	private final boolean headless;
+	private final Deque<LegacyEnvironment> idle =
+		new ArrayDeque<LegacyEnvironment>();
+	/** The members of this pool, idle or checked out, and their use counts. */
+	private final Map<LegacyEnvironment, Integer> uses =
+		new IdentityHashMap<LegacyEnvironment, Integer>();
+	private int pending;
+	private boolean closed;
+
+	/**
+	 * Constructs a new pool.
+	 * <p>
+	 * No environment is initialized yet; call {@link #fill()} to do so.
+	 * </p>
+	 * 
+	 * @param size the number of environments to keep
+	 * @param maxUses the number of times an environment may be checked out
+	 *          before it is evicted, or {@code 0} for no limit
+	 * @param headless whether to patch in support for headless operation
+	 */
+	public LegacyEnvironmentPool(final int size, final int maxUses,
+		final boolean headless)
+	{
+		if (size < 0) throw new IllegalArgumentException("Invalid size: " + size);
+		this.size = size;
+		this.maxUses = maxUses;
+		this.headless = headless;
+	}
+
+	/**
+	 * Creates a new, uninitialized environment.
+	 * <p>
+	 * Override this method to configure the pooled environments.
+	 * </p>
+	 * 
+	 * @return the environment
+	 * @throws ClassNotFoundException
+	 */
+	protected LegacyEnvironment newEnvironment() throws ClassNotFoundException {
+		return new LegacyEnvironment(null, headless);
+	}
+
+	/**
+	 * Initializes ImageJ 1.x in a newly-created environment.
+	 * 
+	 * @param environment the environment
+	 */
+	protected void warmUp(final LegacyEnvironment environment) {
+		environment.newImageJ1(true);
+		environment.runMacro("", "");
+	}
+
+	/**
+	 * Fills the pool, initializing environments in the calling thread.
+	 * 
+	 * @throws ClassNotFoundException
+	 */
+	public void fill() throws ClassNotFoundException {
+		for (;;) {
+			synchronized (this) {
+				if (closed || uses.size() + pending >= size) return;
+				pending++;
+			}
+			LegacyEnvironment environment = null;
+			boolean added = false;
+			try {
+				environment = create();
+			}
+			finally {
+				synchronized (this) {
+					pending--;
+					if (environment != null) added = add(environment);
+				}
+				if (environment != null && !added) dispose(environment);
+			}
+		}
+	}
+
+	/**
+	 * Obtains an initialized environment.
+	 * <p>
+	 * If no environment is ready, a new one is initialized in the calling thread.
+	 * </p>
+	 * 
+	 * @return the environment, to be returned via
+	 *         {@link #checkIn(LegacyEnvironment)}
+	 * @throws ClassNotFoundException
+	 */
+	public LegacyEnvironment checkOut() throws ClassNotFoundException {
+		LegacyEnvironment environment;
+		synchronized (this) {
+			if (closed) throw new IllegalStateException("Pool was closed");
+			environment = idle.pollFirst();
+		}
+		// NB: when all environments are in use, the pool grows temporarily
+		if (environment == null) environment = create();
+		synchronized (this) {
+			final Integer count = uses.get(environment);
+			uses.put(environment, count == null ? 1 : count + 1);
+		}
+		return environment;
+	}
+
+	/**
+	 * Returns an environment to the pool.
+	 * <p>
+	 * The state of ImageJ 1.x is reset; if that fails, or if the environment has
+	 * been used too often, it is evicted.
+	 * </p>
+	 * 
+	 * @param environment the environment obtained via {@link #checkOut()}
+	 */
+	public void checkIn(final LegacyEnvironment environment) {
+		final Integer count;
+		synchronized (this) {
+			count = uses.get(environment);
+		}
+		if (count == null) {
+			throw new IllegalArgumentException("Not from this pool: " + environment);
+		}
+		boolean reuse = maxUses <= 0 || count < maxUses;
+		if (reuse) try {
+			reset(environment);
+		}
+		catch (final Throwable t) {
+			t.printStackTrace();
+			reuse = false;
+		}
+		synchronized (this) {
+			if (reuse && !closed && uses.size() <= size) idle.addLast(environment);
+			else {
+				uses.remove(environment);
+				reuse = false;
+			}
+		}
+		if (!reuse) dispose(environment);
+		replenish();
+	}
+
+	/**
+	 * Removes an environment from the pool, e.g. when a job left it in an
+	 * unusable state. The environment is disposed of, see
+	 * {@link #dispose(LegacyEnvironment)}.
+	 * 
+	 * @param environment the environment obtained via {@link #checkOut()}
+	 */
+	public void evict(final LegacyEnvironment environment) {
+		synchronized (this) {
+			uses.remove(environment);
+			idle.remove(environment);
+		}
+		dispose(environment);
+		replenish();
+	}
+
+	/**
+	 * Disposes of all idle environments; no environment can be checked out
+	 * afterwards. The environments that are still checked out are disposed of
+	 * when they are returned.
+	 */
+	public void close() {
+		final List<LegacyEnvironment> discarded;
+		synchronized (this) {
+			closed = true;
+			discarded = new ArrayList<LegacyEnvironment>(idle);
+			for (final LegacyEnvironment environment : idle) {
+				uses.remove(environment);
+			}
+			idle.clear();
+		}
+		for (final LegacyEnvironment environment : discarded) {
+			dispose(environment);
+		}
+	}
+
+	/**
+	 * Gets the number of environments that are ready to be checked out.
+	 * 
+	 * @return the number of idle environments
+	 */
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Resets the static state of ImageJ 1.x.
+	 * 
+	 * @param environment the environment to reset
+	 * @throws Exception if the state could not be reset
+	 */
+	protected void reset(final LegacyEnvironment environment) throws Exception {
+		final ClassLoader loader = environment.getClassLoader();
+		environment.setMacroOptions(null);
+
+		// close all images, discarding changes
+		final Class<?> windowManager = loader.loadClass("ij.WindowManager");
+		final Method getImage = windowManager.getMethod("getImage", Integer.TYPE);
+		final int[] ids = (int[]) windowManager.getMethod("getIDList").invoke(null);
+		if (ids != null) for (final int id : ids) {
+			final Object image = getImage.invoke(null, id);
+			if (image == null) continue;
+			final Field changes = image.getClass().getField("changes");
+			changes.setBoolean(image, false);
+			image.getClass().getMethod("close").invoke(image);
+		}
+		final Class<?> imagePlus = loader.loadClass("ij.ImagePlus");
+		windowManager.getMethod("setTempCurrentImage", imagePlus).invoke(null,
+			(Object) null);
+		if (windowManager.getMethod("getIDList").invoke(null) != null) {
+			throw new IllegalStateException("Could not close all images");
+		}
+
+		// close the other windows, without asking to save anything
+		final Window[] windows =
+			(Window[]) windowManager.getMethod("getAllNonImageWindows").invoke(null);
+		final Method removeWindow =
+			windowManager.getMethod("removeWindow", Window.class);
+		if (windows != null) for (final Window window : windows) {
+			removeWindow.invoke(null, window);
+			window.dispose();
+		}
+
+		// leave batch mode
+		final Class<?> interpreter = loader.loadClass("ij.macro.Interpreter");
+		interpreter.getField("batchMode").setBoolean(null, false);
+
+		// clear the results
+		final Class<?> resultsTable = loader.loadClass("ij.measure.ResultsTable");
+		final Object results =
+			resultsTable.getMethod("getResultsTable").invoke(null);
+		if (results != null) resultsTable.getMethod("reset").invoke(results);
+
+		// forget the tables that were shown in headless mode (otherwise, they
+		// are windows, closed above); fail if they cannot be forgotten, so that
+		// the environment is evicted rather than leaking them into the next job
+		if (environment.isHeadless()) {
+			resultsTable.getMethod("_closeHeadless", String.class).invoke(null, "*");
+		}
+
+		// restore the log output, and drop image registrations still pending
+		environment.setLogCapture(null);
+		final Object registrations =
+			loader.loadClass("ij.IJ").getField("_registrations").get(null);
+		if (registrations != null) ((ImageRegistrations) registrations).clear();
+	}
+
+	/**
+	 * Disposes of an environment that is dropped from the pool.
+	 * <p>
+	 * The hooks are replaced and disposed of, which stops the tasks and
+	 * unregisters the MBeans associated with the environment.
+	 * </p>
+	 * 
+	 * @param environment the environment to dispose of
+	 */
+	protected void dispose(final LegacyEnvironment environment) {
+		final Thread thread = Thread.currentThread();
+		final ClassLoader savedLoader = thread.getContextClassLoader();
+		try {
+			final Class<?> ij = environment.getClassLoader().loadClass("ij.IJ");
+			// disposes of the current hooks, installing the essential ones
+			ij.getMethod("_hooks", LegacyHooks.class).invoke(null,
+				(LegacyHooks) null);
+			((LegacyHooks) ij.getField("_hooks").get(null)).dispose();
+		}
+		catch (final Throwable t) {
+			t.printStackTrace();
+		}
+		finally {
+			thread.setContextClassLoader(savedLoader);
+		}
+	}
+
+	private LegacyEnvironment create() throws ClassNotFoundException {
+		// NB: initializing ImageJ 1.x sets the context class loader
+		final Thread thread = Thread.currentThread();
+		final ClassLoader savedLoader = thread.getContextClassLoader();
+		try {
+			final LegacyEnvironment environment = newEnvironment();
+			warmUp(environment);
+			return environment;
+		}
+		finally {
+			thread.setContextClassLoader(savedLoader);
+		}
+	}
+
+	private synchronized boolean add(final LegacyEnvironment environment) {
+		if (closed || uses.size() >= size) return false;
+		uses.put(environment, 0);
+		idle.addLast(environment);
+		return true;
+	}
+
+	/** Replaces evicted environments in the background. */
+	private void replenish() {
+		synchronized (this) {
+			if (closed || uses.size() + pending >= size) return;
+			pending++;
+		}
+		final Thread thread = new Thread("LegacyEnvironmentPool") {
+
+			@Override
+			public void run() {
+				LegacyEnvironment environment = null;
+				boolean added = false;
+				try {
+					environment = create();
+				}
+				catch (final Throwable t) {
+					t.printStackTrace();
+				}
+				finally {
+					synchronized (LegacyEnvironmentPool.this) {
+						pending--;
+						if (environment != null) added = add(environment);
+					}
+				}
+				if (environment != null && !added) dispose(environment);
+				// NB: do not retry in a tight loop when initialization fails
+				if (environment != null) replenish();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
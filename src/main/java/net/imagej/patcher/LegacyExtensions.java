@@ -448,13 +448,7 @@ class LegacyExtensions {
 		hacker.insertAtTopOfMethod("ij.ImageJ", "public <init>(java.applet.Applet applet, int mode)",
 				"if ($2 != 2 /* ij.ImageJ.NO_SHOW */) setIcon();");
 		hacker.insertAtTopOfMethod("ij.WindowManager", "public void addWindow(java.awt.Frame window)",
-			"java.net.URL _iconURL = " + icon + ";\n"
-			+ "if (_iconURL != null && $1 != null) {"
-			+ "  java.awt.Image img = $1.createImage((java.awt.image.ImageProducer)_iconURL.getContent());"
-			+ "  if (img != null) {"
-			+ "    $1.setIconImage(img);"
-			+ "  }"
-			+ "}");
+			LegacyInjector.ESSENTIAL_LEGACY_HOOKS_CLASS + ".setIconImage(" + icon + ", $1);");
 	}
 
 	/**
@@ -487,6 +481,17 @@ class LegacyExtensions {
 			"  if (config.exists()) return new java.io.FileInputStream(config);" +
 			"  return ij.IJ._hooks.autoGenerateConfigFile(isDir);" +
 			"}");
+		// only open the .jar files whose menu entries are not known yet
+		final String index =
+			"net.imagej.patcher.PluginsConfigIndex.getDefault($0.getClass())";
+		hacker.insertAtTopOfMethod("ij.Menus",
+			"InputStream getConfigurationFile(java.lang.String jar)",
+			"if (" + index + ".contains($1)) return " + index + ".get($1);");
+		hacker.insertAtBottomOfMethod("ij.Menus",
+			"InputStream getConfigurationFile(java.lang.String jar)",
+			"$_ = " + index + ".put($1, $_);");
+		hacker.insertAtBottomOfMethod("ij.Menus", "void installJarPlugins()",
+			index + ".save();");
 		// fix overzealous assumption that all plugins are in plugins.dir
 		hacker.insertPrivateStaticField("ij.Menus", Set.class, "_extraJars");
 		hacker.insertAtTopOfMethod("ij.Menus",
@@ -508,14 +513,7 @@ class LegacyExtensions {
 		// exclude -sources.jar entries generated by Maven.
 		hacker.insertAtBottomOfMethod("ij.Menus",
 				"public static synchronized java.lang.String[] getPlugins()",
-				"if (jarFiles != null) {" +
-				"  for (int i = jarFiles.size() - 1; i >= 0; i--) {" +
-				"    String entry = (String) jarFiles.elementAt(i);" +
-				"    if (entry.endsWith(\"-sources.jar\")) {" +
-				"      jarFiles.remove(i);" +
-				"    }" +
-				"  }" +
-				"}");
+				LegacyInjector.ESSENTIAL_LEGACY_HOOKS_CLASS + ".removeSourcesJars(jarFiles);");
 		// force IJ.getClassLoader() to instantiate a PluginClassLoader
 		hacker.replaceCallInMethod(
 				"ij.IJ",
@@ -535,26 +533,15 @@ class LegacyExtensions {
 	}
 
 	private static void overrideStartupMacrosForFiji(CodeHacker hacker) {
+		final String path = LegacyInjector.ESSENTIAL_LEGACY_HOOKS_CLASS + ".startupMacrosPath($1)";
 		hacker.replaceCallInMethod("ij.Menus", "void installStartupMacroSet()", "java.io.File", "<init>",
-				"if ($1.endsWith(\"StartupMacros.txt\")) {" +
-				" java.lang.String fijiPath = $1.substring(0, $1.length() - 3) + \"fiji.ijm\";" +
-				" java.io.File fijiFile = new java.io.File(fijiPath);" +
-				" $_ = fijiFile.exists() ? fijiFile : new java.io.File($1);" +
-				"} else $_ = new java.io.File($1);");
+				"$_ = new java.io.File(" + path + ");");
 		if (hacker.hasMethod("ij.plugin.MacroInstaller", "public void installStartupMacros(java.lang.String path)")) {
 			hacker.replaceCallInMethod("ij.plugin.MacroInstaller", "public void installStartupMacros(java.lang.String path)", "ij.plugin.MacroInstaller", "installFile",
-					"if ($1.endsWith(\"StartupMacros.txt\")) {" +
-					" java.lang.String fijiPath = $1.substring(0, $1.length() - 3) + \"fiji.ijm\";" +
-					" java.io.File fijiFile = new java.io.File(fijiPath);" +
-					" $0.installFile(fijiFile.exists() ? fijiFile.getPath() : $1);" +
-					"} else $0.installFile($1);");
+					"$0.installFile(" + path + ");");
 		} else {
 			hacker.replaceCallInMethod("ij.Menus", "void installStartupMacroSet()", "ij.plugin.MacroInstaller", "installFile",
-				"if ($1.endsWith(\"StartupMacros.txt\")) {" +
-				" java.lang.String fijiPath = $1.substring(0, $1.length() - 3) + \"fiji.ijm\";" +
-				" java.io.File fijiFile = new java.io.File(fijiPath);" +
-				" $0.installFile(fijiFile.exists() ? fijiFile.getPath() : $1);" +
-				"} else $0.installFile($1);");
+				"$0.installFile(" + path + ");");
 		}
 	}
 
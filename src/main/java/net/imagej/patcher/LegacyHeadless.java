@@ -29,6 +29,8 @@
 
 package net.imagej.patcher;
 
+import java.lang.reflect.Modifier;
+import java.util.Map;
 
 /**
  * Limited headless support for ImageJ 1.x.
@@ -100,6 +102,52 @@ class LegacyHeadless  {
 			"java.awt.Panel makeButtonPanel(ij.plugin.filter.SetScaleDialog gd)",
 			"return null;");
 
+		// Do not format results tables for a TextWindow nobody will see;
+		// remember them by title so that getResultsTable(title) finds them.
+		// The "Results" title belongs to the system results table, and closing
+		// a table forgets it, just like closing its window would.
+		hacker.insertStaticField("ij.measure.ResultsTable", Modifier.PRIVATE,
+			Map.class, "_headlessTables",
+			"java.util.Collections.synchronizedMap(new java.util.HashMap())");
+		hacker.insertAtTopOfMethod("ij.measure.ResultsTable",
+			"public void show(java.lang.String title)",
+			"if ($1 == null) $1 = \"Results\";"
+			+ "title = $1;"
+			+ "if (!\"Results\".equals($1)) _headlessTables.put($1, this);"
+			+ "else if (ij.plugin.filter.Analyzer.getResultsTable() != this)"
+			+ "  ij.plugin.filter.Analyzer.setResultsTable(this);"
+			+ "if (true) return;");
+		hacker.insertAtTopOfMethod("ij.measure.ResultsTable",
+			"public static ij.measure.ResultsTable getResultsTable(java.lang.String title)",
+			"if (\"Results\".equals($1)) return getResultsTable();"
+			+ "java.lang.Object table = _headlessTables.get($1);"
+			+ "if (table != null) return (ij.measure.ResultsTable) table;");
+		hacker.insertNewMethod("ij.measure.ResultsTable",
+			"public static void _closeHeadless(java.lang.String pattern)",
+			"ij.util.WildcardMatch match = new ij.util.WildcardMatch();"
+			+ "match.setCaseSensitive(false);"
+			+ "synchronized (_headlessTables) {"
+			+ "  java.util.Iterator iter = _headlessTables.keySet().iterator();"
+			+ "  while (iter.hasNext()) {"
+			+ "    java.lang.String title = (java.lang.String) iter.next();"
+			+ "    if (match.match(title, $1)) iter.remove();"
+			+ "  }"
+			+ "}");
+		// close("<pattern>") compares the pattern to "\\Others" before it
+		// closes the matching non-image windows
+		hacker.replaceCallInMethod("ij.macro.Functions", "void close()",
+			"java.lang.String", "equals",
+			"$_ = $proceed($$);"
+			+ "if (!$_ && \"\\\\Others\".equals($1))"
+			+ "  ij.measure.ResultsTable._closeHeadless($0);");
+		hacker.insertAtTopOfMethod("ij.macro.Functions",
+			"private ij.measure.ResultsTable getRT(java.lang.String title)",
+			"if ($1 != null) {"
+			+ "  ij.measure.ResultsTable table ="
+			+ "    ij.measure.ResultsTable.getResultsTable($1);"
+			+ "  if (table != null) return table;"
+			+ "}");
+
 		//-------------------------------------------------------------------------
 		// HACK: Make a best effort to force batch mode to stay on permanently.
 		// Without batch mode, calling ImagePlus.show() triggers HeadlessException.
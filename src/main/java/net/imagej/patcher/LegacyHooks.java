@@ -29,9 +29,6 @@
 
 package net.imagej.patcher;
 
-import io.github.classgraph.ClassGraph;
-import io.github.classgraph.ScanResult;
-
 import java.awt.event.KeyEvent;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -39,6 +36,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -174,6 +173,30 @@ public abstract class LegacyHooks {
 	 */
 	public void registerImage(final Object image) {}
 
+	/**
+	 * Determines whether, and how often, image registrations are batched.
+	 * <p>
+	 * ImageJ 1.x registers the same image over and over again, e.g. whenever
+	 * its display is updated. When this method returns a positive interval, the
+	 * calls to {@link #registerImage(Object)} are collected instead, and each
+	 * distinct image is registered once per interval (on a dispatcher thread),
+	 * or when {@link #flushImageRegistrations()} is called. The interval is
+	 * queried once, when the hooks are installed.
+	 * </p>
+	 * 
+	 * @return the interval in milliseconds, or 0 to register images immediately
+	 */
+	public long getImageRegistrationInterval() {
+		return 0;
+	}
+
+	/**
+	 * Registers the pending images right away, if registrations are batched.
+	 */
+	public void flushImageRegistrations() {
+		ImageRegistrations.flush(this);
+	}
+
 	/**
 	 * Releases an image.
 	 * 
@@ -272,7 +295,7 @@ public abstract class LegacyHooks {
 				final File directory = new File(dir);
 				if (directory.isDirectory()) {
 					result.add(directory);
-					handleExtraPluginJars(directory, result);
+					PluginDirectoryScanner.scan(directory, result);
 				}
 			}
 			return result;
@@ -282,25 +305,12 @@ public abstract class LegacyHooks {
 			final File dir = new File(userHome, ".plugins");
 			if (dir.isDirectory()) {
 				result.add(dir);
-				handleExtraPluginJars(dir, result);
+				PluginDirectoryScanner.scan(dir, result);
 			}
 		}
 		return result;
 	}
 
-	private void handleExtraPluginJars(final File directory,
-		final List<File> result)
-	{
-		final File[] list = directory.listFiles();
-		if (list == null) return;
-		for (final File file : list) {
-			if (file.isDirectory()) handleExtraPluginJars(file, result);
-			else if (file.isFile() && file.getName().endsWith(".jar")) {
-				result.add(file);
-			}
-		}
-	}
-
 	/**
 	 * Extension point to run after <i>Help&gt;Refresh Menus</i>
 	 */
@@ -593,14 +603,33 @@ public abstract class LegacyHooks {
 		final ClassLoader fromClassLoader, final StringBuilder errors,
 		final ClassLoader... excludeClassLoaders)
 	{
-		try( ScanResult result = new ClassGraph()
-//				.verbose()
-//				.enableAllInfo()
-				.acceptPackages()
-				.scan()) {
+		return ClasspathResolver.getClasspathElements(fromClassLoader, errors,
+			excludeClassLoaders);
+	}
 
-			return result.getClasspathFiles();
+	/**
+	 * Determines whether the given hooks override a method of this class.
+	 * <p>
+	 * The patched ImageJ 1.x skips calling the hooks' methods that are known to
+	 * do nothing.
+	 * </p>
+	 * <p>
+	 * Do not use: for internal use only.
+	 * </p>
+	 */
+	public static boolean overrides(final LegacyHooks hooks,
+		final String methodName)
+	{
+		final LegacyHooks actual = InstrumentedLegacyHooks.unwrap(hooks);
+		for (Class<?> clazz = actual.getClass(); clazz != LegacyHooks.class; clazz =
+			clazz.getSuperclass())
+		{
+			for (final Method method : clazz.getDeclaredMethods()) {
+				if (method.getName().equals(methodName) &&
+					!Modifier.isStatic(method.getModifiers())) return true;
+			}
 		}
+		return false;
 	}
 
 	/**
@@ -34,14 +34,17 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
 
-import javassist.ClassPool;
 import javassist.NotFoundException;
 
 /**
@@ -69,6 +72,19 @@ public class LegacyInjector {
 	final static String ESSENTIAL_LEGACY_HOOKS_CLASS =
 		"net.imagej.patcher.EssentialLegacyHooks";
 
+	/**
+	 * The name of the generated implementation of {@link LegacyBridge}.
+	 */
+	final static String LEGACY_BRIDGE_CLASS = "ij.LegacyBridge";
+
+	/**
+	 * The hooks called from hot paths, which are skipped unless the installed
+	 * {@link LegacyHooks} override them.
+	 */
+	private final static String[] ELIDABLE_HOOKS = { "showProgress",
+		"showStatus", "log", "registerImage", "unregisterImage",
+		"interceptKeyPressed" };
+
 	/**
 	 * Overrides class behavior of ImageJ classes by injecting method hooks.
 	 * 
@@ -85,6 +101,52 @@ public class LegacyInjector {
 	List<Callback> before = new ArrayList<Callback>();
 	List<Callback> after = new ArrayList<Callback>();
 
+	/**
+	 * Descriptions of the callbacks, used to fingerprint the patching inputs for
+	 * the {@link PatchedClassCache}. Callbacks without a description make the
+	 * patched classes uncacheable.
+	 */
+	private final Map<Callback, String> callbackDescriptions =
+		new IdentityHashMap<Callback, String>();
+
+	/**
+	 * Estimate of the memory freed after patching, see
+	 * {@link #getReleasedBytesEstimate()}.
+	 */
+	private volatile long releasedBytesEstimate;
+
+	/**
+	 * Associates a description with a callback.
+	 * <p>
+	 * The description must determine the callback's effect completely: if two
+	 * callbacks share the same description, they must patch the same way.
+	 * Otherwise, the {@link PatchedClassCache} would return stale bytecode.
+	 * </p>
+	 * 
+	 * @param description the description
+	 * @param callback the callback
+	 * @return the callback
+	 */
+	Callback describe(final String description, final Callback callback) {
+		callbackDescriptions.put(callback, description);
+		return callback;
+	}
+
+	private List<String> describeCallbacks() {
+		final List<String> result = new ArrayList<String>();
+		for (final Callback callback : before) {
+			final String description = callbackDescriptions.get(callback);
+			if (description == null) return null;
+			result.add("before " + description);
+		}
+		for (final Callback callback : after) {
+			final String description = callbackDescriptions.get(callback);
+			if (description == null) return null;
+			result.add("after " + description);
+		}
+		return result;
+	}
+
 	/**
 	 * Determines the ImageJ version without loading the ImageJ classes.
 	 * 
@@ -107,6 +169,23 @@ public class LegacyInjector {
 		return Utils.ij1VersionCompare(imagej1Version, minimalVersion) >= 0;
 	}
 
+	/**
+	 * Estimates how much memory was freed by releasing the Javassist
+	 * representations of the classes after the last call to
+	 * {@link #injectHooks(ClassLoader, boolean)}.
+	 * <p>
+	 * This is only an estimate: it adds up the sizes of the released class files,
+	 * which is a lower bound of the Javassist object graphs that became
+	 * unreachable, not a measurement of the heap.
+	 * </p>
+	 * 
+	 * @return the estimated number of bytes, or 0 if Javassist was not needed
+	 *         (e.g. because the patched classes came from the cache)
+	 */
+	long getReleasedBytesEstimate() {
+		return releasedBytesEstimate;
+	}
+
 	/**
 	 * Overrides class behavior of ImageJ1 classes by injecting method hooks.
 	 * 
@@ -116,6 +195,19 @@ public class LegacyInjector {
 	public void injectHooks(final ClassLoader classLoader, boolean headless) {
 		if (alreadyPatched(classLoader)) return;
 
+		final PatchedClassCache cache = PatchedClassCache.getDefault();
+		final String fingerprint = cache == null ? null :
+			cache.fingerprint(classLoader, headless, describeCallbacks());
+		if (fingerprint != null) {
+			final Map<String, byte[]> cached = cache.load(fingerprint);
+			if (cached != null) {
+				// warm start: no need to run Javassist at all
+				new ClassDefiner(classLoader).defineAll(cached);
+				patchedClassLoaders.add(classLoader);
+				return;
+			}
+		}
+
 		final CodeHacker hacker = inject(classLoader, headless);
 
 		for (final Callback callback : after) {
@@ -123,7 +215,12 @@ public class LegacyInjector {
 		}
 
 		// commit patches
+		final Map<String, byte[]> committed =
+			fingerprint == null ? null : new LinkedHashMap<String, byte[]>();
+		hacker.recordCommittedClasses(committed);
 		hacker.loadClasses();
+		if (committed != null) cache.store(fingerprint, committed);
+		releasedBytesEstimate = hacker.release();
 
 		// Record this classloader so repeated calls are detected on Java 17+
 		// (where findLoadedClass() is inaccessible and alreadyPatched() returns
@@ -140,7 +237,8 @@ public class LegacyInjector {
 	 */
 	private CodeHacker inject(final ClassLoader classLoader,
 			final boolean headless) {
-		final CodeHacker hacker = new CodeHacker(classLoader, new ClassPool(false));
+		final CodeHacker hacker = new CodeHacker(classLoader,
+			new CodeHacker.ReleasableClassPool());
 		if (hacker.hasField("ij.IJ", "_hooks")) return hacker; // pre-patched
 
 		for (final Callback callback : before) {
@@ -149,6 +247,11 @@ public class LegacyInjector {
 
 		// NB: Override class behavior before class loading gets too far along.
 		hacker.insertPublicStaticField("ij.IJ", LegacyHooks.class, "_hooks", null);
+		hacker.insertStaticField("ij.IJ", Modifier.PUBLIC | Modifier.VOLATILE,
+			LogCapture.class, "_logCapture", null);
+		hacker.insertStaticField("ij.IJ", Modifier.PUBLIC | Modifier.FINAL,
+			ProgressDispatcher.class, "_progress",
+			ProgressDispatcher.class.getName() + ".create()");
 		hacker.commitClass(LegacyHooks.class);
 		hacker.commitClass(LegacyHooks.FatJarNameComparator.class);
 		hacker.commitClass(ESSENTIAL_LEGACY_HOOKS_CLASS);
@@ -159,22 +262,146 @@ public class LegacyInjector {
 			builder.append("try {").append("java.lang.reflect.Field field = ")
 				.append(legacyHooksClass).append(".class.getDeclaredField(\")").append(
 					field.getName()).append("\"); ").append("field.setAccessible(true);")
-				.append("field.set(hooks, field.get(_hooks));").append(
+				.append("field.set(target, field.get(source));").append(
 					"} catch (Throwable t) {").append(
 					"if (ij.IJ.debugMode) t.printStackTrace();").append("}");
 		}
 
+		// skip the calls from hot paths to hooks that do nothing
+		final StringBuilder guards = new StringBuilder();
+		for (final String method : ELIDABLE_HOOKS) {
+			hacker.insertPublicStaticField("ij.IJ", boolean.class,
+				"_overrides_" + method, null);
+			guards.append("_overrides_").append(method).append(" = ")
+				.append(legacyHooksClass).append(".overrides(_hooks, \"")
+				.append(method).append("\");");
+		}
+
+		final String registrationsClass = ImageRegistrations.class.getName();
+		hacker.insertStaticField("ij.IJ", Modifier.PUBLIC | Modifier.VOLATILE,
+			ImageRegistrations.class, "_registrations", null);
+
 		final String essentialHooksClass = ESSENTIAL_LEGACY_HOOKS_CLASS;
+		final String instrumentedHooksClass =
+			InstrumentedLegacyHooks.class.getName();
 		hacker.insertNewMethod("ij.IJ",
 				"public static " + legacyHooksClass + " _hooks(" + legacyHooksClass + " hooks)",
 				legacyHooksClass + " previous = _hooks;"
-				+ "if (previous != null && hooks != null) {" + builder + "}"
+				+ "if (previous != null && hooks != null) {"
+				// copy the fields of the actual hooks, not of instrumenting wrappers
+				+ "  " + legacyHooksClass + " source = " + instrumentedHooksClass + ".unwrap(_hooks);"
+				+ "  " + legacyHooksClass + " target = " + instrumentedHooksClass + ".unwrap(hooks);"
+				+ builder + "}"
+				+ "if (_registrations != null) _registrations.dispose();"
 				+ "if (previous != null) previous.dispose();"
-				+ "_hooks = $1 == null ? new " + essentialHooksClass + "() : $1;"
+				+ "_hooks = " + instrumentedHooksClass + ".wrap(previous,"
+				+ "  $1 == null ? new " + essentialHooksClass + "() : $1,"
+				+ "  ij.IJ.class.getClassLoader());"
 				+ "_hooks.installed();"
+				+ guards
+				+ "if (_progress != null) _progress.setHooks(_hooks);"
+				+ "_registrations = " + registrationsClass + ".create(_hooks);"
 				+ "return previous;");
 		hacker.addToClassInitializer("ij.IJ", "_hooks(null);");
 
+		// let LegacyEnvironment call into ImageJ 1.x without reflection
+		final String bridgeClass = LegacyBridge.class.getName();
+		hacker.insertNewClass(LEGACY_BRIDGE_CLASS, bridgeClass);
+		hacker.insertNewMethod(LEGACY_BRIDGE_CLASS,
+			"public void setMacroOptions(java.lang.String options)",
+			"ij.Macro.setOptions($1);");
+		hacker.insertNewMethod(LEGACY_BRIDGE_CLASS,
+			"public void run(java.lang.String command, java.lang.String options)",
+			"ij.IJ.run($1, $2);");
+		hacker.insertNewMethod(LEGACY_BRIDGE_CLASS,
+			"public java.lang.String runMacro(java.lang.String macro, java.lang.String arg)",
+			"return ij.IJ.runMacro($1, $2);");
+		hacker.insertNewMethod(LEGACY_BRIDGE_CLASS,
+			"public java.lang.Object runPlugIn(java.lang.String className, java.lang.String arg)",
+			"return ij.IJ.runPlugIn($1, $2);");
+		hacker.insertNewMethod(LEGACY_BRIDGE_CLASS,
+			"public void main(java.lang.String[] args)",
+			"ij.ImageJ.main($1);");
+		final String pixelDataClass = PixelData.class.getName();
+		hacker.insertNewMethod(LEGACY_BRIDGE_CLASS,
+			"public int createImage(" + pixelDataClass + " data)",
+			"ij.ImageStack stack = new ij.ImageStack($1.getWidth(), $1.getHeight());"
+			+ "java.lang.Object[] planes = $1.getPlanes();"
+			+ "for (int i = 0; i < planes.length; i++) {"
+			+ "  stack.addSlice(null, planes[i]);"
+			+ "}"
+			+ "ij.ImagePlus image = new ij.ImagePlus($1.getTitle(), stack);"
+			+ "image.setDimensions($1.getChannels(), $1.getSlices(), $1.getFrames());"
+			+ "if (image.getNDimensions() > 3) image.setOpenAsHyperStack(true);"
+			+ "ij.measure.Calibration calibration = image.getCalibration();"
+			+ "calibration.pixelWidth = $1.getPixelWidth();"
+			+ "calibration.pixelHeight = $1.getPixelHeight();"
+			+ "calibration.pixelDepth = $1.getPixelDepth();"
+			+ "calibration.setUnit($1.getUnit());"
+			// without the ImageJ 1.x GUI, register the image without a window
+			+ "if (ij.IJ.getInstance() == null"
+			+ "  && !ij.macro.Interpreter.isBatchMode())"
+			+ "{"
+			+ "  ij.macro.Interpreter.batchMode = true;"
+			+ "}"
+			+ "image.show();"
+			+ "return image.getID();");
+		hacker.insertNewMethod(LEGACY_BRIDGE_CLASS,
+			"public " + pixelDataClass + " getPixelData(int imageID)",
+			"ij.ImagePlus image = $1 == 0 ? ij.WindowManager.getCurrentImage()"
+			+ "  : ij.WindowManager.getImage($1);"
+			+ "if (image == null) return null;"
+			+ "ij.ImageStack stack = image.getStack();"
+			+ "java.lang.Object[] planes = new java.lang.Object[stack.getSize()];"
+			+ "for (int i = 0; i < planes.length; i++) {"
+			+ "  planes[i] = stack.getPixels(i + 1);"
+			+ "}"
+			+ pixelDataClass + " data = new " + pixelDataClass
+			+ "  (image.getTitle(), image.getWidth(), image.getHeight(), planes);"
+			+ "data.setDimensions(image.getNChannels(), image.getNSlices(),"
+			+ "  image.getNFrames());"
+			+ "ij.measure.Calibration calibration = image.getCalibration();"
+			+ "data.setCalibration(calibration.pixelWidth, calibration.pixelHeight,"
+			+ "  calibration.pixelDepth, calibration.getUnit());"
+			+ "return data;");
+		hacker.insertNewMethod(LEGACY_BRIDGE_CLASS,
+			"public void setLogCapture(" + LogCapture.class.getName() + " capture)",
+			"ij.IJ._logCapture = $1;");
+		final String tableDataClass = TableData.class.getName();
+		hacker.insertNewMethod(LEGACY_BRIDGE_CLASS,
+			"public " + tableDataClass + " getResultsTable(java.lang.String title)",
+			"ij.measure.ResultsTable table = $1 == null ?"
+			+ "  ij.measure.ResultsTable.getResultsTable()"
+			+ "  : ij.measure.ResultsTable.getResultsTable($1);"
+			+ "if (table == null) return null;"
+			+ "int size = table.size();"
+			+ tableDataClass + " data = new " + tableDataClass
+			+ "  (table.getTitle(), size);"
+			+ "int last = table.getLastColumn();"
+			+ "for (int column = 0; column <= last; column++) {"
+			+ "  if (!table.columnExists(column)) continue;"
+			+ "  double[] values = table.getColumnAsDoubles(column);"
+			+ "  if (values == null) values = new double[size];"
+			// only NaN cells can hold text, no need to format the others
+			+ "  java.lang.String[] text = null;"
+			+ "  for (int row = 0; row < size; row++) {"
+			+ "    if (!java.lang.Double.isNaN(values[row])) continue;"
+			+ "    java.lang.String value = table.getStringValue(column, row);"
+			+ "    if (value == null || \"NaN\".equals(value)) continue;"
+			+ "    if (text == null) text = new java.lang.String[size];"
+			+ "    text[row] = value;"
+			+ "  }"
+			+ "  data.addColumn(table.getColumnHeading(column), values, text);"
+			+ "}"
+			+ "if (size > 0 && table.getLabel(0) != null) {"
+			+ "  java.lang.String[] labels = new java.lang.String[size];"
+			+ "  for (int row = 0; row < size; row++) {"
+			+ "    labels[row] = table.getLabel(row);"
+			+ "  }"
+			+ "  data.setLabels(labels);"
+			+ "}"
+			+ "return data;");
+
 		if (headless) {
 			new LegacyHeadless(hacker).patch();
 		}
@@ -188,18 +415,28 @@ public class LegacyInjector {
 		// intercept key pressed handling
 		hacker.insertAtTopOfMethod("ij.ImageJ",
 			"public void keyPressed(java.awt.event.KeyEvent e)",
-			"if (ij.IJ._hooks.interceptKeyPressed($1)) return;");
+			"if (ij.IJ._overrides_interceptKeyPressed"
+			+ "  && ij.IJ._hooks.interceptKeyPressed($1)) return;");
 
 		// override behavior of ij.IJ
 		hacker.insertAtBottomOfMethod("ij.IJ",
 			"public static void showProgress(double progress)",
-			"ij.IJ._hooks.showProgress($1);");
+			"if (_overrides_showProgress) {"
+			+ "  if (_progress != null) _progress.showProgress($1);"
+			+ "  else ij.IJ._hooks.showProgress($1);"
+			+ "}");
 		hacker.insertAtBottomOfMethod("ij.IJ",
 			"public static void showProgress(int currentIndex, int finalIndex)",
-			"ij.IJ._hooks.showProgress($1, $2);");
+			"if (_overrides_showProgress) {"
+			+ "  if (_progress != null) _progress.showProgress($1, $2);"
+			+ "  else ij.IJ._hooks.showProgress($1, $2);"
+			+ "}");
 		hacker.insertAtBottomOfMethod("ij.IJ",
 			"public static void showStatus(java.lang.String status)",
-			"ij.IJ._hooks.showStatus($1);");
+			"if (_overrides_showStatus) {"
+			+ "  if (_progress != null) _progress.showStatus($1);"
+			+ "  else ij.IJ._hooks.showStatus($1);"
+			+ "}");
 		hacker.insertAtTopOfMethod("ij.IJ",
 				"public static Object runPlugIn(java.lang.String commandName, java.lang.String className, java.lang.String arg)",
 				" if (classLoader != null) Thread.currentThread().setContextClassLoader(classLoader);"
@@ -211,7 +448,11 @@ public class LegacyInjector {
 				+ "}");
 		hacker.insertAtTopOfMethod("ij.IJ",
 				"public static void log(java.lang.String message)",
-				"ij.IJ._hooks.log($1);");
+				"if (_overrides_log) ij.IJ._hooks.log($1);"
+				+ "if (_logCapture != null && $1 != null) {"
+				+ "  _logCapture.log($1);"
+				+ "  return;"
+				+ "}");
 		hacker.insertAtTopOfMethod("ij.IJ",
 			"static java.lang.Object runUserPlugIn(java.lang.String commandName, java.lang.String className, java.lang.String arg, boolean createNewLoader)",
 			"if (classLoader != null) Thread.currentThread().setContextClassLoader(classLoader);");
@@ -228,57 +469,101 @@ public class LegacyInjector {
 		// override behavior of ij.ImagePlus
 		hacker.insertAtBottomOfMethod("ij.ImagePlus",
 			"public void updateAndDraw()",
-			"ij.IJ._hooks.registerImage(this);");
+			registerImage("this"));
 		hacker.insertAtBottomOfMethod("ij.ImagePlus",
 			"public void repaintWindow()",
-			"ij.IJ._hooks.registerImage(this);");
+			registerImage("this"));
 		hacker.insertAtBottomOfMethod("ij.ImagePlus",
 			"public void show(java.lang.String statusMessage)",
-			"ij.IJ._hooks.registerImage(this);");
+			registerImage("this"));
 		hacker.insertAtBottomOfMethod("ij.ImagePlus",
 			"public void hide()",
-			"ij.IJ._hooks.unregisterImage(this);");
+			unregisterImage("this"));
 		hacker.insertAtBottomOfMethod("ij.ImagePlus",
 			"public void close()",
-			"ij.IJ._hooks.unregisterImage(this);");
+			unregisterImage("this"));
 
 		// override behavior of ij.gui.ImageWindow
 		hacker.insertNewMethod("ij.gui.ImageWindow",
 			"public void setVisible(boolean vis)",
-			"if ($1) ij.IJ._hooks.registerImage(this.getImagePlus());"
+			"if ($1) " + registerImage("this.getImagePlus()")
 			+ "if (ij.IJ._hooks.isLegacyMode()) { super.setVisible($1); }");
 		hacker.insertNewMethod("ij.gui.ImageWindow",
 			"public void show()",
-			"ij.IJ._hooks.registerImage(this.getImagePlus());"
+			registerImage("this.getImagePlus()")
 			+ "if (ij.IJ._hooks.isLegacyMode()) { super.show(); }");
 		hacker.insertAtTopOfMethod("ij.gui.ImageWindow",
 			"public void close()",
-			"ij.IJ._hooks.unregisterImage(this.getImagePlus());");
+			unregisterImage("this.getImagePlus()"));
 
 		// override behavior of PluginClassLoader
 		hacker.insertNewMethod("ij.io.PluginClassLoader",
 			"void addRecursively(java.io.File directory)",
-			"java.lang.String[] list = ij.IJ._hooks.addPluginDirectory($1, $1.list());"
-			+ "if (list == null) return;"
-			+ "for (int i = 0; i < list.length; i++) {"
-			+ "  java.io.File file = new java.io.File($1, list[i]);"
-			+ "  if (file.isDirectory()) addRecursively(file);"
-			+ "  else if (file.getName().endsWith(\".jar\")) addURL(file.toURI().toURL());"
-			+ "}");
+			"java.net.URL[] urls = net.imagej.patcher.EssentialLegacyHooks"
+			+ "  .pluginJars(ij.IJ._hooks, $1);"
+			+ "for (int i = 0; i < urls.length; i++) addURL(urls[i]);");
 		hacker.insertAtTopOfMethod("ij.io.PluginClassLoader",
 			"void init(java.lang.String path)",
-			"java.io.File plugins = new java.io.File($1);"
-			+ "if (plugins.getName().equals(\"plugins\")) {"
-			+ "  java.io.File root = plugins.getParentFile();"
-			+ "  if (root != null) addRecursively(new java.io.File(root, \"jars\"));"
-			+ "}"
-			+ "final java.util.Iterator iter = ij.IJ._hooks.handleExtraPluginJars().iterator();"
-			+ "while (iter.hasNext()) {"
-			+ "  addURL(((java.io.File) iter.next()).toURL());"
-			+ "}");
+			"java.net.URL[] urls = net.imagej.patcher.EssentialLegacyHooks"
+			+ "  .extraPluginJars(ij.IJ._hooks, $1);"
+			+ "for (int i = 0; i < urls.length; i++) addURL(urls[i]);");
 		hacker.insertAtBottomOfMethod("ij.io.PluginClassLoader",
 			"void init(java.lang.String path)",
 			"ij.IJ._hooks.newPluginClassLoader(this);");
+		// index the packages of the plugin class path
+		hacker.insertPrivateField("ij.io.PluginClassLoader",
+			PluginClassPathIndex.class, "_index");
+		hacker.insertNewMethod("ij.io.PluginClassLoader",
+			"protected void addURL(java.net.URL url)",
+			"if (_index == null) {"
+			+ "  _index = new net.imagej.patcher.PluginClassPathIndex();"
+			+ "  java.net.URL[] urls = getURLs();"
+			+ "  for (int i = 0; i < urls.length; i++) _index.add(urls[i]);"
+			+ "}"
+			+ "super.addURL($1);"
+			+ "_index.add($1);");
+		hacker.insertNewMethod("ij.io.PluginClassLoader",
+			"protected java.lang.Class findClass(java.lang.String name)"
+			+ " throws java.lang.ClassNotFoundException",
+			"if (_index == null || !_index.isComplete()) return super.findClass($1);"
+			+ "java.lang.String path = $1.replace('.', '/').concat(\".class\");"
+			+ "int i = _index.find(path);"
+			+ "if (i < 0) throw new java.lang.ClassNotFoundException($1);"
+			+ "java.util.jar.JarEntry entry = _index.getJarEntry(i, path);"
+			+ "byte[] b;"
+			+ "try {"
+			+ "  b = entry != null ? _index.read(i, entry) : _index.read(i, path);"
+			+ "} catch (java.io.IOException e) {"
+			+ "  throw new java.lang.ClassNotFoundException($1, e);"
+			+ "}"
+			+ "int dot = $1.lastIndexOf('.');"
+			+ "if (dot > 0) {"
+			+ "  java.lang.String pkgName = $1.substring(0, dot);"
+			+ "  java.util.jar.Manifest manifest = _index.getManifest(i);"
+			+ "  java.net.URL url = _index.getURL(i);"
+			+ "  java.lang.Package pkg = getPackage(pkgName);"
+			+ "  if (pkg != null) {"
+			+ "    if (pkg.isSealed() ? !pkg.isSealed(url) : manifest != null"
+			+ "      && net.imagej.patcher.PluginClassPathIndex.isSealed(pkgName, manifest))"
+			+ "    {"
+			+ "      throw new java.lang.SecurityException(\"sealing violation: \""
+			+ "        + \"package \" + pkgName + \" is sealed\");"
+			+ "    }"
+			+ "  } else try {"
+			+ "    if (manifest != null) definePackage(pkgName, manifest, url);"
+			+ "    else definePackage(pkgName, null, null, null, null, null, null, null);"
+			+ "  } catch (java.lang.IllegalArgumentException e) {" // defined concurrently
+			+ "  }"
+			+ "}"
+			+ "return defineClass($1, b, 0, b.length, _index.getCodeSource(i, entry));");
+		hacker.insertNewMethod("ij.io.PluginClassLoader",
+			"public void close() throws java.io.IOException",
+			"if (_index != null) _index.close();"
+			+ "super.close();");
+		hacker.insertNewMethod("ij.io.PluginClassLoader",
+			"public java.net.URL findResource(java.lang.String name)",
+			"if (_index == null || !_index.isComplete()) return super.findResource($1);"
+			+ "return _index.findResource($1);");
 		// handle fat .jar files in jars/ by demoting them to the end
 		hacker.replaceCallInMethod("ij.io.PluginClassLoader",
 			"private void addDirectory(java.io.File f)",
@@ -295,15 +580,7 @@ public class LegacyInjector {
 		// avoid duplicate menu entries
 		hacker.insertAtTopOfMethod("ij.Menus",
 			"void installJarPlugins()",
-			"if (jarFiles != null) {" +
-			"  java.util.HashSet seen = new java.util.HashSet();" +
-			"  for (java.util.Iterator iter = jarFiles.iterator(); iter.hasNext(); ) {" +
-			"    Object jar = iter.next();" +
-			"    if (seen.contains(jar)) iter.remove();" +
-			"    else seen.add(jar);" +
-			"  }" +
-			"  seen = null;" +
-			"}");
+			ESSENTIAL_LEGACY_HOOKS_CLASS + ".removeDuplicates(jarFiles);");
 
 		// override behavior of MacAdapter, if needed
 		if (Utils.hasClass("com.apple.eawt.ApplicationListener")) {
@@ -357,6 +634,39 @@ public class LegacyInjector {
 		return hacker;
 	}
 
+	/**
+	 * Generates the code registering an image with the hooks.
+	 * <p>
+	 * If the hooks batch the registrations, the image is only marked as pending.
+	 * </p>
+	 * 
+	 * @param image the expression evaluating to the {@code ij.ImagePlus}
+	 * @return the code
+	 */
+	private static String registerImage(final String image) {
+		return "if (ij.IJ._overrides_registerImage) {"
+			+ "  " + ImageRegistrations.class.getName() + " batch = ij.IJ._registrations;"
+			+ "  if (batch != null) batch.register(" + image + ");"
+			+ "  else ij.IJ._hooks.registerImage(" + image + ");"
+			+ "}";
+	}
+
+	/**
+	 * Generates the code unregistering an image from the hooks.
+	 * <p>
+	 * A pending (batched) registration of the image is cancelled.
+	 * </p>
+	 * 
+	 * @param image the expression evaluating to the {@code ij.ImagePlus}
+	 * @return the code
+	 */
+	private static String unregisterImage(final String image) {
+		return "if (ij.IJ._registrations != null)"
+			+ "  ij.IJ._registrations.cancel(" + image + ");"
+			+ "if (ij.IJ._overrides_unregisterImage)"
+			+ "  ij.IJ._hooks.unregisterImage(" + image + ");";
+	}
+
 	/**
 	 * Writes a .jar file with the patched classes.
 	 * 
@@ -0,0 +1,174 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Receives the output of {@code ij.IJ.log(String)} instead of the console.
+ * <p>
+ * Headless ImageJ 1.x prints every log message to {@link System#out}, which
+ * is shared by all {@link LegacyEnvironment}s: their output interleaves, and
+ * chatty macros end up waiting for the console. A capture installed via
+ * {@link LegacyEnvironment#setLogCapture(LogCapture)} suppresses that printing
+ * and either hands each message to a callback, or stores it in a bounded,
+ * lock-free ring buffer. When the buffer is full, new messages are dropped
+ * (and counted) rather than blocking ImageJ 1.x.
+ * </p>
+ * <p>
+ * Messages are passed on verbatim, including ImageJ 1.x' log commands such as
+ * {@code \\Clear}.
+ * </p>
+ */
+public final class LogCapture {
+
+	private final Consumer<String> consumer;
+
+	// a bounded multi-producer/multi-consumer queue after Dmitry Vyukov
+	private final int mask;
+	private final AtomicReferenceArray<String> messages;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Captures log messages into a ring buffer.
+	 * 
+	 * @param capacity the maximal number of messages to keep; rounded up to a
+	 *          power of two
+	 */
+	public LogCapture(final int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		final int size = Integer.highestOneBit(capacity) == capacity ? capacity
+			: Integer.highestOneBit(capacity) << 1;
+		consumer = null;
+		mask = size - 1;
+		messages = new AtomicReferenceArray<String>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Streams log messages to a callback.
+	 * <p>
+	 * The callback is called on the thread calling {@code IJ.log()}, and must
+	 * therefore be quick.
+	 * </p>
+	 * 
+	 * @param consumer the callback
+	 */
+	public LogCapture(final Consumer<String> consumer) {
+		if (consumer == null) throw new NullPointerException();
+		this.consumer = consumer;
+		mask = -1;
+		messages = null;
+		sequences = null;
+	}
+
+	/**
+	 * Called by ImageJ 1.x for every log message.
+	 * 
+	 * @param message the message
+	 */
+	public void log(final String message) {
+		if (consumer != null) {
+			consumer.accept(message);
+			return;
+		}
+		for (;;) {
+			final long position = head.get();
+			final int index = (int) position & mask;
+			final long sequence = sequences.get(index);
+			if (sequence < position) {
+				// the slot still holds an unread message: the buffer is full
+				dropped.incrementAndGet();
+				return;
+			}
+			if (sequence == position && head.compareAndSet(position, position + 1)) {
+				messages.set(index, message);
+				sequences.set(index, position + 1);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Removes the oldest message from the buffer.
+	 * 
+	 * @return the message, or {@code null} if the buffer is empty (or if the
+	 *         messages are streamed to a callback)
+	 */
+	public String poll() {
+		if (consumer != null) return null;
+		for (;;) {
+			final long position = tail.get();
+			final int index = (int) position & mask;
+			final long sequence = sequences.get(index);
+			if (sequence < position + 1) return null;
+			if (sequence == position + 1 && tail.compareAndSet(position, position + 1)) {
+				final String message = messages.getAndSet(index, null);
+				sequences.set(index, position + mask + 1);
+				return message;
+			}
+		}
+	}
+
+	/**
+	 * Removes all messages from the buffer.
+	 * 
+	 * @param collection where to put the messages, oldest first
+	 * @return the number of messages
+	 */
+	public int drainTo(final Collection<? super String> collection) {
+		int count = 0;
+		for (;;) {
+			final String message = poll();
+			if (message == null) return count;
+			collection.add(message);
+			count++;
+		}
+	}
+
+	/**
+	 * Gets the number of messages that did not fit into the buffer.
+	 * 
+	 * @return the number of dropped messages
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+}
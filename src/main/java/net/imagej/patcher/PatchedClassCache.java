@@ -0,0 +1,390 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Caches patched ImageJ 1.x bytecode in memory and on disk.
+ * <p>
+ * Patching ImageJ 1.x is expensive: Javassist needs to parse dozens of classes,
+ * compile all the hook snippets and emit the bytecode again. Yet the inputs
+ * determining the outcome (the {@code ij.jar}, the ij1-patcher version, the
+ * headless flag and the {@link LegacyInjector.Callback}s) rarely change between
+ * two startups. Therefore, the patched bytecode can be stored in a cache
+ * directory, keyed on a fingerprint of those inputs, and simply be defined in
+ * the class loader upon the next startup.
+ * </p>
+ * <p>
+ * The cache has two layers: the bytecode is kept in memory, shared by all
+ * {@link LegacyEnvironment}s of the same JVM, so that every environment after
+ * the first one with the same inputs only needs to define the classes. The
+ * in-memory layer can be switched off by setting the system property
+ * {@code ij1.patcher.cache.memory} to {@code false}; it is also not used when
+ * patching lazily ({@code ij1.patcher.lazy}). The on-disk layer is opt-in: it
+ * is only used if the system property {@code ij1.patcher.cache} points to a
+ * directory.
+ * </p>
+ */
+class PatchedClassCache {
+
+	/**
+	 * The system property specifying the cache directory.
+	 */
+	final static String CACHE_DIRECTORY_PROPERTY = "ij1.patcher.cache";
+
+	/**
+	 * The system property to switch off the in-memory cache.
+	 */
+	final static String MEMORY_CACHE_PROPERTY = "ij1.patcher.cache.memory";
+
+	/**
+	 * Increment this whenever the format, or the fingerprint, changes.
+	 */
+	private final static int FORMAT_VERSION = 1;
+
+	/**
+	 * The in-memory layer, shared by all caches using it.
+	 * <p>
+	 * The entries are softly referenced so that they can be reclaimed when
+	 * memory runs low.
+	 * </p>
+	 */
+	private final static Map<String, SoftReference<Map<String, byte[]>>> shared =
+		new HashMap<String, SoftReference<Map<String, byte[]>>>();
+
+	private final File directory;
+	private final boolean inMemory;
+
+	PatchedClassCache(final File directory) {
+		this(directory, false);
+	}
+
+	/**
+	 * Creates a cache.
+	 * 
+	 * @param directory the directory of the on-disk layer, or {@code null}
+	 * @param inMemory whether to use the JVM-wide in-memory layer
+	 */
+	PatchedClassCache(final File directory, final boolean inMemory) {
+		this.directory = directory;
+		this.inMemory = inMemory;
+	}
+
+	/**
+	 * Returns the cache configured via the {@code ij1.patcher.cache} and
+	 * {@code ij1.patcher.cache.memory} properties.
+	 * 
+	 * @return the cache, or {@code null} if caching is disabled
+	 */
+	static PatchedClassCache getDefault() {
+		final String path = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+		final File directory =
+			path == null || path.trim().length() == 0 ? null : new File(path);
+		final boolean inMemory =
+			!"false".equals(System.getProperty(MEMORY_CACHE_PROPERTY)) &&
+				!Boolean.getBoolean("ij1.patcher.lazy");
+		if (directory == null && !inMemory) return null;
+		return new PatchedClassCache(directory, inMemory);
+	}
+
+	/**
+	 * Computes the fingerprint of the inputs determining the patched bytecode.
+	 * 
+	 * @param classLoader the class loader containing the ImageJ 1.x classes
+	 * @param headless whether the headless patches are applied
+	 * @param callbacks the descriptions of the registered callbacks
+	 * @return the fingerprint, or {@code null} if the result is not cacheable
+	 */
+	String fingerprint(final ClassLoader classLoader, final boolean headless,
+		final List<String> callbacks)
+	{
+		if (callbacks == null) return null;
+		final StringBuilder builder = new StringBuilder();
+		builder.append("version: ").append(FORMAT_VERSION).append('\n');
+		if (!stamp(builder, "patcher", Utils.getLocation(CodeHacker.class))) {
+			return null;
+		}
+		final String ij = stampImageJ(classLoader);
+		if (ij == null) return null;
+		builder.append(ij);
+		builder.append("headless: ").append(headless).append('\n');
+		// the patches depend on these, too
+		builder.append("os.name: ").append(System.getProperty("os.name"))
+			.append('\n');
+		builder.append("IJ_PREFS_DIR: ").append(System.getenv("IJ_PREFS_DIR"))
+			.append('\n');
+		builder.append("java: ").append(
+			System.getProperty("java.specification.version")).append('\n');
+		builder.append("eawt: ").append(
+			Utils.hasClass("com.apple.eawt.ApplicationListener")).append('\n');
+		builder.append("JavaScriptEvaluator: ").append(
+			classLoader.getResource("JavaScriptEvaluator.class") != null).append('\n');
+		for (final String callback : callbacks) {
+			builder.append("callback: ").append(callback.replace("\n", "\\n"))
+				.append('\n');
+		}
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			final byte[] hash =
+				digest.digest(builder.toString().getBytes(StandardCharsets.UTF_8));
+			final StringBuilder hex = new StringBuilder();
+			for (final byte b : hash) {
+				hex.append(String.format("%02x", b & 0xff));
+			}
+			return hex.toString();
+		}
+		catch (final NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Looks up the patched bytecode for a given fingerprint.
+	 * 
+	 * @param fingerprint the fingerprint of the patching inputs
+	 * @return the bytecode, keyed by class name, in definition order, or
+	 *         {@code null} if the cache does not contain the fingerprint
+	 */
+	Map<String, byte[]> load(final String fingerprint) {
+		if (inMemory) {
+			final Map<String, byte[]> result = getShared(fingerprint);
+			if (result != null) {
+				if (directory != null && !getFile(fingerprint).isFile()) {
+					storeFile(fingerprint, result);
+				}
+				return result;
+			}
+		}
+		if (directory == null) return null;
+		final Map<String, byte[]> result = loadFile(fingerprint);
+		if (result != null && inMemory) putShared(fingerprint, result);
+		return result;
+	}
+
+	/**
+	 * Stores the patched bytecode for a given fingerprint.
+	 * 
+	 * @param fingerprint the fingerprint of the patching inputs
+	 * @param classes the bytecode, keyed by class name, in definition order
+	 */
+	void store(final String fingerprint, final Map<String, byte[]> classes) {
+		if (classes.isEmpty()) return;
+		if (inMemory) putShared(fingerprint, classes);
+		if (directory != null) storeFile(fingerprint, classes);
+	}
+
+	private static Map<String, byte[]> getShared(final String fingerprint) {
+		synchronized (shared) {
+			final SoftReference<Map<String, byte[]>> ref = shared.get(fingerprint);
+			final Map<String, byte[]> result = ref == null ? null : ref.get();
+			if (ref != null && result == null) shared.remove(fingerprint);
+			return result;
+		}
+	}
+
+	private static void putShared(final String fingerprint,
+		final Map<String, byte[]> classes)
+	{
+		// NB: the bytecode arrays are never modified after being stored
+		final Map<String, byte[]> copy = Collections.unmodifiableMap(
+			new LinkedHashMap<String, byte[]>(classes));
+		synchronized (shared) {
+			shared.put(fingerprint, new SoftReference<Map<String, byte[]>>(copy));
+		}
+	}
+
+	private Map<String, byte[]> loadFile(final String fingerprint) {
+		final File file = getFile(fingerprint);
+		if (!file.isFile()) return null;
+		final Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+		try {
+			final ZipInputStream in =
+				new ZipInputStream(new FileInputStream(file));
+			try {
+				final byte[] buffer = new byte[65536];
+				for (;;) {
+					final ZipEntry entry = in.getNextEntry();
+					if (entry == null) break;
+					final String name = entry.getName();
+					if (!name.endsWith(".class")) continue;
+					final ByteArrayOutputStream out = new ByteArrayOutputStream();
+					for (;;) {
+						final int count = in.read(buffer);
+						if (count < 0) break;
+						out.write(buffer, 0, count);
+					}
+					result.put(name.substring(0, name.length() - 6).replace('/', '.'),
+						out.toByteArray());
+				}
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (final IOException e) {
+			System.err.println("Warning: ignoring corrupt patch cache " + file +
+				": " + e.getMessage());
+			return null;
+		}
+		return result.isEmpty() ? null : result;
+	}
+
+	/**
+	 * Writes the cache file for a given fingerprint.
+	 * <p>
+	 * The cache file is written atomically, so that concurrently starting
+	 * processes never see a partially written cache file.
+	 * </p>
+	 */
+	private void storeFile(final String fingerprint,
+		final Map<String, byte[]> classes)
+	{
+		final File file = getFile(fingerprint);
+		File tmp = null;
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Could not make directory: " + directory);
+			}
+			tmp = File.createTempFile(fingerprint, ".tmp", directory);
+			final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(tmp));
+			try {
+				for (final Map.Entry<String, byte[]> entry : classes.entrySet()) {
+					out.putNextEntry(new ZipEntry(entry.getKey().replace('.', '/') +
+						".class"));
+					out.write(entry.getValue());
+					out.closeEntry();
+				}
+			}
+			finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file) && !file.isFile()) {
+				throw new IOException("Could not rename " + tmp + " to " + file);
+			}
+		}
+		catch (final IOException e) {
+			System.err.println("Warning: could not write patch cache " + file +
+				": " + e.getMessage());
+		}
+		finally {
+			if (tmp != null && tmp.exists()) tmp.delete();
+		}
+	}
+
+	/**
+	 * Stamps the location of the ImageJ 1.x classes, i.e. {@code ij.jar} or
+	 * the classes directory.
+	 * 
+	 * @param classLoader the class loader containing the ImageJ 1.x classes
+	 * @return the stamp, or {@code null} if the location cannot be stamped
+	 */
+	static String stampImageJ(final ClassLoader classLoader) {
+		final URL ij = classLoader.getResource("ij/IJ.class");
+		if (ij == null) return null;
+		final URL ijLocation;
+		if ("jar".equals(ij.getProtocol())) ijLocation = ij;
+		else try {
+			// the classes directory
+			ijLocation = new URL(ij, "..");
+		}
+		catch (final IOException e) {
+			return null;
+		}
+		final StringBuilder builder = new StringBuilder();
+		return stamp(builder, "ij", ijLocation) ? builder.toString() : null;
+	}
+
+	private File getFile(final String fingerprint) {
+		return new File(directory, fingerprint + ".jar");
+	}
+
+	/**
+	 * Appends a stamp of the given location, i.e. its path, size and
+	 * modification time (for directories: the number of files and the newest
+	 * modification time of all files therein).
+	 */
+	private static boolean stamp(final StringBuilder builder, final String label,
+		final URL location)
+	{
+		if (location == null) return false;
+		final File file;
+		try {
+			file = Utils.urlToFile(location);
+		}
+		catch (final IllegalArgumentException e) {
+			return false;
+		}
+		if (!file.exists()) return false;
+		builder.append(label).append(": ").append(file.getAbsolutePath());
+		if (file.isDirectory()) {
+			final long[] stamp = new long[2];
+			stampDirectory(file, stamp);
+			builder.append(" (").append(stamp[0]).append(" files, ")
+				.append(stamp[1]).append(")\n");
+		}
+		else {
+			builder.append(" (").append(file.length()).append(" bytes, ")
+				.append(file.lastModified()).append(")\n");
+		}
+		return true;
+	}
+
+	private static void stampDirectory(final File directory, final long[] stamp) {
+		final File[] list = directory.listFiles();
+		if (list == null) return;
+		for (final File file : list) {
+			if (file.isDirectory()) {
+				stampDirectory(file, stamp);
+			}
+			else {
+				stamp[0]++;
+				stamp[1] = Math.max(stamp[1], file.lastModified());
+			}
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+import java.lang.reflect.Array;
+
+/**
+ * Pixels and metadata of an image, in a form that can cross class loaders.
+ * <p>
+ * An {@code ij.ImagePlus} cannot be passed into or out of a
+ * {@link LegacyEnvironment}, as the calling code and the environment have
+ * their own copies of that class. The pixel arrays, however, are of primitive
+ * array types ({@code byte[]}, {@code short[]}, {@code float[]} or
+ * {@code int[]} for RGB) and are therefore shared by all class loaders.
+ * Instances of this class wrap such arrays without copying them; see
+ * {@link LegacyEnvironment#createImage(PixelData)} and
+ * {@link LegacyEnvironment#getPixelData(int)}.
+ * </p>
+ */
+public final class PixelData {
+
+	private final String title;
+	private final int width, height;
+	private final Object[] planes;
+	private int channels = 1, slices, frames = 1;
+	private double pixelWidth = 1, pixelHeight = 1, pixelDepth = 1;
+	private String unit = "pixel";
+
+	/**
+	 * Wraps the given planes.
+	 * <p>
+	 * By default, the planes are interpreted as slices of a single-channel,
+	 * single-frame stack without spatial calibration.
+	 * </p>
+	 * 
+	 * @param title the title of the image
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param planes the pixel arrays, all of the same type and of length
+	 *          {@code width * height}; they are not copied
+	 */
+	public PixelData(final String title, final int width, final int height,
+		final Object... planes)
+	{
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Invalid dimensions: " + width +
+				"x" + height);
+		}
+		if (planes == null || planes.length == 0) {
+			throw new IllegalArgumentException("No pixels");
+		}
+		final Class<?> type = planes[0] == null ? null : planes[0].getClass();
+		if (type != byte[].class && type != short[].class &&
+			type != float[].class && type != int[].class)
+		{
+			throw new IllegalArgumentException("Unsupported pixel type: " + type);
+		}
+		for (final Object plane : planes) {
+			if (plane == null || plane.getClass() != type) {
+				throw new IllegalArgumentException("Mixed pixel types");
+			}
+			if (Array.getLength(plane) != width * height) {
+				throw new IllegalArgumentException("Plane size does not match " +
+					width + "x" + height);
+			}
+		}
+		this.title = title;
+		this.width = width;
+		this.height = height;
+		this.planes = planes;
+		slices = planes.length;
+	}
+
+	/**
+	 * Sets the hyperstack dimensions.
+	 * 
+	 * @param channels the number of channels
+	 * @param slices the number of slices
+	 * @param frames the number of frames
+	 */
+	public void setDimensions(final int channels, final int slices,
+		final int frames)
+	{
+		if (channels < 1 || slices < 1 || frames < 1 ||
+			channels * slices * frames != planes.length)
+		{
+			throw new IllegalArgumentException("Dimensions " + channels + "x" +
+				slices + "x" + frames + " do not match " + planes.length + " planes");
+		}
+		this.channels = channels;
+		this.slices = slices;
+		this.frames = frames;
+	}
+
+	/**
+	 * Sets the spatial calibration.
+	 * 
+	 * @param pixelWidth the width of a pixel
+	 * @param pixelHeight the height of a pixel
+	 * @param pixelDepth the distance between slices
+	 * @param unit the unit of length
+	 */
+	public void setCalibration(final double pixelWidth,
+		final double pixelHeight, final double pixelDepth, final String unit)
+	{
+		this.pixelWidth = pixelWidth;
+		this.pixelHeight = pixelHeight;
+		this.pixelDepth = pixelDepth;
+		this.unit = unit;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the pixel arrays, in ImageJ 1.x' stack order (channels vary
+	 * fastest, then slices, then frames).
+	 * 
+	 * @return the planes; they are not copied
+	 */
+	public Object[] getPlanes() {
+		return planes;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int getSlices() {
+		return slices;
+	}
+
+	public int getFrames() {
+		return frames;
+	}
+
+	public double getPixelWidth() {
+		return pixelWidth;
+	}
+
+	public double getPixelHeight() {
+		return pixelHeight;
+	}
+
+	public double getPixelDepth() {
+		return pixelDepth;
+	}
+
+	public String getUnit() {
+		return unit;
+	}
+}
@@ -0,0 +1,509 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Maps packages to the class path elements of ImageJ 1.x' plugin class loader.
+ * <p>
+ * Fiji-sized installations have hundreds of {@code .jar} files in their
+ * {@code plugins/} and {@code jars/} directories, and a plain
+ * {@link java.net.URLClassLoader} needs to look into every single one of them,
+ * in order, for every class or resource it does not find. This index allows the
+ * patched {@code ij.io.PluginClassLoader} to go straight to the {@code .jar}
+ * files containing the package in question. When a package lives in more than
+ * one {@code .jar} file, the order in which they were added (as determined by
+ * {@link LegacyHooks#addPluginDirectory(File, String[])}) is retained.
+ * </p>
+ * <p>
+ * The list of packages contained in the latest version of a given
+ * {@code .jar} file is cached for the lifetime of the JVM, keyed on its path
+ * and checked against its size and modification time. The {@code .jar} files
+ * are closed after indexing; only the ones from which classes are actually
+ * read are reopened, and kept open until {@link #close()} is called (the
+ * patched {@code PluginClassLoader.close()} does that).
+ * </p>
+ * <p>
+ * Lookups do not lock the index, so that threads loading plugin classes
+ * concurrently do not contend on it.
+ * </p>
+ * <p>
+ * Do not use: for internal use only.
+ * </p>
+ */
+public final class PluginClassPathIndex {
+
+	/**
+	 * What is known about the {@code .jar} files, keyed by absolute path. Only
+	 * the latest version of each {@code .jar} file is remembered.
+	 */
+	private final static Map<String, JarInfo> jarInfos =
+		new HashMap<String, JarInfo>();
+
+	private final Set<String> seen = new HashSet<String>();
+	private final List<URL> urls = new CopyOnWriteArrayList<URL>();
+	/** The {@link Jar} or directory for each class path element. */
+	private final List<Object> elements = new CopyOnWriteArrayList<Object>();
+	/** The positions of the {@code .jar} files containing each package. */
+	private final Map<String, int[]> packages =
+		new ConcurrentHashMap<String, int[]>();
+	/** The positions of the directories, which are not indexed. */
+	private final List<Integer> directories =
+		new CopyOnWriteArrayList<Integer>();
+	private volatile boolean complete = true;
+	private volatile boolean closed;
+
+	/** The packages of a given version of a {@code .jar} file. */
+	private static class JarInfo {
+
+		private final long length, lastModified;
+		/** {@code null} if a URLClassLoader would look beyond the entries */
+		private final String[] packages;
+
+		private JarInfo(final File file, final String[] packages) {
+			length = file.length();
+			lastModified = file.lastModified();
+			this.packages = packages;
+		}
+
+		private boolean isUpToDate(final File file) {
+			return file.length() == length && file.lastModified() == lastModified;
+		}
+	}
+
+	/** A {@code .jar} file class path element, opened on demand. */
+	private static class Jar {
+
+		private final File file;
+		/** Guarded by the index */
+		private JarFile opened;
+
+		private Jar(final File file) {
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Adds a class path element.
+	 * 
+	 * @param url the {@code .jar} file or directory to add
+	 */
+	public synchronized void add(final URL url) {
+		if (url == null || closed || !seen.add(url.toString()) || !complete) {
+			return;
+		}
+		final int position = urls.size();
+		urls.add(url);
+		if (!"file".equals(url.getProtocol())) {
+			complete = false;
+			return;
+		}
+		final File file;
+		try {
+			file = Utils.urlToFile(url);
+		}
+		catch (final IllegalArgumentException e) {
+			complete = false;
+			return;
+		}
+		if (file.isDirectory()) {
+			elements.add(file);
+			directories.add(position);
+			return;
+		}
+		if (!file.isFile()) {
+			// nothing to find there
+			elements.add(null);
+			return;
+		}
+		final String[] jarPackages;
+		try {
+			jarPackages = getPackages(file);
+		}
+		catch (final IOException e) {
+			complete = false;
+			return;
+		}
+		if (jarPackages == null) {
+			complete = false;
+			return;
+		}
+		// NB: publish the element before the positions referring to it
+		elements.add(new Jar(file));
+		for (final String name : jarPackages) {
+			final int[] list = packages.get(name);
+			final int[] newList;
+			if (list == null) newList = new int[] { position };
+			else {
+				newList = Arrays.copyOf(list, list.length + 1);
+				newList[list.length] = position;
+			}
+			packages.put(name, newList);
+		}
+	}
+
+	/**
+	 * Determines whether all class path elements could be indexed.
+	 * <p>
+	 * If this returns {@code false}, the class loader needs to fall back to
+	 * looking through all of its class path elements.
+	 * </p>
+	 * 
+	 * @return whether the index is complete
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Closes the {@code .jar} files opened by this index.
+	 * <p>
+	 * Afterwards, the index is incomplete, i.e. the class loader falls back to
+	 * its own (closed) class path.
+	 * </p>
+	 */
+	public synchronized void close() {
+		closed = true;
+		complete = false;
+		for (final Object element : elements) {
+			if (!(element instanceof Jar)) continue;
+			final Jar jar = (Jar) element;
+			if (jar.opened == null) continue;
+			try {
+				jar.opened.close();
+			}
+			catch (final IOException e) {
+				// ignore
+			}
+			jar.opened = null;
+		}
+	}
+
+	/**
+	 * Finds the first class path element containing the given resource.
+	 * 
+	 * @param name the resource name, e.g. {@code ij/IJ.class}
+	 * @return the position of the class path element, or -1 if none contains
+	 *         the resource
+	 */
+	public int find(final String name) {
+		if (closed) return -1;
+		final int slash = name.lastIndexOf('/');
+		final int[] jars = packages.get(slash < 0 ? "" : name.substring(0, slash));
+		int i = 0, j = 0;
+		final int jarCount = jars == null ? 0 : jars.length;
+		for (;;) {
+			final int jar = i < jarCount ? jars[i] : Integer.MAX_VALUE;
+			final int directory =
+				j < directories.size() ? directories.get(j) : Integer.MAX_VALUE;
+			if (jar == Integer.MAX_VALUE && directory == Integer.MAX_VALUE) {
+				return -1;
+			}
+			if (jar < directory) {
+				if (getJarEntry(jar, name) != null) return jar;
+				i++;
+			}
+			else {
+				if (new File((File) elements.get(directory), name).isFile()) {
+					return directory;
+				}
+				j++;
+			}
+		}
+	}
+
+	/**
+	 * Finds the given resource.
+	 * 
+	 * @param name the resource name
+	 * @return the URL of the resource, or {@code null} if it was not found
+	 */
+	public URL findResource(final String name) {
+		final int position = find(name);
+		return position < 0 ? null : getResource(position, name);
+	}
+
+	/**
+	 * Gets the URL of a resource in the given class path element.
+	 * 
+	 * @param position the position of the class path element
+	 * @param name the resource name
+	 * @return the URL
+	 */
+	public URL getResource(final int position, final String name) {
+		final Object element = elements.get(position);
+		try {
+			if (element instanceof File) {
+				return new File((File) element, name).toURI().toURL();
+			}
+			return new URL("jar:" + urls.get(position) + "!/" + name);
+		}
+		catch (final MalformedURLException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a resource from the given class path element.
+	 * 
+	 * @param position the position of the class path element
+	 * @param name the resource name
+	 * @return the contents
+	 * @throws IOException
+	 */
+	public byte[] read(final int position, final String name)
+		throws IOException
+	{
+		final JarEntry entry = getJarEntry(position, name);
+		if (entry != null) return read(position, entry);
+		if (elements.get(position) instanceof Jar) {
+			throw new IOException("Not found: " + name);
+		}
+		return read(getResource(position, name).openStream());
+	}
+
+	/**
+	 * Looks up a {@code .jar} file entry.
+	 * <p>
+	 * After the entry was read via {@link #read(int, JarEntry)}, its code
+	 * signers are known, see {@link #getCodeSource(int, JarEntry)}.
+	 * </p>
+	 * 
+	 * @param position the position of the class path element
+	 * @param name the resource name
+	 * @return the entry, or {@code null} if the element is not a {@code .jar}
+	 *         file or has no such entry
+	 */
+	public JarEntry getJarEntry(final int position, final String name) {
+		final JarFile jar = getJarFile(position);
+		return jar == null ? null : jar.getJarEntry(name);
+	}
+
+	/**
+	 * Reads an entry of a {@code .jar} file, verifying its signature if the
+	 * {@code .jar} file is signed.
+	 * 
+	 * @param position the position of the class path element
+	 * @param entry the entry obtained via {@link #getJarEntry(int, String)}
+	 * @return the contents
+	 * @throws IOException
+	 */
+	public byte[] read(final int position, final JarEntry entry)
+		throws IOException
+	{
+		final JarFile jar = getJarFile(position);
+		if (jar == null) {
+			throw new IOException("Not a .jar file: " + getURL(position));
+		}
+		return read(jar.getInputStream(entry));
+	}
+
+	/**
+	 * Gets the given {@code .jar} file, opening it if necessary.
+	 * <p>
+	 * Only the {@code .jar} files from which something is actually read are
+	 * kept open, not all the ones that were indexed.
+	 * </p>
+	 * 
+	 * @return the {@code .jar} file, or {@code null} if the class path element
+	 *         is not a readable {@code .jar} file
+	 */
+	private JarFile getJarFile(final int position) {
+		final Object element = elements.get(position);
+		if (!(element instanceof Jar)) return null;
+		final Jar jar = (Jar) element;
+		synchronized (this) {
+			if (closed) throw new IllegalStateException("Closed");
+			if (jar.opened == null) try {
+				jar.opened = new JarFile(jar.file);
+			}
+			catch (final IOException e) {
+				return null;
+			}
+			return jar.opened;
+		}
+	}
+
+	private static byte[] read(final InputStream in) throws IOException {
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[16384];
+			for (;;) {
+				final int count = in.read(buffer);
+				if (count < 0) break;
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Gets the URL of the given class path element.
+	 * 
+	 * @param position the position of the class path element
+	 * @return the URL
+	 */
+	public URL getURL(final int position) {
+		return urls.get(position);
+	}
+
+	/**
+	 * Gets the code source for a class in the given class path element.
+	 * 
+	 * @param position the position of the class path element
+	 * @param entry the {@code .jar} file entry of the class, which must have been
+	 *          read completely, or {@code null}
+	 * @return the code source, with the signers of the entry, if any
+	 */
+	public CodeSource getCodeSource(final int position, final JarEntry entry) {
+		final CodeSigner[] signers = entry == null ? null : entry.getCodeSigners();
+		return new CodeSource(getURL(position), signers);
+	}
+
+	/**
+	 * Determines whether the manifest seals the given package, the way
+	 * {@link java.net.URLClassLoader} does.
+	 * 
+	 * @param packageName the package name, e.g. {@code ij.io}
+	 * @param manifest the manifest
+	 * @return whether the package is sealed
+	 */
+	public static boolean isSealed(final String packageName,
+		final Manifest manifest)
+	{
+		final Attributes attributes =
+			manifest.getAttributes(packageName.replace('.', '/').concat("/"));
+		String sealed = null;
+		if (attributes != null) {
+			sealed = attributes.getValue(Attributes.Name.SEALED);
+		}
+		if (sealed == null) {
+			sealed = manifest.getMainAttributes().getValue(Attributes.Name.SEALED);
+		}
+		return "true".equalsIgnoreCase(sealed);
+	}
+
+	/**
+	 * Gets the manifest of the given class path element.
+	 * 
+	 * @param position the position of the class path element
+	 * @return the manifest, or {@code null}
+	 */
+	public Manifest getManifest(final int position) {
+		final JarFile jar = getJarFile(position);
+		if (jar == null) return null;
+		try {
+			return jar.getManifest();
+		}
+		catch (final IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Lists the packages of the given {@code .jar} file.
+	 * <p>
+	 * The {@code .jar} file is opened only if its current version is not known
+	 * yet, and closed right away.
+	 * </p>
+	 * 
+	 * @return the packages, or {@code null} if the {@code .jar} file cannot be
+	 *         indexed because a {@link java.net.URLClassLoader} would follow its
+	 *         {@code Class-Path} or use its versioned entries
+	 */
+	private static String[] getPackages(final File file) throws IOException {
+		final String key = file.getAbsolutePath();
+		synchronized (jarInfos) {
+			final JarInfo cached = jarInfos.get(key);
+			if (cached != null && cached.isUpToDate(file)) return cached.packages;
+		}
+		final JarFile jar = new JarFile(file);
+		final String[] packages;
+		try {
+			packages = getPackages(jar);
+		}
+		finally {
+			jar.close();
+		}
+		synchronized (jarInfos) {
+			// replaces the information about previous versions
+			jarInfos.put(key, new JarInfo(file, packages));
+		}
+		return packages;
+	}
+
+	private static String[] getPackages(final JarFile jar) throws IOException {
+		final Manifest manifest = jar.getManifest();
+		if (manifest != null) {
+			final Attributes attributes = manifest.getMainAttributes();
+			if (attributes.getValue(Attributes.Name.CLASS_PATH) != null ||
+				"true".equalsIgnoreCase(attributes.getValue("Multi-Release")))
+			{
+				return null;
+			}
+		}
+		final Set<String> result = new LinkedHashSet<String>();
+		for (final Enumeration<JarEntry> iter = jar.entries(); iter
+			.hasMoreElements();)
+		{
+			final JarEntry entry = iter.nextElement();
+			if (entry.isDirectory()) continue;
+			final String name = entry.getName();
+			final int slash = name.lastIndexOf('/');
+			result.add(slash < 0 ? "" : name.substring(0, slash));
+		}
+		return result.toArray(new String[result.size()]);
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the {@code .jar} files in the extra plugin directories.
+ * <p>
+ * {@link LegacyHooks#handleExtraPluginJars()} is called several times while
+ * ImageJ 1.x starts up, and again upon <i>Help&gt;Refresh Menus</i>. Rather
+ * than walking the directory trees every time, the listings are cached for the
+ * lifetime of the JVM. A directory is listed again when its modification time
+ * changed since it was listed, or when a {@link WatchService} reports a change
+ * in it. Directories that cannot be watched and whose modification time
+ * cannot be read are listed anew on every call, which is what happened before.
+ * </p>
+ */
+final class PluginDirectoryScanner {
+
+	private PluginDirectoryScanner() {
+		// prevent instantiation of utility class
+	}
+
+	private final static EnumSet<FileVisitOption> FOLLOW_LINKS =
+		EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+
+	/** The subdirectories and {@code .jar} files of each known directory. */
+	private final static Map<Path, List<Entry>> listings =
+		new HashMap<Path, List<Entry>>();
+	/**
+	 * The modification times of the listed directories, or {@link #RACY} if
+	 * the directory might have changed without its modification time changing.
+	 */
+	private final static Map<Path, Long> modified = new HashMap<Path, Long>();
+	private final static Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+	private final static Set<Path> unwatched = new HashSet<Path>();
+	private static WatchService watcher;
+	private static boolean watcherFailed;
+
+	/**
+	 * The coarsest modification time granularity we expect from a file system
+	 * (FAT has two seconds). A listing taken within that time of the latest
+	 * modification is not trusted, as a subsequent change might not update the
+	 * modification time.
+	 */
+	private final static long GRANULARITY_MILLIS = 2000;
+	private final static long RACY = Long.MIN_VALUE;
+
+	private static class Entry {
+
+		private final Path path;
+		private final boolean directory;
+
+		private Entry(final Path path, final boolean directory) {
+			this.path = path;
+			this.directory = directory;
+		}
+	}
+
+	/**
+	 * Adds the {@code .jar} files contained in the given directory and its
+	 * subdirectories to the list.
+	 * 
+	 * @param directory the directory to scan
+	 * @param result the list to add the {@code .jar} files to
+	 */
+	static synchronized void scan(final File directory, final List<File> result) {
+		final Set<Path> dirty = new LinkedHashSet<Path>(unwatched);
+		if (watcher != null) {
+			for (;;) {
+				final WatchKey key = watcher.poll();
+				if (key == null) break;
+				key.pollEvents();
+				dirty.add((Path) key.watchable());
+				key.reset();
+			}
+		}
+		for (final Path path : dirty) {
+			if (listings.containsKey(path)) update(path);
+		}
+		collect(directory.toPath(), result, new HashSet<Path>());
+	}
+
+	private static void collect(final Path directory, final List<File> result,
+		final Set<Path> seen)
+	{
+		if (!seen.add(directory)) return;
+		if (!listings.containsKey(directory) || !isUpToDate(directory)) {
+			update(directory);
+		}
+		final List<Entry> listing = listings.get(directory);
+		if (listing == null) return;
+		for (final Entry entry : listing) {
+			if (entry.directory) collect(entry.path, result, seen);
+			else result.add(entry.path.toFile());
+		}
+	}
+
+	/**
+	 * Determines whether the modification time of the given directory is still
+	 * the same as when it was listed.
+	 */
+	private static boolean isUpToDate(final Path directory) {
+		final Long stamp = modified.get(directory);
+		if (stamp == null || stamp == RACY) return false;
+		try {
+			return stamp == Files.getLastModifiedTime(directory).toMillis();
+		}
+		catch (final IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Lists the given directory again, scanning subdirectories that were added
+	 * and forgetting the ones that were removed.
+	 */
+	private static void update(final Path directory) {
+		final List<Entry> listing = list(directory);
+		if (listing == null) {
+			forget(directory);
+			return;
+		}
+		final List<Entry> previous = listings.put(directory, listing);
+		final Set<Path> current = new HashSet<Path>();
+		for (final Entry entry : listing) {
+			if (!entry.directory) continue;
+			current.add(entry.path);
+			if (!listings.containsKey(entry.path)) update(entry.path);
+		}
+		if (previous != null) {
+			for (final Entry entry : previous) {
+				if (entry.directory && !current.contains(entry.path)) {
+					forget(entry.path);
+				}
+			}
+		}
+	}
+
+	private static void forget(final Path directory) {
+		final List<Entry> listing = listings.remove(directory);
+		modified.remove(directory);
+		final WatchKey key = keys.remove(directory);
+		if (key != null) key.cancel();
+		unwatched.remove(directory);
+		if (listing == null) return;
+		for (final Entry entry : listing) {
+			if (entry.directory) forget(entry.path);
+		}
+	}
+
+	/**
+	 * Lists the subdirectories and {@code .jar} files in the given directory.
+	 * 
+	 * @return the entries, or null if the directory could not be read
+	 */
+	private static List<Entry> list(final Path directory) {
+		final List<Entry> result = new ArrayList<Entry>();
+		final boolean[] failed = { false };
+		long stamp;
+		try {
+			stamp = Files.getLastModifiedTime(directory).toMillis();
+			if (System.currentTimeMillis() - stamp < GRANULARITY_MILLIS) stamp = RACY;
+		}
+		catch (final IOException e) {
+			stamp = RACY;
+		}
+		try {
+			Files.walkFileTree(directory, FOLLOW_LINKS, 1,
+				new SimpleFileVisitor<Path>()
+			{
+
+				@Override
+				public FileVisitResult visitFile(final Path file,
+					final BasicFileAttributes attrs)
+				{
+					if (attrs.isDirectory()) {
+						if (!isLoop(directory, file)) result.add(new Entry(file, true));
+					}
+					else if (attrs.isRegularFile() &&
+						file.getFileName().toString().endsWith(".jar"))
+					{
+						result.add(new Entry(file, false));
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(final Path file,
+					final IOException exc)
+				{
+					if (file.equals(directory)) failed[0] = true;
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		catch (final IOException e) {
+			failed[0] = true;
+		}
+		if (failed[0]) return null;
+		modified.put(directory, stamp);
+		watch(directory);
+		return result;
+	}
+
+	/**
+	 * Determines whether a symbolic link points to one of its ancestors.
+	 */
+	private static boolean isLoop(final Path directory, final Path child) {
+		if (!Files.isSymbolicLink(child)) return false;
+		try {
+			return directory.toRealPath().startsWith(child.toRealPath());
+		}
+		catch (final IOException e) {
+			return true;
+		}
+	}
+
+	private static void watch(final Path directory) {
+		if (keys.containsKey(directory)) return;
+		if (watcher == null && !watcherFailed) try {
+			watcher = FileSystems.getDefault().newWatchService();
+		}
+		catch (final IOException e) {
+			watcherFailed = true;
+		}
+		catch (final UnsupportedOperationException e) {
+			watcherFailed = true;
+		}
+		if (watcher != null) try {
+			keys.put(directory, directory.register(watcher, ENTRY_CREATE,
+				ENTRY_DELETE));
+			unwatched.remove(directory);
+			return;
+		}
+		catch (final IOException e) {
+			// fall through
+		}
+		catch (final UnsupportedOperationException e) {
+			// fall through
+		}
+		unwatched.add(directory);
+	}
+
+}
@@ -0,0 +1,327 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Remembers the menu entries of ImageJ 1.x plugin {@code .jar} files.
+ * <p>
+ * To build its menus, ImageJ 1.x opens every plugin {@code .jar} file to look
+ * for a {@code plugins.config} file and, if there is none, enumerates all of
+ * its entries to generate one. With hundreds of {@code .jar} files, this is
+ * the slowest part of ImageJ 1.x' startup, and it is repeated upon every
+ * <i>Refresh Menus</i>. This index keeps the (possibly generated)
+ * {@code plugins.config} of each {@code .jar} file, keyed on its path, size
+ * and modification time, so that only the {@code .jar} files which changed
+ * need to be opened.
+ * </p>
+ * <p>
+ * The index is kept in memory for the lifetime of the JVM and, if the system
+ * property {@code ij1.patcher.cache} points to a directory, on disk. As the
+ * generated {@code plugins.config} files depend on the ImageJ 1.x version,
+ * there is one index per ImageJ 1.x location, and an index written for a
+ * different (or changed) {@code ij.jar} is discarded.
+ * </p>
+ * <p>
+ * Do not use: for internal use only.
+ * </p>
+ */
+public final class PluginsConfigIndex {
+
+	/**
+	 * Increment this whenever the format changes.
+	 */
+	private final static int FORMAT_VERSION = 2;
+
+	private final static String FILE_NAME = "plugins-config.idx";
+
+	private static final Map<String, PluginsConfigIndex> defaultIndices =
+		new HashMap<String, PluginsConfigIndex>();
+	/** The indices per class loader, to stamp each ImageJ 1.x only once */
+	private static final Map<ClassLoader, PluginsConfigIndex> loaderIndices =
+		new WeakHashMap<ClassLoader, PluginsConfigIndex>();
+
+	private final File file;
+	/** The stamp of the ImageJ 1.x classes which generated the entries */
+	private final String ijStamp;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private boolean loaded, dirty;
+
+	private static class Entry {
+
+		private final long length, lastModified;
+		/** The contents of the {@code plugins.config}, or null if there is none */
+		private final byte[] config;
+
+		private Entry(final long length, final long lastModified,
+			final byte[] config)
+		{
+			this.length = length;
+			this.lastModified = lastModified;
+			this.config = config;
+		}
+
+		private boolean isUpToDate(final File jar) {
+			return jar.length() == length && jar.lastModified() == lastModified;
+		}
+	}
+
+	/**
+	 * Creates an index.
+	 * 
+	 * @param directory the directory in which to store the index, or
+	 *          {@code null} to keep it in memory only
+	 * @param ijStamp the stamp of the ImageJ 1.x classes, see
+	 *          {@link PatchedClassCache#stampImageJ(ClassLoader)}
+	 */
+	PluginsConfigIndex(final File directory, final String ijStamp) {
+		file = directory == null ? null : new File(directory, FILE_NAME);
+		this.ijStamp = ijStamp;
+	}
+
+	/**
+	 * Gets the index shared by all ImageJ 1.x instances in this JVM which use
+	 * the same ImageJ 1.x classes.
+	 * 
+	 * @param ijClass a class of the ImageJ 1.x instance, e.g. {@code ij.Menus}
+	 * @return the index
+	 */
+	public static synchronized PluginsConfigIndex getDefault(
+		final Class<?> ijClass)
+	{
+		final ClassLoader loader = ijClass.getClassLoader();
+		PluginsConfigIndex index = loaderIndices.get(loader);
+		if (index != null) return index;
+		final String stamp = PatchedClassCache.stampImageJ(loader);
+		final String key = stamp == null ? "" : stamp;
+		index = defaultIndices.get(key);
+		if (index == null) {
+			final String path =
+				System.getProperty(PatchedClassCache.CACHE_DIRECTORY_PROPERTY);
+			// without a stamp, the index must not outlive the JVM
+			index = new PluginsConfigIndex(stamp == null || path == null ||
+				path.trim().length() == 0 ? null : new File(path), key);
+			defaultIndices.put(key, index);
+		}
+		loaderIndices.put(loader, index);
+		return index;
+	}
+
+	/**
+	 * Determines whether the index knows the given {@code .jar} file in its
+	 * current version.
+	 * 
+	 * @param jar the path to the {@code .jar} file
+	 * @return whether {@link #get(String)} can be used instead of opening the
+	 *         {@code .jar} file
+	 */
+	public synchronized boolean contains(final String jar) {
+		load();
+		final File jarFile = new File(jar);
+		final Entry entry = entries.get(jarFile.getAbsolutePath());
+		return entry != null && jarFile.isFile() && entry.isUpToDate(jarFile);
+	}
+
+	/**
+	 * Gets the recorded {@code plugins.config} of the given {@code .jar} file.
+	 * 
+	 * @param jar the path to the {@code .jar} file
+	 * @return the contents, or {@code null} if the {@code .jar} file has no
+	 *         menu entries
+	 */
+	public synchronized InputStream get(final String jar) {
+		load();
+		final Entry entry = entries.get(new File(jar).getAbsolutePath());
+		if (entry == null || entry.config == null) return null;
+		return new ByteArrayInputStream(entry.config);
+	}
+
+	/**
+	 * Records the {@code plugins.config} of the given {@code .jar} file.
+	 * 
+	 * @param jar the path to the {@code .jar} file
+	 * @param in the contents, or {@code null} if the {@code .jar} file has no
+	 *          menu entries; the stream is read fully and closed
+	 * @return a stream with the same contents, or {@code null}; if reading
+	 *         failed, nothing is recorded and the returned stream fails with the
+	 *         same error, so that ImageJ 1.x reports it as usual
+	 */
+	public InputStream put(final String jar, final InputStream in) {
+		byte[] config = null;
+		if (in != null) try {
+			config = readFully(in);
+		}
+		catch (final IOException e) {
+			return new InputStream() {
+
+				@Override
+				public int read() throws IOException {
+					throw e;
+				}
+			};
+		}
+		final File jarFile = new File(jar);
+		if (jarFile.isFile()) synchronized (this) {
+			load();
+			final String key = jarFile.getAbsolutePath();
+			final Entry entry = entries.get(key);
+			if (entry == null || !entry.isUpToDate(jarFile) ||
+				!Arrays.equals(entry.config, config))
+			{
+				entries.put(key, new Entry(jarFile.length(), jarFile.lastModified(),
+					config));
+				dirty = true;
+			}
+		}
+		return config == null ? null : new ByteArrayInputStream(config);
+	}
+
+	/**
+	 * Writes the index to disk, if it changed.
+	 */
+	public synchronized void save() {
+		if (!dirty || file == null) return;
+		dirty = false;
+		File tmp = null;
+		try {
+			final File directory = file.getParentFile();
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Could not make directory: " + directory);
+			}
+			tmp = File.createTempFile(FILE_NAME, ".tmp", directory);
+			final DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+				new FileOutputStream(tmp)));
+			try {
+				// forget about .jar files that went away
+				for (final Iterator<String> iter = entries.keySet().iterator(); iter
+					.hasNext();)
+				{
+					if (!new File(iter.next()).isFile()) iter.remove();
+				}
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(ijStamp);
+				out.writeInt(entries.size());
+				for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+					final Entry value = entry.getValue();
+					out.writeUTF(entry.getKey());
+					out.writeLong(value.length);
+					out.writeLong(value.lastModified);
+					out.writeInt(value.config == null ? -1 : value.config.length);
+					if (value.config != null) out.write(value.config);
+				}
+			}
+			finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				// Windows cannot rename onto an existing file
+				if (!file.delete() || !tmp.renameTo(file)) {
+					throw new IOException("Could not rename " + tmp + " to " + file);
+				}
+			}
+		}
+		catch (final IOException e) {
+			System.err.println("Warning: could not write plugins.config index " +
+				file + ": " + e.getMessage());
+		}
+		finally {
+			if (tmp != null && tmp.exists()) tmp.delete();
+		}
+	}
+
+	private void load() {
+		if (loaded) return;
+		loaded = true;
+		if (file == null || !file.isFile()) return;
+		try {
+			final DataInputStream in = new DataInputStream(new GZIPInputStream(
+				new FileInputStream(file)));
+			try {
+				if (in.readInt() != FORMAT_VERSION) return;
+				// generated for a different ij.jar
+				if (!ijStamp.equals(in.readUTF())) return;
+				final int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					final String path = in.readUTF();
+					final long length = in.readLong();
+					final long lastModified = in.readLong();
+					final int size = in.readInt();
+					byte[] config = null;
+					if (size >= 0) {
+						config = new byte[size];
+						in.readFully(config);
+					}
+					entries.put(path, new Entry(length, lastModified, config));
+				}
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (final IOException e) {
+			System.err.println("Warning: ignoring corrupt plugins.config index " +
+				file + ": " + e.getMessage());
+			entries.clear();
+		}
+	}
+
+	private static byte[] readFully(final InputStream in) throws IOException {
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[16384];
+			for (;;) {
+				final int count = in.read(buffer);
+				if (count < 0) break;
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+}
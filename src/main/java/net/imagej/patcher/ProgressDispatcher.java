@@ -0,0 +1,220 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces progress and status updates before handing them to the
+ * {@link LegacyHooks}.
+ * <p>
+ * ImageJ 1.x filters call {@code IJ.showProgress()} and {@code IJ.showStatus()}
+ * from their innermost loops. When the system property
+ * {@value #MAX_RATE_PROPERTY} is set to a positive number, the patched
+ * {@code ij.IJ} methods only store the latest value in a volatile field, and a
+ * single dispatcher thread (shared by all legacy environments) delivers the
+ * changed values to the hooks at most that many times per second. Intermediate
+ * values are skipped; of the two {@code showProgress()} variants, only the one
+ * called last is delivered, so that the final progress wins.
+ * </p>
+ * <p>
+ * Do not use: for internal use only.
+ * </p>
+ */
+public final class ProgressDispatcher {
+
+	/** The maximal number of deliveries per second; 0 disables coalescing. */
+	public static final String MAX_RATE_PROPERTY = "ij1.patcher.progress.maxRate";
+
+	private static final String NO_STATUS = new String();
+	private static ScheduledExecutorService executor;
+
+	private volatile LegacyHooks hooks;
+	private volatile double progress = Double.NaN;
+	private volatile long indexProgress = Long.MIN_VALUE;
+	/** Whether {@link #indexProgress} holds the latest progress. */
+	private volatile boolean indexed;
+	private volatile String status = NO_STATUS;
+
+	// only accessed by the dispatcher thread
+	private double deliveredProgress = Double.NaN;
+	private long deliveredIndexProgress = Long.MIN_VALUE;
+	private boolean deliveredIndexed;
+	private String deliveredStatus = NO_STATUS;
+
+	/**
+	 * Creates a dispatcher if coalescing is enabled.
+	 * 
+	 * @return the dispatcher, or {@code null} if {@value #MAX_RATE_PROPERTY} is
+	 *         not set to a positive number
+	 */
+	public static ProgressDispatcher create() {
+		final int maxRate = Integer.getInteger(MAX_RATE_PROPERTY, 0);
+		return maxRate > 0 ? new ProgressDispatcher(maxRate) : null;
+	}
+
+	/**
+	 * Creates a dispatcher delivering at most {@code maxRate} times per second.
+	 * 
+	 * @param maxRate the maximal number of deliveries per second
+	 */
+	public ProgressDispatcher(final int maxRate) {
+		if (maxRate < 1) {
+			throw new IllegalArgumentException("Invalid rate: " + maxRate);
+		}
+		final Delivery delivery = new Delivery(this);
+		final long period = Math.max(1, TimeUnit.SECONDS.toMicros(1) / maxRate);
+		delivery.future =
+			getExecutor().scheduleAtFixedRate(delivery, period, period,
+				TimeUnit.MICROSECONDS);
+	}
+
+	/**
+	 * Sets the hooks receiving the updates.
+	 * 
+	 * @param hooks the hooks
+	 */
+	public void setHooks(final LegacyHooks hooks) {
+		this.hooks = hooks;
+	}
+
+	/**
+	 * Records a call to {@link LegacyHooks#showProgress(double)}.
+	 */
+	public void showProgress(final double progress) {
+		this.progress = progress;
+		indexed = false;
+	}
+
+	/**
+	 * Records a call to {@link LegacyHooks#showProgress(int, int)}.
+	 */
+	public void showProgress(final int currentIndex, final int finalIndex) {
+		indexProgress = ((long) currentIndex << 32) | (finalIndex & 0xffffffffl);
+		indexed = true;
+	}
+
+	/**
+	 * Records a call to {@link LegacyHooks#showStatus(String)}.
+	 */
+	public void showStatus(final String status) {
+		this.status = status;
+	}
+
+	/**
+	 * Delivers the values that changed since the previous delivery.
+	 */
+	void deliver() {
+		final LegacyHooks hooks = this.hooks;
+		if (hooks == null) return;
+		// NB: the flag is written after the value, so read it first
+		if (indexed) {
+			final long indexProgress = this.indexProgress;
+			if (!deliveredIndexed || indexProgress != deliveredIndexProgress) {
+				deliveredIndexed = true;
+				deliveredIndexProgress = indexProgress;
+				hooks.showProgress((int) (indexProgress >> 32), (int) indexProgress);
+			}
+		}
+		else {
+			final double progress = this.progress;
+			if (deliveredIndexed || Double.doubleToRawLongBits(progress) != Double
+				.doubleToRawLongBits(deliveredProgress))
+			{
+				deliveredIndexed = false;
+				deliveredProgress = progress;
+				hooks.showProgress(progress);
+			}
+		}
+		final String status = this.status;
+		if (status != deliveredStatus) {
+			deliveredStatus = status;
+			hooks.showStatus(status);
+		}
+	}
+
+	/**
+	 * Gets the dispatcher thread, which is also used by
+	 * {@link ImageRegistrations}.
+	 */
+	static synchronized ScheduledExecutorService getExecutor() {
+		if (executor == null) {
+			executor =
+				Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread =
+							new Thread(runnable, "ImageJ 1.x hooks dispatcher");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		}
+		return executor;
+	}
+
+	/**
+	 * Delivers the updates of a dispatcher until it is garbage collected.
+	 * <p>
+	 * The dispatcher is only weakly referenced so that the scheduled task does
+	 * not keep a legacy environment's class loader alive.
+	 * </p>
+	 */
+	private static class Delivery implements Runnable {
+
+		private final WeakReference<ProgressDispatcher> dispatcher;
+		private volatile ScheduledFuture<?> future;
+
+		private Delivery(final ProgressDispatcher dispatcher) {
+			this.dispatcher = new WeakReference<ProgressDispatcher>(dispatcher);
+		}
+
+		@Override
+		public void run() {
+			final ProgressDispatcher dispatcher = this.dispatcher.get();
+			if (dispatcher == null) {
+				if (future != null) future.cancel(false);
+				return;
+			}
+			try {
+				dispatcher.deliver();
+			}
+			catch (final Throwable t) {
+				// do not let a failing hook cancel the future deliveries
+				t.printStackTrace();
+			}
+		}
+	}
+}
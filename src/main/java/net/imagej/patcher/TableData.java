@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.patcher;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The columns of a results table, in a form that can cross class loaders.
+ * <p>
+ * Numeric columns are kept as {@code double[]} arrays, cells holding text are
+ * kept in a parallel {@code String[]} array, and the row labels (if any) as a
+ * {@code String[]} array. Nothing is formatted as text. See
+ * {@link LegacyEnvironment#getResultsTable(String)}.
+ * </p>
+ */
+public final class TableData {
+
+	private final String title;
+	private final int size;
+	private final Map<String, double[]> columns =
+		new LinkedHashMap<String, double[]>();
+	private final Map<String, String[]> textColumns =
+		new LinkedHashMap<String, String[]>();
+	private String[] labels;
+
+	/**
+	 * Constructs an empty table.
+	 * 
+	 * @param title the title of the table
+	 * @param size the number of rows
+	 */
+	public TableData(final String title, final int size) {
+		this.title = title;
+		this.size = size;
+	}
+
+	/**
+	 * Adds a column.
+	 * 
+	 * @param heading the column heading
+	 * @param values the numeric values; {@code NaN} for cells holding text
+	 * @param text the cells holding text, or {@code null} if there are none
+	 */
+	public void addColumn(final String heading, final double[] values,
+		final String[] text)
+	{
+		if (values.length != size || text != null && text.length != size) {
+			throw new IllegalArgumentException("Column " + heading +
+				" does not have " + size + " rows");
+		}
+		columns.put(heading, values);
+		if (text != null) textColumns.put(heading, text);
+	}
+
+	/**
+	 * Sets the row labels.
+	 * 
+	 * @param labels the labels, or {@code null} if there are none
+	 */
+	public void setLabels(final String[] labels) {
+		if (labels != null && labels.length != size) {
+			throw new IllegalArgumentException("Need " + size + " labels");
+		}
+		this.labels = labels;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Gets the number of rows.
+	 * 
+	 * @return the number of rows
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the column headings, in order.
+	 * 
+	 * @return the headings
+	 */
+	public String[] getHeadings() {
+		return columns.keySet().toArray(new String[columns.size()]);
+	}
+
+	/**
+	 * Gets the numeric values of a column.
+	 * 
+	 * @param heading the column heading
+	 * @return the values, or {@code null} if there is no such column
+	 */
+	public double[] getColumn(final String heading) {
+		return columns.get(heading);
+	}
+
+	/**
+	 * Gets the cells of a column that hold text.
+	 * 
+	 * @param heading the column heading
+	 * @return the text, with {@code null} for numeric cells, or {@code null} if
+	 *         the column has no text at all
+	 */
+	public String[] getTextColumn(final String heading) {
+		return textColumns.get(heading);
+	}
+
+	/**
+	 * Gets the row labels.
+	 * 
+	 * @return the labels, or {@code null} if the table has none
+	 */
+	public String[] getLabels() {
+		return labels;
+	}
+}
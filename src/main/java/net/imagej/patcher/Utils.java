@@ -128,6 +128,40 @@ class Utils {
 		}
 	}
 
+	/**
+	 * Gets the base location of the given class without loading it.
+	 * <p>
+	 * This is the counterpart to {@link #getLocation(Class)} for classes that
+	 * must not be loaded (yet) by the given class loader, e.g. because they are
+	 * to be patched.
+	 * </p>
+	 * 
+	 * @param loader the class loader in which to look for the class
+	 * @param className the name of the class
+	 * @return the location, or {@code null} if the class was not found
+	 */
+	static URL getLocation(final ClassLoader loader, final String className) {
+		final String suffix = className.replace('.', '/') + ".class";
+		final URL classResource = loader.getResource(suffix);
+		if (classResource == null) return null;
+
+		final String url = classResource.toString();
+		if (!url.endsWith(suffix)) return null; // weird URL
+
+		String path = url.substring(0, url.length() - suffix.length());
+
+		// remove the "jar:" prefix and "!/" suffix, if present
+		if (path.startsWith("jar:")) path = path.substring(4, path.length() - 2);
+
+		try {
+			return new URL(path);
+		}
+		catch (final MalformedURLException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
 	/**
 	 * Checks whether a class with the given name exists.
 	 * 
@@ -0,0 +1,126 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static net.imagej.patcher.TestUtils.getTestEnvironment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.scijava.test.TestUtils.createTemporaryDirectory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link BatchRunner}.
+ */
+public class BatchRunnerTest {
+
+	@Test
+	public void testRun() throws Exception {
+		final File tmp = createTemporaryDirectory("batch-");
+		final File in = new File(tmp, "in");
+		final File out = new File(tmp, "out");
+		assertTrue(in.mkdir());
+		assertTrue(out.mkdir());
+		for (int i = 0; i < 5; i++) {
+			new FileOutputStream(new File(in, "input" + i + ".txt")).close();
+		}
+		final File list = new File(tmp, "list.txt");
+		final FileOutputStream listOut = new FileOutputStream(list);
+		listOut.write("# comment\nin/input1.txt\n\n".getBytes("UTF-8"));
+		listOut.close();
+		assertEquals(1, BatchRunner.listInputs(list).size());
+		assertEquals(new File(in, "input1.txt"), BatchRunner.listInputs(list).get(0));
+
+		final List<File> inputs = new ArrayList<File>(BatchRunner.listInputs(in));
+		inputs.add(new File(in, "does-not-exist"));
+		final String macro = "input = call(\"ij.Macro.getValue\", getArgument(), \"input\", \"\");\n" +
+			"output = call(\"ij.Macro.getValue\", getArgument(), \"output\", \"\");\n" +
+			"if (!File.exists(input)) x = undefined;\n" +
+			"File.saveString(\"done\", output + \"/\" + File.getName(input));\n";
+		final BatchRunner runner = new BatchRunner(macro, inputs, out, 2) {
+
+			@Override
+			protected LegacyEnvironmentPool newPool() {
+				return new LegacyEnvironmentPool(2, 0, true) {
+
+					@Override
+					protected LegacyEnvironment newEnvironment()
+						throws ClassNotFoundException
+					{
+						return getTestEnvironment();
+					}
+				};
+			}
+		};
+		runner.setProgress(null);
+		final BatchRunner.Result result = runner.run();
+		assertEquals(6, result.getCount());
+		assertEquals(6, result.getRunCount());
+		assertEquals(5, out.list().length);
+		assertEquals(result.getFailures().toString(), 1, result.getFailures().size());
+		assertTrue(result.getLatency(50) <= result.getLatency(100));
+	}
+
+	@Test
+	public void testUnprocessed() throws Exception {
+		final List<File> inputs = new ArrayList<File>();
+		for (int i = 0; i < 3; i++) {
+			inputs.add(new File("input" + i));
+		}
+		final BatchRunner runner =
+			new BatchRunner("", inputs, createTemporaryDirectory("batch-"), 2)
+		{
+
+			@Override
+			protected LegacyEnvironmentPool newPool() {
+				return new LegacyEnvironmentPool(2, 0, true) {
+
+					@Override
+					protected LegacyEnvironment newEnvironment()
+						throws ClassNotFoundException
+					{
+						throw new ClassNotFoundException("ij.IJ");
+					}
+				};
+			}
+		};
+		runner.setProgress(null);
+		final BatchRunner.Result result = runner.run();
+		assertEquals(3, result.getCount());
+		assertEquals(0, result.getRunCount());
+		assertEquals(3, result.getFailures().size());
+		assertEquals(0, result.getLatency(100), 0);
+	}
+}
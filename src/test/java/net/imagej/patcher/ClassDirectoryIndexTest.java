@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.scijava.test.TestUtils.createTemporaryDirectory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link ClassDirectoryIndex}.
+ */
+public class ClassDirectoryIndexTest {
+
+	@Test
+	public void testFindMissing() throws Exception {
+		final File tmp = createTemporaryDirectory("class-dirs-");
+		final File cache = new File(tmp, "cache");
+		final File plugins = new File(tmp, "plugins");
+		touch(new File(plugins, "a/b/X.class"));
+		touch(new File(plugins, "c/README.txt"));
+
+		assertEquals(Arrays.asList(new File(plugins, "a/b"), new File(plugins,
+			"a")), findMissing(new ClassDirectoryIndex(cache), plugins));
+		assertTrue(new File(cache, "class-directories.idx").isFile());
+
+		// a fresh index picks up changes
+		touch(new File(plugins, "c/Y.class"));
+		final ClassDirectoryIndex index = new ClassDirectoryIndex(cache);
+		final List<File> missing = findMissing(index, plugins);
+		assertEquals(new HashSet<File>(Arrays.asList(new File(plugins, "a/b"),
+			new File(plugins, "a"), new File(plugins, "c"))), new HashSet<File>(
+			missing));
+		// subdirectories come first
+		assertTrue(missing.indexOf(new File(plugins, "a/b")) < missing
+			.indexOf(new File(plugins, "a")));
+
+		final ClassLoader parent = getClass().getClassLoader();
+		final ClassLoader loader = index.getClassLoader(parent, missing);
+		assertSame(loader, index.getClassLoader(parent, missing));
+		assertNotSame(loader, index.getClassLoader(parent, missing.subList(0, 1)));
+	}
+
+	private static void touch(final File file) throws Exception {
+		file.getParentFile().mkdirs();
+		assertTrue(file.createNewFile());
+	}
+
+	private static List<File> findMissing(final ClassDirectoryIndex index,
+		final File directory)
+	{
+		final Set<File> missing = new LinkedHashSet<File>();
+		index.findMissing(new LinkedHashSet<File>(Collections
+			.singleton(directory)), missing);
+		return new ArrayList<File>(missing);
+	}
+}
@@ -29,12 +29,20 @@
 
 package net.imagej.patcher;
 
+import static net.imagej.patcher.TestUtils.getTestEnvironment;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -67,4 +75,40 @@ public class ClassLoaderTest {
 		Class<?> ij = child.loadClass("ij.IJ");
 		assertEquals(loader, ij.getClassLoader());
 	}
+
+	@Test
+	public void testConcurrentLoading() throws Exception {
+		final ClassLoader loader = getTestEnvironment().getClassLoader();
+		final String[] names = { "ij.plugin.Hotkeys", "ij.plugin.frame.RoiManager",
+			"ij.gui.ImageWindow", "ij.io.Opener", "ij.process.ImageProcessor" };
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<Class<?>[]>> futures =
+				new ArrayList<Future<Class<?>[]>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<Class<?>[]>() {
+
+					@Override
+					public Class<?>[] call() throws Exception {
+						final Class<?>[] result = new Class<?>[names.length];
+						for (int j = 0; j < names.length; j++) {
+							result[j] = loader.loadClass(names[j]);
+						}
+						return result;
+					}
+				}));
+			}
+			final Class<?>[] first = futures.get(0).get();
+			for (final Future<Class<?>[]> future : futures) {
+				final Class<?>[] classes = future.get();
+				for (int j = 0; j < names.length; j++) {
+					assertSame(first[j], classes[j]);
+					assertSame(loader, classes[j].getClassLoader());
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
 }
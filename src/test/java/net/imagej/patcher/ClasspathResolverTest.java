@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.scijava.test.TestUtils.createTemporaryDirectory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.jar.Attributes.Name;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link ClasspathResolver}.
+ */
+public class ClasspathResolverTest {
+
+	@Test
+	public void testURLClassLoaders() throws Exception {
+		final File tmp = createTemporaryDirectory("classpath-");
+		final File classes = new File(tmp, "classes");
+		assertTrue(classes.mkdir());
+		final File dependency = new File(tmp, "dependency.jar");
+		writeJar(dependency, null);
+		final File jar = new File(tmp, "with-class-path.jar");
+		writeJar(jar, "dependency.jar missing.jar");
+		final File excluded = new File(tmp, "excluded.jar");
+		writeJar(excluded, null);
+
+		final URLClassLoader parent =
+			new URLClassLoader(new URL[] { excluded.toURI().toURL() }, null);
+		final URLClassLoader loader =
+			new URLClassLoader(new URL[] { classes.toURI().toURL(),
+				jar.toURI().toURL() }, parent);
+		final StringBuilder errors = new StringBuilder();
+		assertEquals(Arrays.asList(classes, jar, dependency,
+			new File(tmp, "missing.jar")), new ArrayList<File>(ClasspathResolver
+			.getClasspathElements(loader, errors, parent)));
+		assertEquals("", errors.toString());
+
+		assertEquals(Arrays.asList(classes, jar, dependency,
+			new File(tmp, "missing.jar"), excluded), new ArrayList<File>(
+			ClasspathResolver.getClasspathElements(loader, errors)));
+		assertEquals("", errors.toString());
+	}
+
+	@Test
+	public void testUnknownClassLoader() throws Exception {
+		final File tmp = createTemporaryDirectory("classpath-");
+		final File jar = new File(tmp, "parent.jar");
+		writeJar(jar, null);
+		final URLClassLoader parent =
+			new URLClassLoader(new URL[] { jar.toURI().toURL() }, null);
+		final ClassLoader loader = new ClassLoader(parent) {
+			// not a URLClassLoader
+		};
+		final StringBuilder errors = new StringBuilder();
+		assertEquals(Arrays.asList(jar), new ArrayList<File>(ClasspathResolver
+			.getClasspathElements(loader, errors)));
+		assertEquals("", errors.toString());
+	}
+
+	private static void writeJar(final File file, final String classPath)
+		throws Exception
+	{
+		final Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Name.MANIFEST_VERSION, "1.0");
+		if (classPath != null) {
+			manifest.getMainAttributes().put(Name.CLASS_PATH, classPath);
+		}
+		new JarOutputStream(new FileOutputStream(file), manifest).close();
+	}
+}
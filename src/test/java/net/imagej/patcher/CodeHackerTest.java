@@ -0,0 +1,227 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static net.imagej.patcher.TestUtils.getTestEnvironment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.scijava.test.TestUtils.createTemporaryDirectory;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link CodeHacker}'s handling of multiple edits to one method.
+ */
+public class CodeHackerTest {
+
+	public static class Fixture {
+
+		private String field;
+
+		public String twoCalls(final String s) {
+			return s.toUpperCase() + s.trim();
+		}
+
+		public String oneCall(final String s) {
+			field = s;
+			return s.toUpperCase() + field;
+		}
+	}
+
+	private final static String FIXTURE = Fixture.class.getName();
+
+	@Test
+	public void testMergedEdits() throws Exception {
+		final CodeHacker hacker = newHacker();
+		hacker.replaceCallInMethod(FIXTURE,
+			"public java.lang.String twoCalls(java.lang.String s)",
+			"java.lang.String", "toUpperCase", "$_ = \"upper\";");
+		hacker.replaceCallInMethod(FIXTURE,
+			"public java.lang.String twoCalls(java.lang.String s)",
+			"java.lang.String", "trim", "$_ = \"trim\";");
+		hacker.overrideFieldWrite(FIXTURE,
+			"public java.lang.String oneCall(java.lang.String s)", "field",
+			"$0.field = \"field\";");
+		final Object fixture = load(hacker).newInstance();
+		assertEquals("uppertrim", invoke(fixture, "twoCalls", " x "));
+		assertEquals(" X field", invoke(fixture, "oneCall", " x "));
+	}
+
+	@Test
+	public void testConflictingEdits() throws Exception {
+		final CodeHacker hacker = newHacker();
+		hacker.replaceCallInMethod(FIXTURE,
+			"public java.lang.String oneCall(java.lang.String s)",
+			"java.lang.String", "toUpperCase", "$_ = $0.trim();");
+		// must also rewrite the call inserted by the previous edit
+		hacker.replaceCallInMethod(FIXTURE,
+			"public java.lang.String oneCall(java.lang.String s)",
+			"java.lang.String", "trim", "$_ = \"trimmed\";");
+		final Object fixture = load(hacker).newInstance();
+		assertEquals("trimmed x ", invoke(fixture, "oneCall", " x "));
+	}
+
+	@Test
+	public void testNoCodeReplaced() throws Exception {
+		final CodeHacker hacker = newHacker();
+		hacker.replaceCallInMethod(FIXTURE,
+			"public java.lang.String twoCalls(java.lang.String s)",
+			"java.lang.String", "toUpperCase", "$_ = \"upper\";");
+		hacker.replaceCallInMethod(FIXTURE,
+			"public java.lang.String twoCalls(java.lang.String s)",
+			"java.lang.String", "toLowerCase", "$_ = \"lower\";");
+		try {
+			hacker.getPatchedClasses();
+			fail("Should have complained about toLowerCase");
+		}
+		catch (final IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("toLowerCase"));
+			assertEquals("No code replaced!", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void testParallel() throws Exception {
+		final String saved = System.getProperty("ij1.patcher.parallel");
+		final String memory =
+			System.getProperty(PatchedClassCache.MEMORY_CACHE_PROPERTY);
+		try {
+			System.setProperty("ij1.patcher.parallel", "true");
+			// make sure that the environment is really patched in parallel
+			System.setProperty(PatchedClassCache.MEMORY_CACHE_PROPERTY, "false");
+			final CodeHacker hacker = newHacker();
+			hacker.replaceCallInMethod(FIXTURE,
+				"public java.lang.String oneCall(java.lang.String s)",
+				"java.lang.String", "toUpperCase", "$_ = \"upper\";");
+			hacker.insertAtTopOfMethod(FIXTURE,
+				"public java.lang.String oneCall(java.lang.String s)",
+				"$1 = $1.trim();");
+			hacker.insertAtTopOfMethod(FIXTURE,
+				"public java.lang.String twoCalls(java.lang.String s)",
+				"$1 = \"-\" + $1.trim();");
+			// must also rewrite the call inserted by the deferred modification
+			hacker.replaceCallInMethod(FIXTURE,
+				"public java.lang.String twoCalls(java.lang.String s)",
+				"java.lang.String", "trim", "$_ = \"t\";");
+			final Object fixture = load(hacker).newInstance();
+			assertEquals("upperx", invoke(fixture, "oneCall", " x "));
+			assertEquals("-Tt", invoke(fixture, "twoCalls", " x "));
+
+			final LegacyEnvironment ij1 = getTestEnvironment();
+			ij1.runMacro("call(\"ij.IJ.log\", \"patched in parallel\");", "");
+		}
+		finally {
+			if (saved == null) System.clearProperty("ij1.patcher.parallel");
+			else System.setProperty("ij1.patcher.parallel", saved);
+			if (memory == null) {
+				System.clearProperty(PatchedClassCache.MEMORY_CACHE_PROPERTY);
+			}
+			else System.setProperty(PatchedClassCache.MEMORY_CACHE_PROPERTY, memory);
+		}
+	}
+
+	@Test
+	public void testLazy() throws Exception {
+		final String saved = System.getProperty("ij1.patcher.lazy");
+		try {
+			System.setProperty("ij1.patcher.lazy", "true");
+			final LegacyEnvironment ij1 = getTestEnvironment();
+			ij1.runMacro("call(\"ij.IJ.log\", \"patched lazily\");", "");
+
+			final ClassLoader loader = ij1.getClassLoader();
+			final Field field =
+				LegacyClassLoader.class.getDeclaredField("lazilyPatchedClasses");
+			field.setAccessible(true);
+			final Map<?, ?> pending = (Map<?, ?>) field.get(loader);
+			final String hotkeys = "ij.plugin.Hotkeys";
+			assertTrue("" + pending.keySet(), pending.containsKey(hotkeys));
+			// the recipe must be run upon first use
+			final Class<?> clazz = loader.loadClass(hotkeys);
+			assertFalse(pending.containsKey(hotkeys));
+			assertEquals(loader, clazz.getClassLoader());
+		}
+		finally {
+			if (saved == null) System.clearProperty("ij1.patcher.lazy");
+			else System.setProperty("ij1.patcher.lazy", saved);
+		}
+	}
+
+	@Test
+	public void testRelease() throws Exception {
+		final CodeHacker.ReleasableClassPool pool =
+			new CodeHacker.ReleasableClassPool();
+		final CodeHacker hacker = new CodeHacker(new URLClassLoader(new URL[0],
+			getClass().getClassLoader()), pool);
+		hacker.replaceCallInMethod(FIXTURE,
+			"public java.lang.String oneCall(java.lang.String s)",
+			"java.lang.String", "toUpperCase", "$_ = \"upper\";");
+		final Object fixture = load(hacker).newInstance();
+		assertEquals("upper x ", invoke(fixture, "oneCall", " x "));
+		assertTrue(hacker.getPatchedClasses().size() > 0);
+
+		hacker.release();
+		for (final CtClass clazz : pool.getCachedClasses()) {
+			assertTrue(clazz.getName(), clazz.isPrimitive());
+		}
+		assertTrue(hacker.getPatchedClasses().isEmpty());
+	}
+
+	private CodeHacker newHacker() {
+		return new CodeHacker(new URLClassLoader(new URL[0], getClass()
+			.getClassLoader()), new ClassPool(true));
+	}
+
+	private Class<?> load(final CodeHacker hacker) throws Exception {
+		final File jar =
+			new File(createTemporaryDirectory("code-hacker-"), "patched.jar");
+		hacker.writeJar(jar);
+		final ClassLoader loader =
+			new URLClassLoader(new URL[] { jar.toURI().toURL() }, null);
+		return loader.loadClass(FIXTURE);
+	}
+
+	private static Object invoke(final Object object, final String methodName,
+		final String argument) throws Exception
+	{
+		return object.getClass().getMethod(methodName, String.class).invoke(
+			object, argument);
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static net.imagej.patcher.TestUtils.getTestEnvironment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link InstrumentedLegacyHooks} and their {@link HookMetrics}.
+ */
+public class HookMetricsTest {
+
+	@Test
+	public void testHistogram() throws InterruptedException {
+		final HookMetrics metrics = new HookMetrics();
+		final HookMetrics.Hook hook = metrics.getHook("test");
+		for (int i = 0; i < 99; i++) {
+			hook.record(System.nanoTime());
+		}
+		final long start = System.nanoTime();
+		Thread.sleep(5);
+		hook.record(start);
+
+		assertEquals(100, metrics.getInvocationCount("test"));
+		assertEquals(Arrays.asList("test"), Arrays.asList(metrics.getHookNames()));
+		assertTrue(metrics.getLatencyPercentileMicros("test", 50) < 1000);
+		assertTrue(metrics.getLatencyPercentileMicros("test", 100) >= 5000);
+		assertTrue(metrics.getTotalMillis("test") >= 5);
+		assertTrue(metrics.dump().contains("test"));
+
+		metrics.reset();
+		assertEquals(0, metrics.getTotalInvocations());
+	}
+
+	@Test
+	public void testRegistration() throws Exception {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final HookMetrics first = new HookMetrics(), second = new HookMetrics();
+		ClassLoader loader = new URLClassLoader(new URL[0]);
+		first.register(loader);
+		second.register(loader);
+		final ObjectName name = first.getObjectName();
+		assertNotEquals(name, second.getObjectName());
+		assertTrue(server.isRegistered(name));
+		assertTrue(server.isRegistered(second.getObjectName()));
+
+		second.unregister();
+		assertNull(second.getObjectName());
+		assertTrue(server.isRegistered(name));
+
+		// the metrics of a dropped environment are unregistered eventually
+		loader = null;
+		for (int i = 0; i < 100 && first.getObjectName() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+			HookMetrics.expungeDropped();
+		}
+		assertNull(first.getObjectName());
+		assertFalse(server.isRegistered(name));
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		assertNull(getTestEnvironment().getHookMetrics());
+	}
+
+	@Test
+	public void testEnvironment() throws Exception {
+		System.setProperty(InstrumentedLegacyHooks.METRICS_PROPERTY, "true");
+		try {
+			final LegacyEnvironment ij1 = getTestEnvironment();
+			ij1.run("Close All", "");
+			final HookMetrics metrics = ij1.getHookMetrics();
+			assertNotNull(metrics);
+			assertTrue(metrics.getInvocationCount("interceptRunPlugIn") > 0);
+			// EssentialLegacyHooks does not override log(), so it is not called
+			ij1.runMacro("print(\"hello\");", "");
+			assertEquals(0, metrics.getInvocationCount("log"));
+
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = metrics.getObjectName();
+			assertTrue(server.isRegistered(name));
+			assertEquals(metrics.getTotalInvocations(), server.getAttribute(name,
+				"TotalInvocations"));
+			final String dump = (String) server.invoke(name, "dump", null, null);
+			assertTrue(dump, dump.contains("interceptRunPlugIn"));
+
+			// the metrics survive replacing the hooks
+			final long count = metrics.getTotalInvocations();
+			ij1.getClassLoader().loadClass("ij.IJ").getMethod("_hooks",
+				LegacyHooks.class).invoke(null, new EssentialLegacyHooks());
+			assertEquals(metrics, ij1.getHookMetrics());
+			assertTrue(metrics.getTotalInvocations() > count);
+			assertTrue(server.isRegistered(name));
+		}
+		finally {
+			System.clearProperty(InstrumentedLegacyHooks.METRICS_PROPERTY);
+		}
+	}
+}
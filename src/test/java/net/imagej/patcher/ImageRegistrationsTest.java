@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static net.imagej.patcher.TestUtils.getTestEnvironment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests the batched image registrations.
+ */
+public class ImageRegistrationsTest {
+
+	private static class BatchingHooks extends EssentialLegacyHooks {
+
+		private final long interval;
+		private final List<Object> registered =
+			Collections.synchronizedList(new ArrayList<Object>());
+
+		private BatchingHooks(final long interval) {
+			this.interval = interval;
+		}
+
+		@Override
+		public long getImageRegistrationInterval() {
+			return interval;
+		}
+
+		@Override
+		public void registerImage(final Object image) {
+			registered.add(image);
+		}
+	}
+
+	@Test
+	public void testImmediate() {
+		assertNull(ImageRegistrations.create(new BatchingHooks(0)));
+	}
+
+	@Test
+	public void testFlush() {
+		final BatchingHooks hooks = new BatchingHooks(3600 * 1000);
+		final ImageRegistrations batch = ImageRegistrations.create(hooks);
+		final Object image1 = new Object(), image2 = new Object();
+		for (int i = 0; i < 1000; i++) {
+			batch.register(image1);
+			batch.register(image2);
+		}
+		batch.cancel(image2);
+		assertEquals(0, hooks.registered.size());
+		hooks.flushImageRegistrations();
+		assertEquals(Collections.singletonList(image1), hooks.registered);
+		hooks.flushImageRegistrations();
+		assertEquals(1, hooks.registered.size());
+		batch.dispose();
+	}
+
+	@Test
+	public void testCancelWaitsForDelivery() throws InterruptedException {
+		final List<String> events =
+			Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch delivering = new CountDownLatch(1);
+		final BatchingHooks hooks = new BatchingHooks(3600 * 1000) {
+
+			@Override
+			public void registerImage(final Object image) {
+				delivering.countDown();
+				try {
+					Thread.sleep(200);
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				events.add("register");
+			}
+		};
+		final ImageRegistrations batch = ImageRegistrations.create(hooks);
+		final Object image = new Object();
+		batch.register(image);
+		final Thread flusher = new Thread() {
+
+			@Override
+			public void run() {
+				batch.flush();
+			}
+		};
+		flusher.start();
+		delivering.await();
+		batch.cancel(image);
+		events.add("unregister");
+		flusher.join();
+		assertEquals(Arrays.asList("register", "unregister"), events);
+		batch.dispose();
+	}
+
+	@Test
+	public void testPeriodic() throws InterruptedException {
+		final BatchingHooks hooks = new BatchingHooks(10);
+		final ImageRegistrations batch = ImageRegistrations.create(hooks);
+		final Object image = new Object();
+		batch.register(image);
+		for (int i = 0; i < 100 && hooks.registered.isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(Collections.singletonList(image), hooks.registered);
+		batch.dispose();
+	}
+
+	@Test
+	public void testEnvironment() throws Exception {
+		final LegacyEnvironment ij1 = getTestEnvironment();
+		final BatchingHooks hooks = new BatchingHooks(3600 * 1000);
+		ij1.getClassLoader().loadClass("ij.IJ").getMethod("_hooks",
+			LegacyHooks.class).invoke(null, hooks);
+		ij1.runMacro("newImage(\"a\", \"8-bit\", 16, 16, 10);"
+			+ "for (i = 1; i <= 10; i++) {"
+			+ "  setSlice(i);"
+			+ "  updateDisplay();"
+			+ "}"
+			+ "newImage(\"b\", \"8-bit\", 16, 16, 1);", "");
+		assertEquals(0, hooks.registered.size());
+		hooks.flushImageRegistrations();
+		// each image was registered once, despite the many updates
+		assertEquals(2, hooks.registered.size());
+		assertNotSame(hooks.registered.get(0), hooks.registered.get(1));
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static net.imagej.patcher.TestUtils.getTestEnvironment;
+import static net.imagej.patcher.TestUtils.invokeStatic;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the generated {@link LegacyBridge}.
+ */
+public class LegacyBridgeTest {
+
+	@Test
+	public void testBridge() throws Exception {
+		final LegacyEnvironment ij1 = getTestEnvironment();
+		final ClassLoader loader = ij1.getClassLoader();
+		final Class<?> bridge =
+			loader.loadClass(LegacyInjector.LEGACY_BRIDGE_CLASS);
+		assertSame(loader, bridge.getClassLoader());
+		assertTrue(LegacyBridge.class.isAssignableFrom(bridge));
+
+		ij1.setMacroOptions("hello");
+		assertEquals("hello ", invokeStatic(loader, "ij.Macro", "getOptions"));
+		ij1.runMacro("call(\"java.lang.System.setProperty\", " +
+			"\"ij1.patcher.bridge.test\", getArgument());", "world");
+		assertEquals("world", System.clearProperty("ij1.patcher.bridge.test"));
+	}
+
+	@Test
+	public void testPixels() throws Exception {
+		final LegacyEnvironment ij1 = getTestEnvironment();
+		final byte[] first = new byte[4 * 3], second = new byte[4 * 3];
+		final PixelData data = new PixelData("pixels", 4, 3, first, second);
+		data.setDimensions(2, 1, 1);
+		data.setCalibration(0.5, 0.5, 2, "micron");
+		final int id = ij1.createImage(data);
+		assertTrue(id < 0);
+
+		ij1.runMacro("selectImage(" + id + "); run(\"Add...\", \"value=7 stack\");",
+			"");
+		assertEquals(7, first[0]);
+		assertEquals(7, second[11]);
+
+		final PixelData result = ij1.getPixelData(id);
+		assertEquals("pixels", result.getTitle());
+		assertSame(first, result.getPlanes()[0]);
+		assertSame(second, result.getPlanes()[1]);
+		assertEquals(2, result.getChannels());
+		assertEquals(1, result.getSlices());
+		assertEquals(0.5, result.getPixelWidth(), 0);
+		assertEquals("micron", result.getUnit());
+		assertNull(ij1.getPixelData(id - 1000));
+	}
+
+	@Test
+	public void testResultsTable() throws Exception {
+		final LegacyEnvironment ij1 = getTestEnvironment();
+		ij1.runMacro("run(\"Clear Results\");"
+			+ "setResult(\"Area\", 0, 1.5);"
+			+ "setResult(\"Area\", 1, 2.5);"
+			+ "setResult(\"Name\", 0, \"first\");"
+			+ "setResult(\"Label\", 0, \"a\");"
+			+ "setResult(\"Label\", 1, \"b\");"
+			+ "updateResults();"
+			+ "Table.create(\"Other\");"
+			+ "Table.set(\"X\", 0, 3, \"Other\");"
+			+ "Table.update(\"Other\");", "");
+
+		final TableData results = ij1.getResultsTable(null);
+		assertEquals(2, results.size());
+		assertArrayEquals(new String[] { "Area", "Name" }, results.getHeadings());
+		assertArrayEquals(new double[] { 1.5, 2.5 }, results.getColumn("Area"), 0);
+		assertNull(results.getTextColumn("Area"));
+		assertArrayEquals(new String[] { "first", null },
+			results.getTextColumn("Name"));
+		assertArrayEquals(new String[] { "a", "b" }, results.getLabels());
+
+		final TableData other = ij1.getResultsTable("Other");
+		assertEquals("Other", other.getTitle());
+		assertArrayEquals(new double[] { 3 }, other.getColumn("X"), 0);
+		assertNull(other.getLabels());
+		assertNull(ij1.getResultsTable("Missing"));
+
+		// closing a table forgets it
+		ij1.runMacro("close(\"Oth*\");", "");
+		assertNull(ij1.getResultsTable("Other"));
+
+		// showing a table as "Results" makes it the system results table
+		final Class<?> tableClass =
+			ij1.getClassLoader().loadClass("ij.measure.ResultsTable");
+		final Object table = tableClass.newInstance();
+		tableClass.getMethod("incrementCounter").invoke(table);
+		tableClass.getMethod("addValue", String.class, double.class).invoke(table,
+			"Y", 7);
+		tableClass.getMethod("show", String.class).invoke(table, "Results");
+		assertArrayEquals(new double[] { 7 }, ij1.getResultsTable(null).getColumn(
+			"Y"), 0);
+		assertArrayEquals(new double[] { 7 }, ij1.getResultsTable("Results")
+			.getColumn("Y"), 0);
+	}
+
+	@Test
+	public void testReflectionBridge() throws Exception {
+		final LegacyEnvironment ij1 = getTestEnvironment();
+		final LegacyBridge bridge =
+			new LegacyEnvironment.ReflectionBridge(ij1.getClassLoader());
+
+		final float[] pixels = new float[4 * 3];
+		final PixelData data = new PixelData("reflected", 4, 3, pixels);
+		data.setCalibration(0.25, 0.5, 1, "mm");
+		final int id = bridge.createImage(data);
+		final PixelData result = bridge.getPixelData(id);
+		assertEquals("reflected", result.getTitle());
+		assertSame(pixels, result.getPlanes()[0]);
+		assertEquals(0.25, result.getPixelWidth(), 0);
+		assertEquals("mm", result.getUnit());
+		assertNull(bridge.getPixelData(id - 1000));
+
+		final LogCapture capture = new LogCapture(16);
+		bridge.setLogCapture(capture);
+		final Thread thread = Thread.currentThread();
+		final ClassLoader savedLoader = thread.getContextClassLoader();
+		try {
+			bridge.runMacro("print(\"captured\");"
+				+ "run(\"Clear Results\");"
+				+ "setResult(\"Area\", 0, 4.5);"
+				+ "setResult(\"Label\", 0, \"x\");"
+				+ "updateResults();", "");
+		}
+		finally {
+			// IJ.runMacro() changes the context class loader
+			thread.setContextClassLoader(savedLoader);
+			bridge.setLogCapture(null);
+		}
+		assertEquals("captured", capture.poll());
+
+		final TableData table = bridge.getResultsTable(null);
+		assertArrayEquals(new String[] { "Area" }, table.getHeadings());
+		assertArrayEquals(new double[] { 4.5 }, table.getColumn("Area"), 0);
+		assertArrayEquals(new String[] { "x" }, table.getLabels());
+		assertNull(bridge.getResultsTable("Missing"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPlaneSizeMismatch() {
+		new PixelData("wrong", 4, 3, new float[11]);
+	}
+}
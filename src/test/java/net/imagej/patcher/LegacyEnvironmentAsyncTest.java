@@ -0,0 +1,82 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static net.imagej.patcher.TestUtils.getTestEnvironment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+/**
+ * Tests the asynchronous API of the {@link LegacyEnvironment}.
+ */
+public class LegacyEnvironmentAsyncTest {
+
+	private final static String PROPERTY = "ij1.patcher.async.test";
+
+	@Test
+	public void testSerializedAndBounded() throws Exception {
+		final LegacyEnvironment ij1 = getTestEnvironment();
+		ij1.setAsyncQueueCapacity(1);
+		final String append = "call(\"java.lang.System.setProperty\", \"" +
+			PROPERTY + "\", call(\"java.lang.System.getProperty\", \"" + PROPERTY +
+			"\") + getArgument());";
+		System.setProperty(PROPERTY, "");
+		try {
+			final CompletableFuture<Void> first =
+				ij1.runMacroAsync(append + "wait(500);", "a");
+			while (System.getProperty(PROPERTY).isEmpty()) {
+				Thread.sleep(10);
+			}
+			final CompletableFuture<Void> second = ij1.runMacroAsync(append, "b");
+			assertEquals(1, ij1.getAsyncQueueLength());
+			final CompletableFuture<Void> third = ij1.runMacroAsync(append, "c");
+			try {
+				third.get();
+				fail("Should have been rejected");
+			}
+			catch (final ExecutionException e) {
+				assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+			second.get();
+			assertTrue(first.isDone());
+			assertEquals("ab", System.getProperty(PROPERTY));
+		}
+		finally {
+			System.clearProperty(PROPERTY);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static net.imagej.patcher.TestUtils.getTestEnvironment;
+import static net.imagej.patcher.TestUtils.invokeStatic;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link LegacyEnvironmentPool}.
+ */
+public class LegacyEnvironmentPoolTest {
+
+	@Test
+	public void testCheckOutAndIn() throws Exception {
+		final LegacyEnvironmentPool pool = new LegacyEnvironmentPool(1, 2, true) {
+
+			@Override
+			protected LegacyEnvironment newEnvironment()
+				throws ClassNotFoundException
+			{
+				return getTestEnvironment();
+			}
+		};
+		pool.fill();
+		assertEquals(1, pool.getIdleCount());
+
+		final LegacyEnvironment first = pool.checkOut();
+		first.runMacro("newImage(\"dirty\", \"8-bit\", 10, 10, 1);"
+			+ "setResult(\"Value\", 0, 17);", "");
+		final ClassLoader loader = first.getClassLoader();
+		assertEquals(1, (int) invokeStatic(loader, "ij.WindowManager",
+			"getImageCount"));
+		pool.checkIn(first);
+
+		// the state was reset
+		final LegacyEnvironment second = pool.checkOut();
+		assertSame(first, second);
+		assertEquals(0, (int) invokeStatic(loader, "ij.WindowManager",
+			"getImageCount"));
+		final Object results =
+			invokeStatic(loader, "ij.measure.ResultsTable", "getResultsTable");
+		assertEquals(0, (int) TestUtils.<Integer> invoke(results, "size"));
+		assertNull(invokeStatic(loader, "ij.Macro", "getOptions"));
+		pool.checkIn(second);
+
+		// used twice: evicted
+		final LegacyEnvironment third = pool.checkOut();
+		assertNotSame(first, third);
+		pool.checkIn(third);
+		pool.close();
+	}
+
+	@Test
+	public void testNoLeaks() throws Exception {
+		final LegacyEnvironmentPool pool = newPool();
+		final RecordingHooks hooks = new RecordingHooks();
+		final LegacyEnvironment first = pool.checkOut();
+		final ClassLoader loader = first.getClassLoader();
+		final Class<?> ij = loader.loadClass("ij.IJ");
+		ij.getMethod("_hooks", LegacyHooks.class).invoke(null, hooks);
+
+		// a job leaves a table, a log capture and a pending registration behind
+		first.runMacro("Table.create(\"Leak\");"
+			+ "Table.set(\"X\", 0, 1, \"Leak\");"
+			+ "Table.update(\"Leak\");", "");
+		assertNotNull(first.getResultsTable("Leak"));
+		first.setLogCapture(new LogCapture(16));
+		((ImageRegistrations) ij.getField("_registrations").get(null))
+			.register(new Object());
+		pool.checkIn(first);
+
+		final LegacyEnvironment second = pool.checkOut();
+		assertSame(first, second);
+		assertNull(second.getResultsTable("Leak"));
+		assertNull(ij.getField("_logCapture").get(null));
+		hooks.flushImageRegistrations();
+		assertEquals(0, hooks.registered);
+		pool.checkIn(second);
+		assertFalse(hooks.disposed);
+
+		// dropped environments are disposed of
+		pool.close();
+		assertTrue(hooks.disposed);
+	}
+
+	@Test
+	public void testEvict() throws Exception {
+		final LegacyEnvironmentPool pool = newPool();
+		final RecordingHooks hooks = new RecordingHooks();
+		final LegacyEnvironment environment = pool.checkOut();
+		environment.getClassLoader().loadClass("ij.IJ").getMethod("_hooks",
+			LegacyHooks.class).invoke(null, hooks);
+		pool.evict(environment);
+		assertTrue(hooks.disposed);
+		pool.close();
+	}
+
+	private static LegacyEnvironmentPool newPool() {
+		return new LegacyEnvironmentPool(1, 0, true) {
+
+			@Override
+			protected LegacyEnvironment newEnvironment()
+				throws ClassNotFoundException
+			{
+				return getTestEnvironment();
+			}
+		};
+	}
+
+	private static class RecordingHooks extends EssentialLegacyHooks {
+
+		private volatile int registered;
+		private volatile boolean disposed;
+
+		@Override
+		public long getImageRegistrationInterval() {
+			return 3600 * 1000;
+		}
+
+		@Override
+		public void registerImage(final Object image) {
+			registered++;
+		}
+
+		@Override
+		public void dispose() {
+			disposed = true;
+			super.dispose();
+		}
+	}
+}
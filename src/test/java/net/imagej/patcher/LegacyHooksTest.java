@@ -29,6 +29,8 @@
 
 package net.imagej.patcher;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -39,6 +41,9 @@ import ij.IJ;
 import ij.ImageJ;
 
 import java.awt.GraphicsEnvironment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -139,6 +144,34 @@ public class LegacyHooksTest {
 		assertValid("disposing", results[2]);
 	}
 
+	/**
+	 * Tests that calls to hooks are skipped unless the hooks override them.
+	 */
+	@Test
+	public void testElision() throws Exception {
+		final LegacyEnvironment ij1 = TestUtils.getTestEnvironment();
+		final Class<?> ij = ij1.getClassLoader().loadClass("ij.IJ");
+		assertFalse(ij.getField("_overrides_log").getBoolean(null));
+		assertFalse(ij.getField("_overrides_registerImage").getBoolean(null));
+
+		final List<String> messages = new ArrayList<String>();
+		ij.getMethod("_hooks", LegacyHooks.class).invoke(null,
+			new EssentialLegacyHooks() {
+
+				@Override
+				public void log(final String message) {
+					messages.add(message);
+				}
+			});
+		assertTrue(ij.getField("_overrides_log").getBoolean(null));
+		assertFalse(ij.getField("_overrides_registerImage").getBoolean(null));
+		ij1.runMacro("print(\"hello\");", "");
+		assertEquals(Arrays.asList("hello"), messages);
+
+		ij.getMethod("_hooks", LegacyHooks.class).invoke(null, (Object) null);
+		assertFalse(ij.getField("_overrides_log").getBoolean(null));
+	}
+
 	private void assertValid(final String method, final Boolean value) {
 		assertNotNull("LegacyHooks#" + method + "() not called", value);
 		assertTrue("LegacyHooks#" + method + "() called more than once", value);
@@ -0,0 +1,115 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static net.imagej.patcher.TestUtils.getTestEnvironment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link LogCapture}.
+ */
+public class LogCaptureTest {
+
+	@Test
+	public void testOverflow() {
+		final LogCapture capture = new LogCapture(3);
+		for (int i = 0; i < 6; i++) {
+			capture.log("" + i);
+		}
+		// the capacity is rounded up to 4
+		assertEquals(2, capture.getDroppedCount());
+		assertEquals("0", capture.poll());
+		capture.log("6");
+		final List<String> messages = new ArrayList<String>();
+		assertEquals(4, capture.drainTo(messages));
+		assertEquals(Arrays.asList("1", "2", "3", "6"), messages);
+		assertNull(capture.poll());
+	}
+
+	@Test
+	public void testConcurrentProducers() throws InterruptedException {
+		final LogCapture capture = new LogCapture(1 << 16);
+		final Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final String prefix = i + ":";
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						capture.log(prefix + j);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		final List<String> messages = new ArrayList<String>();
+		assertEquals(40000, capture.drainTo(messages));
+		assertEquals(0, capture.getDroppedCount());
+		// each producer's messages arrive in order
+		final int[] next = new int[threads.length];
+		for (final String message : messages) {
+			final int colon = message.indexOf(':');
+			final int thread = Integer.parseInt(message.substring(0, colon));
+			assertEquals(next[thread]++, Integer.parseInt(message.substring(colon + 1)));
+		}
+	}
+
+	@Test
+	public void testEnvironment() throws Exception {
+		final LegacyEnvironment ij1 = getTestEnvironment();
+		final LogCapture buffer = new LogCapture(16);
+		ij1.setLogCapture(buffer);
+		ij1.runMacro("for (i = 0; i < 20; i++) print(\"line \" + i);", "");
+		assertEquals("line 0", buffer.poll());
+		assertEquals(4, buffer.getDroppedCount());
+
+		final List<String> streamed = new ArrayList<String>();
+		ij1.setLogCapture(new LogCapture(new Consumer<String>() {
+			@Override
+			public void accept(final String message) {
+				streamed.add(message);
+			}
+		}));
+		ij1.runMacro("print(\"hello\");", "");
+		assertEquals(Arrays.asList("hello"), streamed);
+		ij1.setLogCapture(null);
+	}
+}
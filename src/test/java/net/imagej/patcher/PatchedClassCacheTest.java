@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static net.imagej.patcher.TestUtils.getTestEnvironment;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.scijava.test.TestUtils.createTemporaryDirectory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link PatchedClassCache}.
+ */
+public class PatchedClassCacheTest {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		final File tmp = createTemporaryDirectory("patch-cache-");
+		final PatchedClassCache cache = new PatchedClassCache(tmp);
+		assertNull(cache.load("0123"));
+
+		final Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+		classes.put("net.imagej.patcher.Zebra", new byte[] { 1, 2, 3 });
+		classes.put("ij.IJ", new byte[] { 4, 5 });
+		classes.put("ij.gui.Aardvark", new byte[0]);
+		cache.store("0123", classes);
+
+		final Map<String, byte[]> loaded = cache.load("0123");
+		assertNotNull(loaded);
+		assertEquals(new ArrayList<String>(classes.keySet()),
+			new ArrayList<String>(loaded.keySet()));
+		for (final String name : classes.keySet()) {
+			assertArrayEquals(classes.get(name), loaded.get(name));
+		}
+		assertEquals(Arrays.asList("0123.jar"), Arrays.asList(tmp.list()));
+	}
+
+	@Test
+	public void testInMemory() throws Exception {
+		final Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+		classes.put("ij.IJ", new byte[] { 4, 5 });
+		new PatchedClassCache(null, true).store("in-memory", classes);
+		assertNull(new PatchedClassCache(null, false).load("in-memory"));
+
+		// other instances see the bytecode, too
+		final Map<String, byte[]> loaded =
+			new PatchedClassCache(null, true).load("in-memory");
+		assertNotNull(loaded);
+		assertArrayEquals(classes.get("ij.IJ"), loaded.get("ij.IJ"));
+
+		// and write it to disk when asked to
+		final File tmp = createTemporaryDirectory("patch-cache-");
+		assertNotNull(new PatchedClassCache(tmp, true).load("in-memory"));
+		assertEquals(Arrays.asList("in-memory.jar"), Arrays.asList(tmp.list()));
+	}
+
+	@Test
+	public void testFingerprint() throws Exception {
+		final PatchedClassCache cache = new PatchedClassCache(new File("."));
+		final ClassLoader loader = getClass().getClassLoader();
+		final String headless =
+			cache.fingerprint(loader, true, Collections.<String> emptyList());
+		assertNotNull(headless);
+		assertEquals(headless, cache.fingerprint(loader, true, Collections
+			.<String> emptyList()));
+		assertFalse(headless.equals(cache.fingerprint(loader, false, Collections
+			.<String> emptyList())));
+		assertFalse(headless.equals(cache.fingerprint(loader, true, Arrays
+			.asList("after disableInitializer"))));
+		assertNull(cache.fingerprint(loader, true, null));
+	}
+
+	@Test
+	public void testWarmStart() throws Exception {
+		final File tmp = createTemporaryDirectory("patch-cache-");
+		final String property = PatchedClassCache.CACHE_DIRECTORY_PROPERTY;
+		final String saved = System.getProperty(property);
+		try {
+			System.setProperty(property, tmp.getPath());
+
+			final LegacyEnvironment cold = getTestEnvironment();
+			cold.applyPatches();
+			final String[] list = tmp.list();
+			assertEquals(1, list.length);
+			final long timestamp = new File(tmp, list[0]).lastModified();
+
+			final LegacyEnvironment warm = getTestEnvironment();
+			warm.applyPatches();
+			assertEquals(Arrays.asList(list), Arrays.asList(tmp.list()));
+			assertEquals(timestamp, new File(tmp, list[0]).lastModified());
+			assertEquals(LegacyHooks.class, warm.getClassLoader().loadClass("ij.IJ")
+				.getField("_hooks").getType());
+			warm.runMacro("call(\"ij.IJ.log\", \"warm\");", "");
+		}
+		finally {
+			if (saved == null) System.clearProperty(property);
+			else System.setProperty(property, saved);
+		}
+	}
+}
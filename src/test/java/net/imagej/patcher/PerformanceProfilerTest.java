@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link PerformanceProfiler}.
+ */
+public class PerformanceProfilerTest {
+
+	private final static int THREADS = 4, CALLS = 100000;
+
+	/**
+	 * Calls a method from several threads at the same time.
+	 */
+	public static class Workload {
+
+		private static volatile int sink;
+
+		public static int work(final int value) {
+			return value * 31 + 7;
+		}
+
+		public static void main(final String... args) throws Exception {
+			final Thread[] threads = new Thread[THREADS];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread() {
+
+					@Override
+					public void run() {
+						for (int j = 0; j < CALLS; j++) {
+							sink += work(j);
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+			PerformanceProfiler.report(new File(args[0]), 1);
+		}
+	}
+
+	@Test
+	public void testConcurrentCounts() throws Throwable {
+		final File report = File.createTempFile("profile-", ".txt");
+		try {
+			PerformanceProfiler.startProfiling(Workload.class.getName(), report
+				.getAbsolutePath());
+			final String text =
+				new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8);
+			// no increment may be lost, even with concurrent callers
+			final String expected =
+				Workload.class.getName() + ".work(int); " + (THREADS * CALLS) + "x;";
+			assertTrue(text, text.contains(expected));
+		}
+		finally {
+			report.delete();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static net.imagej.patcher.TestUtils.makeJar;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.scijava.test.TestUtils.createTemporaryDirectory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.Manifest;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link PluginClassPathIndex}.
+ */
+public class PluginClassPathIndexTest {
+
+	@Test
+	public void testOrder() throws Exception {
+		final File tmp = createTemporaryDirectory("plugin-index-");
+		final File first = new File(tmp, "first.jar");
+		makeJar(first, Set_Property.class.getName());
+		final File second = new File(tmp, "second.jar");
+		makeJar(second, Set_Property.class.getName(),
+			Headless_Example_Plugin.class.getName());
+		final File directory = new File(tmp, "classes");
+		final File resource = new File(directory, "net/imagej/patcher/Hello.txt");
+		assertTrue(resource.getParentFile().mkdirs());
+		final FileOutputStream out = new FileOutputStream(resource);
+		out.write("Hello".getBytes());
+		out.close();
+
+		final PluginClassPathIndex index = new PluginClassPathIndex();
+		index.add(directory.toURI().toURL());
+		index.add(first.toURI().toURL());
+		index.add(second.toURI().toURL());
+		index.add(first.toURI().toURL());
+		assertTrue(index.isComplete());
+
+		final String setProperty =
+			Set_Property.class.getName().replace('.', '/') + ".class";
+		assertEquals(1, index.find(setProperty));
+		assertEquals(2, index.find(Headless_Example_Plugin.class.getName()
+			.replace('.', '/') + ".class"));
+		assertEquals(0, index.find("net/imagej/patcher/Hello.txt"));
+		assertEquals(-1, index.find("net/imagej/patcher/Missing.class"));
+		assertNull(index.findResource("ij/IJ.class"));
+		assertEquals(new URL("jar:" + first.toURI().toURL() + "!/" + setProperty),
+			index.findResource(setProperty));
+		assertArrayEquals("Hello".getBytes(), index.read(0,
+			"net/imagej/patcher/Hello.txt"));
+
+		final JarEntry entry = index.getJarEntry(1, setProperty);
+		assertNotNull(entry);
+		assertTrue(index.read(1, entry).length > 0);
+		assertNull(index.getCodeSource(1, entry).getCodeSigners());
+		assertNull(index.getJarEntry(0, "net/imagej/patcher/Hello.txt"));
+
+		index.add(new URL("http://example.com/remote.jar"));
+		assertFalse(index.isComplete());
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		final File tmp = createTemporaryDirectory("plugin-index-");
+		final File jar = new File(tmp, "plugin.jar");
+		makeJar(jar, Set_Property.class.getName());
+		final String setProperty =
+			Set_Property.class.getName().replace('.', '/') + ".class";
+
+		final PluginClassPathIndex index = new PluginClassPathIndex();
+		index.add(jar.toURI().toURL());
+		assertEquals(0, index.find(setProperty));
+		index.close();
+		assertFalse(index.isComplete());
+		assertEquals(-1, index.find(setProperty));
+		// the handle was released, so the file can be replaced
+		assertTrue(jar.delete());
+	}
+
+	@Test
+	public void testRebuiltJar() throws Exception {
+		final File tmp = createTemporaryDirectory("plugin-index-");
+		final File jar = new File(tmp, "plugin.jar");
+		makeJar(jar, Set_Property.class.getName());
+		final String setProperty =
+			Set_Property.class.getName().replace('.', '/') + ".class";
+		final String headless =
+			Headless_Example_Plugin.class.getName().replace('.', '/') + ".class";
+
+		final PluginClassPathIndex index = new PluginClassPathIndex();
+		index.add(jar.toURI().toURL());
+		assertEquals(0, index.find(setProperty));
+		index.close();
+
+		makeJar(jar, Headless_Example_Plugin.class.getName());
+		assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+		final PluginClassPathIndex rebuilt = new PluginClassPathIndex();
+		rebuilt.add(jar.toURI().toURL());
+		assertEquals(-1, rebuilt.find(setProperty));
+		assertEquals(0, rebuilt.find(headless));
+		rebuilt.close();
+	}
+
+	@Test
+	public void testSealed() {
+		final Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		assertFalse(PluginClassPathIndex.isSealed("ij.io", manifest));
+		final Attributes attributes = new Attributes();
+		attributes.put(Attributes.Name.SEALED, "true");
+		manifest.getEntries().put("ij/io/", attributes);
+		assertTrue(PluginClassPathIndex.isSealed("ij.io", manifest));
+		assertFalse(PluginClassPathIndex.isSealed("ij.plugin", manifest));
+		manifest.getMainAttributes().put(Attributes.Name.SEALED, "true");
+		assertTrue(PluginClassPathIndex.isSealed("ij.plugin", manifest));
+	}
+}
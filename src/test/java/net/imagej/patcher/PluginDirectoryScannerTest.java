@@ -0,0 +1,90 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.scijava.test.TestUtils.createTemporaryDirectory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link PluginDirectoryScanner}.
+ */
+public class PluginDirectoryScannerTest {
+
+	@Test
+	public void testScan() throws Exception {
+		final File tmp = createTemporaryDirectory("plugin-dirs-");
+		final File a = touch(new File(tmp, "a.jar"));
+		touch(new File(tmp, "README.txt"));
+		final File b = touch(new File(tmp, "sub/b.jar"));
+		assertEquals(set(a, b), scan(tmp));
+
+		// the cached listing is updated when the directories change
+		assertTrue(a.delete());
+		final File c = touch(new File(tmp, "sub/new/c.jar"));
+		assertEquals(set(b, c), scan(tmp));
+
+		// changes are picked up even when the listing is old enough to be trusted
+		final long old = System.currentTimeMillis() - 60000;
+		for (final File dir : new File[] { tmp, b.getParentFile(),
+			c.getParentFile() })
+		{
+			assertTrue(dir.setLastModified(old));
+		}
+		assertEquals(set(b, c), scan(tmp));
+		assertTrue(b.delete());
+		assertEquals(set(c), scan(tmp));
+	}
+
+	private static File touch(final File file) throws Exception {
+		file.getParentFile().mkdirs();
+		assertTrue(file.createNewFile());
+		return file;
+	}
+
+	private static Set<File> set(final File... files) {
+		return new HashSet<File>(Arrays.asList(files));
+	}
+
+	private static Set<File> scan(final File directory) {
+		final List<File> result = new ArrayList<File>();
+		PluginDirectoryScanner.scan(directory, result);
+		return new HashSet<File>(result);
+	}
+}
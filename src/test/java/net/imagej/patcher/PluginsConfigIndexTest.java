@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static net.imagej.patcher.TestUtils.makeJar;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.scijava.test.TestUtils.createTemporaryDirectory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Scanner;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link PluginsConfigIndex}.
+ */
+public class PluginsConfigIndexTest {
+
+	private final static String IJ_STAMP = "ij: /ij.jar (1 bytes, 2)\n";
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		final File tmp = createTemporaryDirectory("plugins-config-");
+		final File withConfig = new File(tmp, "with-config.jar");
+		makeJar(withConfig, Set_Property.class.getName());
+		final File without = new File(tmp, "without.jar");
+		makeJar(without, PluginsConfigIndexTest.class.getName());
+		final String config = "Plugins, \"Set Property\", Set_Property\n";
+
+		final PluginsConfigIndex index = new PluginsConfigIndex(tmp, IJ_STAMP);
+		assertFalse(index.contains(withConfig.getPath()));
+		assertEquals(config, read(index.put(withConfig.getPath(),
+			new ByteArrayInputStream(config.getBytes("UTF-8")))));
+		assertNull(index.put(without.getPath(), null));
+		index.save();
+		assertTrue(new File(tmp, "plugins-config.idx").isFile());
+
+		// a fresh index reads what was saved
+		final PluginsConfigIndex fresh = new PluginsConfigIndex(tmp, IJ_STAMP);
+		assertTrue(fresh.contains(withConfig.getPath()));
+		assertEquals(config, read(fresh.get(withConfig.getPath())));
+		assertTrue(fresh.contains(without.getPath()));
+		assertNull(fresh.get(without.getPath()));
+
+		// changed .jar files need to be opened again
+		assertTrue(withConfig.setLastModified(withConfig.lastModified() - 10000));
+		assertFalse(fresh.contains(withConfig.getPath()));
+
+		// a different ij.jar generates different menu entries
+		final PluginsConfigIndex other =
+			new PluginsConfigIndex(tmp, "ij: /other/ij.jar (2 bytes, 3)\n");
+		assertFalse(other.contains(without.getPath()));
+	}
+
+	@Test
+	public void testReadError() throws Exception {
+		final File tmp = createTemporaryDirectory("plugins-config-");
+		final File jar = new File(tmp, "broken.jar");
+		makeJar(jar, Set_Property.class.getName());
+
+		final PluginsConfigIndex index = new PluginsConfigIndex(tmp, IJ_STAMP);
+		final InputStream in = index.put(jar.getPath(), new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				throw new IOException("broken");
+			}
+		});
+		try {
+			in.read();
+			fail("read error was swallowed");
+		}
+		catch (final IOException e) {
+			assertEquals("broken", e.getMessage());
+		}
+		assertFalse(index.contains(jar.getPath()));
+	}
+
+	private static String read(final InputStream in) {
+		final Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A");
+		try {
+			return scanner.hasNext() ? scanner.next() : "";
+		}
+		finally {
+			scanner.close();
+		}
+	}
+}
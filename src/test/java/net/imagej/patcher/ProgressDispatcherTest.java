@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * ImageJ2 software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2025 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.patcher;
+
+import static net.imagej.patcher.TestUtils.getTestEnvironment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link ProgressDispatcher}.
+ */
+public class ProgressDispatcherTest {
+
+	private static class CountingHooks extends LegacyHooks {
+
+		private final AtomicInteger calls = new AtomicInteger();
+		private volatile double progress;
+		private volatile String status;
+
+		@Override
+		public void showProgress(final double progress) {
+			calls.incrementAndGet();
+			this.progress = progress;
+		}
+
+		@Override
+		public void showProgress(final int currentIndex, final int finalIndex) {
+			calls.incrementAndGet();
+			progress = currentIndex / (double) finalIndex;
+		}
+
+		@Override
+		public void showStatus(final String status) {
+			calls.incrementAndGet();
+			this.status = status;
+		}
+	}
+
+	@Test
+	public void testCoalescing() throws InterruptedException {
+		final ProgressDispatcher dispatcher = new ProgressDispatcher(20);
+		final CountingHooks hooks = new CountingHooks();
+		dispatcher.setHooks(hooks);
+		final long start = System.currentTimeMillis();
+		for (int i = 0; i <= 100000; i++) {
+			dispatcher.showProgress(i, 100000);
+			dispatcher.showStatus("Row " + i);
+		}
+		Thread.sleep(200);
+		// at most two values per delivery, every 50 milliseconds
+		final long deliveries = (System.currentTimeMillis() - start) / 50 + 1;
+		assertTrue("Too many calls: " + hooks.calls,
+			hooks.calls.get() <= 2 * deliveries);
+		assertEquals(1.0, hooks.progress, 0);
+		assertEquals("Row 100000", hooks.status);
+
+		// nothing is delivered again when nothing changed
+		final int calls = hooks.calls.get();
+		Thread.sleep(200);
+		assertEquals(calls, hooks.calls.get());
+	}
+
+	@Test
+	public void testLastCallWins() throws InterruptedException {
+		final ProgressDispatcher dispatcher = new ProgressDispatcher(20);
+		final CountingHooks hooks = new CountingHooks();
+		dispatcher.setHooks(hooks);
+		dispatcher.showProgress(0.5);
+		Thread.sleep(200);
+		assertEquals(0.5, hooks.progress, 0);
+		dispatcher.showProgress(9, 10);
+		dispatcher.showProgress(1.0);
+		Thread.sleep(200);
+		assertEquals(1.0, hooks.progress, 0);
+		dispatcher.showProgress(9, 10);
+		Thread.sleep(200);
+		assertEquals(0.9, hooks.progress, 0);
+		dispatcher.showProgress(1.0);
+		Thread.sleep(200);
+		assertEquals(1.0, hooks.progress, 0);
+	}
+
+	@Test
+	public void testEnvironment() throws Exception {
+		System.setProperty(ProgressDispatcher.MAX_RATE_PROPERTY, "10");
+		try {
+			final LegacyEnvironment ij1 = getTestEnvironment();
+			final CountingHooks hooks = new CountingHooks();
+			ij1.getClassLoader().loadClass("ij.IJ").getMethod("_hooks",
+				LegacyHooks.class).invoke(null, hooks);
+			ij1.runMacro("for (i = 0; i < 10000; i++) {"
+				+ "  showProgress(i, 10000);"
+				+ "  showStatus(\"Row \" + i);"
+				+ "}", "");
+			Thread.sleep(300);
+			assertTrue("Too many calls: " + hooks.calls, hooks.calls.get() < 10000);
+			assertEquals("Row 9999", hooks.status);
+		}
+		finally {
+			System.clearProperty(ProgressDispatcher.MAX_RATE_PROPERTY);
+		}
+	}
+}